@@ -0,0 +1,106 @@
+package nl.knaw.dans.rs.aggregator.benchmark;
+
+import nl.knaw.dans.rs.aggregator.util.FileChannelWriter;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a downloaded stream to a local file: a plain 8 KB stream copy against {@link FileChannelWriter}.
+ * The CPU time of the writing thread per GB written is reported as the secondary result <code>cpuMsPerGB</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileWriteBenchmark {
+
+  @Param({"1048576", "67108864"})
+  public int fileSize;
+
+  @Param({"false", "true"})
+  public boolean fsync;
+
+  private byte[] content;
+  private File file;
+  private FileChannelWriter fileWriter;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class CpuCost {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public double cpuMsPerGB;
+    private long cpuNanos;
+    private long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      cpuMsPerGB = 0;
+      cpuNanos = 0;
+      bytes = 0;
+    }
+
+    long start() {
+      return THREADS.getCurrentThreadCpuTime();
+    }
+
+    long stop(long start, long written) {
+      cpuNanos += THREADS.getCurrentThreadCpuTime() - start;
+      bytes += written;
+      cpuMsPerGB = (cpuNanos / 1e6) / (bytes / 1e9);
+      return written;
+    }
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    content = new byte[fileSize];
+    new Random(fileSize).nextBytes(content);
+    file = File.createTempFile("rs-bench", ".bin");
+    fileWriter = new FileChannelWriter(FileChannelWriter.DEFAULT_BUFFER_SIZE, fsync);
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public long streamCopy(CpuCost cpuCost) throws Exception {
+    long start = cpuCost.start();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      long written = IOUtils.copyLarge(new ByteArrayInputStream(content), out);
+      if (fsync) out.getFD().sync();
+      return cpuCost.stop(start, written);
+    }
+  }
+
+  @Benchmark
+  public long fileChannelWriter(CpuCost cpuCost) throws Exception {
+    long start = cpuCost.start();
+    return cpuCost.stop(start, fileWriter.write(new ByteArrayInputStream(content), file, false, null));
+  }
+}
@@ -0,0 +1,70 @@
+package nl.knaw.dans.rs.aggregator.benchmark;
+
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hash computation over local files, as done when verifying resources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HashUtilBenchmark {
+
+  @Param({"md5", "sha-256"})
+  public String algorithm;
+
+  @Param({"1048576", "67108864"})
+  public int fileSize;
+
+  private File file;
+
+  @Setup
+  public void setUp() throws Exception {
+    file = File.createTempFile("rs-bench", ".bin");
+    Random random = new Random(fileSize);
+    byte[] buffer = new byte[64 * 1024];
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (int written = 0; written < fileSize; written += buffer.length) {
+        random.nextBytes(buffer);
+        out.write(buffer, 0, Math.min(buffer.length, fileSize - written));
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public String computeHash() throws Exception {
+    return HashUtil.computeHash(algorithm, new FileInputStream(file));
+  }
+
+  @Benchmark
+  public String computeHashOfFile() throws Exception {
+    return HashUtil.computeHash(algorithm, file);
+  }
+}
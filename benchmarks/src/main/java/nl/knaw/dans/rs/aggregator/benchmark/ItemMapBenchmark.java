@@ -0,0 +1,89 @@
+package nl.knaw.dans.rs.aggregator.benchmark;
+
+import nl.knaw.dans.rs.aggregator.sync.CompactItemMap;
+import nl.knaw.dans.rs.aggregator.util.NormURI;
+import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
+import nl.knaw.dans.rs.aggregator.xml.RsStreamReader;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory footprint of the most recent items of a set of resources, as collected by the SitemapCollector: items
+ * of a resourcelist are streamed and merged into a HashMap or a {@link CompactItemMap}. The heap that is retained
+ * by the map is reported as the secondary result <code>retainedBytes</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class ItemMapBenchmark {
+
+  @Param({"100000", "1000000"})
+  public int itemCount;
+
+  @Param({"hashmap", "compact"})
+  public String map;
+
+  private File tmpDir;
+  private File resourceList;
+  private ResourceSyncContext rsContext;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+    public long retainedBytes;
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    tmpDir = Files.createTempDirectory("rs-bench").toFile();
+    resourceList = new SitemapGenerator("http://example.com/set1")
+      .writeResourceList(new File(tmpDir, "resourcelist.xml"), itemCount);
+    rsContext = new ResourceSyncContext();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  @Benchmark
+  public Map<URI, UrlItem> collectItems(Footprint footprint) throws Exception {
+    long before = usedHeap();
+    Map<URI, UrlItem> items = "compact".equals(map) ? new CompactItemMap() : new HashMap<>();
+    new RsStreamReader(rsContext).stream(resourceList, rsItem -> {
+      UrlItem item = (UrlItem) rsItem;
+      items.merge(NormURI.normalize(item.getLoc()).get(), item, UrlItem::latest);
+    });
+    footprint.retainedBytes = usedHeap() - before;
+    return items;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,60 @@
+package nl.knaw.dans.rs.aggregator.benchmark;
+
+import nl.knaw.dans.rs.aggregator.util.NormURI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalization of URI strings, as done for every item of every resourcelist and changelist.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NormURIBenchmark {
+
+  private static final int COUNT = 1024;
+  private static final int DISTINCT_COUNT = 100000;
+
+  private String[] uriStrings;
+  private String[] distinctUriStrings;
+
+  @Setup
+  public void setUp() {
+    uriStrings = new SitemapGenerator("http://example.com/set1").uriStrings(COUNT);
+    distinctUriStrings = new SitemapGenerator("http://example.com/set2").uriStrings(DISTINCT_COUNT);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public void normalize(Blackhole blackhole) {
+    for (String uriString : uriStrings) {
+      blackhole.consume(NormURI.normalize(uriString));
+    }
+  }
+
+  /**
+   * More URI's than fit in the cache of NormURI, each normalized once per pass.
+   */
+  @Benchmark
+  @OperationsPerInvocation(DISTINCT_COUNT)
+  public void normalizeDistinct(Blackhole blackhole) {
+    for (String uriString : distinctUriStrings) {
+      blackhole.consume(NormURI.normalize(uriString));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package nl.knaw.dans.rs.aggregator.benchmark;
+
+import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
+import nl.knaw.dans.rs.aggregator.xml.RsBuilder;
+import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import nl.knaw.dans.rs.aggregator.xml.RsStreamReader;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unmarshal throughput of resourcelists and changelists, complete with {@link RsBuilder} and item by item with
+ * {@link RsStreamReader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class RsBuilderBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int itemCount;
+
+  private File tmpDir;
+  private File resourceList;
+  private File changeList;
+  private ResourceSyncContext rsContext;
+
+  @Setup
+  public void setUp() throws Exception {
+    tmpDir = Files.createTempDirectory("rs-bench").toFile();
+    SitemapGenerator generator = new SitemapGenerator("http://example.com/set1");
+    resourceList = generator.writeResourceList(new File(tmpDir, "resourcelist.xml"), itemCount);
+    changeList = generator.writeChangeList(new File(tmpDir, "changelist.xml"), itemCount);
+    rsContext = new ResourceSyncContext();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  @Benchmark
+  public RsRoot buildResourceList() throws Exception {
+    return new RsBuilder(rsContext).setFile(resourceList).build().orElse(null);
+  }
+
+  @Benchmark
+  public RsRoot buildChangeList() throws Exception {
+    return new RsBuilder(rsContext).setFile(changeList).build().orElse(null);
+  }
+
+  @Benchmark
+  public RsRoot streamResourceList(Blackhole blackhole) throws Exception {
+    return new RsStreamReader(rsContext).stream(resourceList, blackhole::consume).orElse(null);
+  }
+}
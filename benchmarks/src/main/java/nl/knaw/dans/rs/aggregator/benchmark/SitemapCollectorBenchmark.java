@@ -0,0 +1,114 @@
+package nl.knaw.dans.rs.aggregator.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import nl.knaw.dans.rs.aggregator.sync.FsSitemapConverterProvider;
+import nl.knaw.dans.rs.aggregator.sync.SitemapCollector;
+import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.util.RsProperties;
+import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end collection of a set of resources: explore the capabilitylist, fetch and save a resourcelist and a
+ * changelist over http from a local server, unmarshal them and merge their items into the most recent items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class SitemapCollectorBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int itemCount;
+
+  @Param({"false", "true"})
+  public boolean streamingItems;
+
+  private File tmpDir;
+  private HttpServer server;
+  private URI capabilityListUri;
+  private CloseableHttpClient httpClient;
+  private ResourceSyncContext rsContext;
+
+  @Setup
+  public void setUp() throws Exception {
+    tmpDir = Files.createTempDirectory("rs-bench").toFile();
+    File docRoot = new File(tmpDir, "source");
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      File file = new File(docRoot, exchange.getRequestURI().getPath());
+      if (file.isFile()) {
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, file.length());
+        try (OutputStream out = exchange.getResponseBody()) {
+          Files.copy(file.toPath(), out);
+        }
+      } else {
+        exchange.sendResponseHeaders(404, -1);
+      }
+      exchange.close();
+    });
+    server.start();
+
+    String baseUrl = "http://localhost:" + server.getAddress().getPort() + "/set1";
+    SitemapGenerator generator = new SitemapGenerator(baseUrl);
+    File setDir = new File(docRoot, "set1");
+    generator.writeCapabilityList(new File(setDir, "capabilitylist.xml"), "resourcelist.xml", "changelist.xml");
+    generator.writeResourceList(new File(setDir, "resourcelist.xml"), itemCount);
+    generator.writeChangeList(new File(setDir, "changelist.xml"), itemCount);
+    capabilityListUri = URI.create(baseUrl + "/capabilitylist.xml");
+
+    httpClient = HttpClients.createDefault();
+    rsContext = new ResourceSyncContext();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    httpClient.close();
+    server.stop(0);
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  @Benchmark
+  public int collectSitemaps() throws Exception {
+    PathFinder pathFinder = new PathFinder(new File(tmpDir, "destination").getPath(), capabilityListUri);
+    FsSitemapConverterProvider provider = new FsSitemapConverterProvider()
+      .withResourceSyncContext(rsContext)
+      .withStreamingItems(streamingItems);
+    provider.setConditionalRequests(false);
+    provider.setPathFinder(pathFinder);
+    SitemapCollector collector = new SitemapCollector()
+      .withHttpClient(httpClient)
+      .withRsContext(rsContext)
+      .withConverter(provider.getConverter())
+      .withStreamingItems(streamingItems);
+    collector.collectSitemaps(pathFinder, new RsProperties());
+    if (collector.hasErrors()) {
+      throw new IllegalStateException("Collector has errors");
+    }
+    return collector.getMostRecentItems().size();
+  }
+}
@@ -0,0 +1,143 @@
+package nl.knaw.dans.rs.aggregator.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Random;
+
+/**
+ * Generates synthetic ResourceSync sitemaps for benchmarks. Generated documents depend only on the given
+ * arguments, so that results of different versions can be compared.
+ */
+public class SitemapGenerator {
+
+  static final ZonedDateTime BASE_DATE = ZonedDateTime.of(2017, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+  private static final String[] CHANGES = {"created", "updated", "deleted"};
+
+  private final String baseUrl;
+
+  public SitemapGenerator(String baseUrl) {
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+  }
+
+  public String getBaseUrl() {
+    return baseUrl;
+  }
+
+  public File writeCapabilityList(File file, String... lists) throws IOException {
+    try (BufferedWriter writer = newWriter(file)) {
+      writeUrlsetStart(writer, "capabilitylist", "");
+      for (String list : lists) {
+        String capability = list.contains("change") ? "changelist" : "resourcelist";
+        writer.write("  <url><loc>" + baseUrl + "/" + list + "</loc><rs:md capability=\"" + capability
+          + "\"/></url>\n");
+      }
+      writer.write("</urlset>\n");
+    }
+    return file;
+  }
+
+  /**
+   * Write a resourcelist with <code>itemCount</code> items, each with lastmod, hash and length.
+   */
+  public File writeResourceList(File file, int itemCount) throws IOException {
+    Random random = new Random(itemCount);
+    try (BufferedWriter writer = newWriter(file)) {
+      writeUrlsetStart(writer, "resourcelist", " at=\"" + BASE_DATE.plusDays(1) + "\" completed=\""
+        + BASE_DATE.plusDays(1).plusHours(1) + "\"");
+      for (int i = 0; i < itemCount; i++) {
+        writer.write("  <url><loc>" + resourceUrl(i) + "</loc><lastmod>" + BASE_DATE.plusSeconds(i)
+          + "</lastmod><rs:md hash=\"md5:" + hash(random) + "\" length=\"" + (1 + random.nextInt(1000000))
+          + "\" type=\"text/xml\"/></url>\n");
+      }
+      writer.write("</urlset>\n");
+    }
+    return file;
+  }
+
+  /**
+   * Write a changelist with <code>itemCount</code> changes on <code>itemCount / 2</code> resources, so that
+   * half of the items have to be merged with an earlier change on the same resource.
+   */
+  public File writeChangeList(File file, int itemCount) throws IOException {
+    Random random = new Random(itemCount);
+    int resources = Math.max(1, itemCount / 2);
+    try (BufferedWriter writer = newWriter(file)) {
+      writeUrlsetStart(writer, "changelist", " from=\"" + BASE_DATE.plusDays(2) + "\" until=\""
+        + BASE_DATE.plusDays(3) + "\"");
+      for (int i = 0; i < itemCount; i++) {
+        ZonedDateTime dateTime = BASE_DATE.plusDays(2).plusSeconds(i);
+        writer.write("  <url><loc>" + resourceUrl(random.nextInt(resources)) + "</loc><lastmod>"
+          + dateTime + "</lastmod><rs:md change=\"" + CHANGES[i % CHANGES.length] + "\" datetime=\"" + dateTime
+          + "\" hash=\"md5:" + hash(random) + "\" length=\"" + (1 + random.nextInt(1000000)) + "\"/></url>\n");
+      }
+      writer.write("</urlset>\n");
+    }
+    return file;
+  }
+
+  /**
+   * Generate <code>count</code> URI strings in a mix of notations that are subject to normalization.
+   */
+  public String[] uriStrings(int count) {
+    String[] uris = new String[count];
+    for (int i = 0; i < count; i++) {
+      switch (i % 4) {
+        case 0: uris[i] = resourceUrl(i); break;
+        case 1: uris[i] = baseUrl.replace("://", "://www.") + "/data//set" + (i % 10) + "/../res/" + i + ".xml"; break;
+        case 2: uris[i] = baseUrl.toUpperCase().replace("HTTP://", "http://") + "/res/./" + i + ".xml"; break;
+        default: uris[i] = baseUrl + "/res/" + i + ".xml#fragment"; break;
+      }
+    }
+    return uris;
+  }
+
+  /**
+   * Generate <code>count</code> W3C datetime strings in the notations that occur in sitemaps.
+   */
+  public static String[] dateTimeStrings(int count) {
+    String[] values = new String[count];
+    for (int i = 0; i < count; i++) {
+      ZonedDateTime zdt = BASE_DATE.plusSeconds(i * 3607L);
+      switch (i % 5) {
+        case 0: values[i] = zdt.toString(); break;                                           // 2017-01-01T01:00:07Z
+        case 1: values[i] = zdt.withZoneSameInstant(ZoneOffset.ofHours(2)).toOffsetDateTime().toString(); break;
+        case 2: values[i] = zdt.toLocalDate().toString(); break;                             // 2017-01-01
+        case 3: values[i] = zdt.toLocalDateTime().withNano(123000000).toString(); break;     // local, fraction
+        default: values[i] = zdt.toLocalDateTime().toString().substring(0, 16) + "Z"; break; // minutes only
+      }
+    }
+    return values;
+  }
+
+  private String resourceUrl(int i) {
+    return baseUrl + "/res/" + (i % 1000) + "/" + i + ".xml";
+  }
+
+  private static String hash(Random random) {
+    StringBuilder sb = new StringBuilder(32);
+    for (int i = 0; i < 4; i++) {
+      sb.append(String.format("%08x", random.nextInt()));
+    }
+    return sb.toString();
+  }
+
+  private static BufferedWriter newWriter(File file) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    parent.mkdirs();
+    return Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+  }
+
+  private static void writeUrlsetStart(BufferedWriter writer, String capability, String mdAttributes)
+    throws IOException {
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    writer.write("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\" "
+      + "xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n");
+    writer.write("  <rs:md capability=\"" + capability + "\"" + mdAttributes + "/>\n");
+  }
+}
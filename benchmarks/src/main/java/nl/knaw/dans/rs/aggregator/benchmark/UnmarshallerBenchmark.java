@@ -0,0 +1,66 @@
+package nl.knaw.dans.rs.aggregator.benchmark;
+
+import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
+import nl.knaw.dans.rs.aggregator.xml.RsBuilder;
+import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.JAXBElement;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-document overhead of unmarshalling a small sitemap, with a new Unmarshaller for each document vs. the
+ * Unmarshaller of the current thread, see {@link ResourceSyncContext#getUnmarshaller()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UnmarshallerBenchmark {
+
+  private static final String CAPABILITY_LIST = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+    "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+    "  <rs:ln rel=\"up\" href=\"http://example.com/dataset1/description.xml\"/>\n" +
+    "  <rs:md capability=\"capabilitylist\"/>\n" +
+    "  <url><loc>http://example.com/dataset1/resourcelist.xml</loc>\n" +
+    "      <rs:md capability=\"resourcelist\"/></url>\n" +
+    "  <url><loc>http://example.com/dataset1/changelist.xml</loc>\n" +
+    "      <rs:md capability=\"changelist\"/></url>\n" +
+    "</urlset>";
+
+  private byte[] document;
+  private ResourceSyncContext rsContext;
+  private RsBuilder rsBuilder;
+
+  @Setup
+  public void setUp() throws Exception {
+    document = CAPABILITY_LIST.getBytes(StandardCharsets.UTF_8);
+    rsContext = new ResourceSyncContext();
+    rsBuilder = new RsBuilder(rsContext);
+  }
+
+  @Benchmark
+  public Object newUnmarshallerPerDocument() throws Exception {
+    return ((JAXBElement<?>) rsContext.createUnmarshaller()
+      .unmarshal(new ByteArrayInputStream(document))).getValue();
+  }
+
+  @Benchmark
+  public RsRoot sharedRsBuilder() throws Exception {
+    return rsBuilder.build(new ByteArrayInputStream(document)).orElse(null);
+  }
+}
@@ -0,0 +1,60 @@
+package nl.knaw.dans.rs.aggregator.benchmark;
+
+import nl.knaw.dans.rs.aggregator.util.ZonedDateTimeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of W3C datetime strings, as done for lastmod, at, from, until etc. of every sitemap item.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZonedDateTimeUtilBenchmark {
+
+  private static final int COUNT = 1000;
+
+  private String[] values;
+
+  @Setup
+  public void setUp() {
+    ZonedDateTimeUtil.setZoneId(ZoneOffset.UTC);
+    values = SitemapGenerator.dateTimeStrings(COUNT);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public void fromXmlString(Blackhole blackhole) {
+    for (String value : values) {
+      blackhole.consume(ZonedDateTimeUtil.fromXmlString(value));
+    }
+  }
+
+  /**
+   * The same list-level timestamp on every item, like an md:at that is copied to all items of a resourcelist.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public void fromXmlStringRepeated(Blackhole blackhole) {
+    String value = values[0];
+    for (int i = 0; i < COUNT; i++) {
+      blackhole.consume(ZonedDateTimeUtil.fromXmlString(value));
+    }
+  }
+}
@@ -11,6 +11,8 @@ CONFIG_DIR=$PWD/cfg
 LOG_DIR=$PWD/logs
 # Resources and metadata are stored in destination
 DESTINATION_DIR=$PWD/destination
+# Port of the Prometheus scrape page, see metrics-exporter in cfg/syncapp-context.xml
+METRICS_PORT=9404
 
 # build image if it does not exist
 if [[ "$(docker images -q $DOCKER_IMAGE:latest 2> /dev/null)" == "" ]]; then
@@ -30,6 +32,7 @@ docker run -d --rm --name $CONTAINER_NAME \
     -v $CONFIG_DIR:/code/cfg \
     -v $LOG_DIR:/code/logs \
     -v $DESTINATION_DIR:/code/destination \
+    -p $METRICS_PORT:9404 \
     $DOCKER_IMAGE
 
 echo "Following logs of $CONTAINER_NAME"
@@ -1,7 +1,9 @@
 package nl.knaw.dans.rs.aggregator.discover;
 
+import nl.knaw.dans.rs.aggregator.http.AsyncUriReader;
 import nl.knaw.dans.rs.aggregator.http.RemoteResourceSyncFrameworkException;
 import nl.knaw.dans.rs.aggregator.http.Result;
+import nl.knaw.dans.rs.aggregator.metrics.SyncMetrics;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
 import nl.knaw.dans.rs.aggregator.xml.Capability;
 import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
@@ -11,15 +13,26 @@ import nl.knaw.dans.rs.aggregator.xml.RsMd;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
 import nl.knaw.dans.rs.aggregator.xml.Sitemapindex;
 import nl.knaw.dans.rs.aggregator.xml.Urlset;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Download ResourceSync Framework documents.
@@ -36,10 +49,25 @@ import java.util.List;
  *   There are three switches to influence the path the RsExplorer will take through the sitemap tree:
  *   {@link #followParentLinks}, {@link #followChildLinks} and {@link #followIndexLinks}.
  * </p>
+ * <p>
+ *   With {@link #withMaxConcurrentRequests(int)} set to a value greater than 1, the parents and children of a
+ *   sitemap are fetched ahead of time by a pool of that many threads, while the tree is walked in the same
+ *   order as a sequential exploration. Each URI is explored at most once and the resulting tree is the same.
+ * </p>
+ * <p>
+ *   With {@link #withHttpAsyncClient(CloseableHttpAsyncClient)} the documents are fetched ahead of time on a
+ *   non-blocking client by an {@link AsyncUriReader}: all prefetches are in flight at once, limited only by the
+ *   connection pool of the client, and the pool of <code>maxConcurrentRequests</code> threads only converts
+ *   responses.
+ * </p>
  */
 public class RsExplorer extends AbstractUriExplorer {
 
+  /** The sitemap protocol limits an uncompressed sitemap to 50MB. */
+  public static final int MAX_SITEMAP_SIZE = 50 * 1024 * 1024;
+
   private final ResourceSyncContext rsContext;
+  private final RsBuilder rsBuilder;
 
   private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> converter;
 
@@ -47,9 +75,14 @@ public class RsExplorer extends AbstractUriExplorer {
   public boolean followIndexLinks = true;
   public boolean followChildLinks = true;
 
+  private int maxConcurrentRequests = 1;
+  private CloseableHttpAsyncClient httpAsyncClient;
+  private Predicate<RsItem<?>> childFilter = item -> true;
+
   public RsExplorer(CloseableHttpClient httpClient, ResourceSyncContext rsContext) {
     super(httpClient);
     this.rsContext = rsContext;
+    rsBuilder = new RsBuilder(rsContext);
   }
 
   /**
@@ -75,91 +108,248 @@ public class RsExplorer extends AbstractUriExplorer {
     return this;
   }
 
+  /**
+   * Only follow child links of items that pass the given filter. Default is to follow all child links.
+   * The filter can, for instance, leave out items of a capabilitylist by their <code>rs:md capability</code>.
+   *
+   * @param childFilter filter on the items that point to child documents
+   * @return <code>this</code> to enable method chaining
+   */
+  public RsExplorer withChildFilter(Predicate<RsItem<?>> childFilter) {
+    this.childFilter = childFilter == null ? item -> true : childFilter;
+    return this;
+  }
+
   public RsExplorer withConverter(LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> converter) {
     this.converter = converter;
     return this;
   }
 
+  /**
+   * Add conditional headers to the requests for sitemaps. The converter should be able to handle a response
+   * with status code 304 (Not Modified), see {@link #setConditionalHeaders(Function)}.
+   *
+   * @param conditionalHeaders function that returns conditional headers for a URI, may be <code>null</code>
+   * @return <code>this</code> to enable method chaining
+   */
+  public RsExplorer withConditionalHeaders(Function<URI, Header[]> conditionalHeaders) {
+    setConditionalHeaders(conditionalHeaders);
+    return this;
+  }
+
+  /**
+   * Fetch sitemaps concurrently, with at most <code>maxConcurrentRequests</code> at a time.
+   * Default is 1: the sitemap tree is explored depth-first, one request at a time.
+   *
+   * @param maxConcurrentRequests maximum number of concurrent requests
+   * @return <code>this</code> to enable method chaining
+   */
+  public RsExplorer withMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+    return this;
+  }
+
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  /**
+   * Fetch sitemaps ahead of time on the given non-blocking client. The client should be started, see
+   * {@link nl.knaw.dans.rs.aggregator.http.HttpClientFactory#createHttpAsyncClient()}.
+   * Default is <code>null</code>: sitemaps are fetched on the blocking client of this explorer.
+   *
+   * @param httpAsyncClient a started async client, may be <code>null</code>
+   * @return <code>this</code> to enable method chaining
+   */
+  public RsExplorer withHttpAsyncClient(CloseableHttpAsyncClient httpAsyncClient) {
+    this.httpAsyncClient = httpAsyncClient;
+    return this;
+  }
+
+  public CloseableHttpAsyncClient getHttpAsyncClient() {
+    return httpAsyncClient;
+  }
+
+  private boolean isConcurrent() {
+    return maxConcurrentRequests > 1 || httpAsyncClient != null;
+  }
+
   public ResultIndex explore(URI uri) {
     ResultIndex index = new ResultIndex();
     explore(uri, index);
     return index;
   }
 
-  @SuppressWarnings ("unchecked")
   @Override
   public Result<RsRoot> explore(URI uri, ResultIndex index) {
-    Result<RsRoot> result = execute(uri, getConverter());
+    if (!isConcurrent()) {
+      return doExplore(uri, index, null);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentRequests);
+    try {
+      return doExplore(uri, index, new Prefetcher(executor, createAsyncUriReader(executor)));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private AsyncUriReader createAsyncUriReader(ExecutorService executor) {
+    if (httpAsyncClient == null) {
+      return null;
+    }
+    AsyncUriReader asyncUriReader = new AsyncUriReader(httpAsyncClient, executor);
+    asyncUriReader.setKeepingHeaders(isKeepingHeaders());
+    asyncUriReader.setConditionalHeaders(getConditionalHeaders());
+    asyncUriReader.setMaxBodySize(MAX_SITEMAP_SIZE);
+    return asyncUriReader;
+  }
+
+  @SuppressWarnings ("unchecked")
+  private Result<RsRoot> doExplore(URI uri, ResultIndex index, Prefetcher prefetcher) {
+    Result<RsRoot> result = prefetcher == null ? execute(uri, getConverter()) : prefetcher.get(uri);
     index.add(result);
     if (result.hasErrors()) {
       return result;
     }
     Capability capability = extractCapability(result);
 
-    if (followParentLinks) {
-      // rs:ln rel="up" -> points to parent document, a urlset.
-      String parentLink = result.getContent().map(rsRoot -> rsRoot.getLink("up")).orElse(null);
-      if (parentLink != null && !index.contains(parentLink)) {
+    // rs:ln rel="up" -> points to parent document, a urlset.
+    String parentLink = followParentLinks ?
+      result.getContent().map(rsRoot -> rsRoot.getLink("up")).orElse(null) : null;
+    // rs:ln rel="index" -> points to parent index, a sitemapindex.
+    String indexLink = followIndexLinks ?
+      result.getContent().map(rsRoot -> rsRoot.getLink("index")).orElse(null) : null;
+    List<String> childLinks = followChildLinks ? getChildLinks(result) : Collections.emptyList();
+
+    if (prefetcher != null) {
+      prefetcher.prefetch(parentLink, index);
+      prefetcher.prefetch(indexLink, index);
+      childLinks.forEach(childLink -> prefetcher.prefetch(childLink, index));
+    }
+
+    if (parentLink != null && !index.contains(parentLink)) {
+      try {
+        URI parentUri = new URI(parentLink);
+        Result<RsRoot> parentResult = doExplore(parentUri, index, prefetcher);
+        result.addParent(parentResult);
+        verifyUpRelation(result, parentResult, capability);
+      } catch (URISyntaxException e) {
+        index.addInvalidUri(parentLink);
+        result.addError(e);
+        result.addInvalidUri(parentLink);
+      }
+    }
+
+    if (indexLink != null && !index.contains(indexLink)) {
+      try {
+        URI indexUri = new URI(indexLink);
+        Result<RsRoot> indexResult = doExplore(indexUri, index, prefetcher);
+        result.addParent(indexResult);
+        verifyIndexRelation(result, indexResult, capability);
+      } catch (URISyntaxException e) {
+        index.addInvalidUri(indexLink);
+        result.addError(e);
+        result.addInvalidUri(indexLink);
+      }
+    }
+
+    for (String childLink : childLinks) {
+      if (!index.contains(childLink)) {
         try {
-          URI parentUri = new URI(parentLink);
-          Result<RsRoot> parentResult = explore(parentUri, index);
-          result.addParent(parentResult);
-          verifyUpRelation(result, parentResult, capability);
+          URI childUri = new URI(childLink);
+          Result<RsRoot> childResult = doExplore(childUri, index, prefetcher);
+          result.addChild(childResult);
+          verifyChildRelation(result, childResult, capability);
         } catch (URISyntaxException e) {
-          index.addInvalidUri(parentLink);
+          index.addInvalidUri(childLink);
           result.addError(e);
-          result.addInvalidUri(parentLink);
+          result.addInvalidUri(childLink);
         }
       }
     }
 
-    if (followIndexLinks) {
-      // rs:ln rel="index" -> points to parent index, a sitemapindex.
-      String indexLink = result.getContent().map(rsRoot -> rsRoot.getLink("index")).orElse(null);
-      if (indexLink != null && !index.contains(indexLink)) {
-        try {
-          URI indexUri = new URI(indexLink);
-          Result<RsRoot> indexResult = explore(indexUri, index);
-          result.addParent(indexResult);
-          verifyIndexRelation(result, indexResult, capability);
-        } catch (URISyntaxException e) {
-          index.addInvalidUri(indexLink);
-          result.addError(e);
-          result.addInvalidUri(indexLink);
+    return result;
+  }
+
+  @SuppressWarnings ("unchecked")
+  private List<String> getChildLinks(Result<RsRoot> result) {
+    // elements <url> or <sitemap> have the location of the children of result.
+    // children of Urlset with capability resourcelist, resourcedump, changelist, changedump
+    // are the resources them selves. do not explore these with this explorer.
+    String xmlString = result.getContent()
+      .map(RsRoot::getMetadata).flatMap(RsMd::getCapability).orElse("invalid");
+
+    boolean isSitemapindex = result.getContent().map(rsRoot -> rsRoot instanceof Sitemapindex).orElse(false);
+
+    List<String> childLinks = new ArrayList<>();
+    if (Capability.levelfor(xmlString) > Capability.RESOURCELIST.level || isSitemapindex) {
+      List<RsItem> itemList = result.getContent().map(RsRoot::getItemList).orElse(Collections.emptyList());
+      for (RsItem item : itemList) {
+        String childLink = item.getLoc();
+        if (childLink != null && childFilter.test(item)) {
+          childLinks.add(childLink);
         }
       }
     }
+    return childLinks;
+  }
+
+  /**
+   * Fetches documents ahead of the depth-first walk of {@link #doExplore(URI, ResultIndex, Prefetcher)}. Only
+   * the requests run on the executor, or on the async reader if there is one; the walk itself, and with it the
+   * linking of parents and children, stays on the calling thread and is the same as that of a sequential
+   * exploration.
+   */
+  private class Prefetcher {
+
+    private final ExecutorService executor;
+    private final AsyncUriReader asyncUriReader;
+    private final Map<String, Future<Result<RsRoot>>> fetches = new HashMap<>();
+
+    private Prefetcher(ExecutorService executor, AsyncUriReader asyncUriReader) {
+      this.executor = executor;
+      this.asyncUriReader = asyncUriReader;
+    }
 
-    if (followChildLinks) {
-      // elements <url> or <sitemap> have the location of the children of result.
-      // children of Urlset with capability resourcelist, resourcedump, changelist, changedump
-      // are the resources them selves. do not explore these with this explorer.
-      String xmlString = result.getContent()
-        .map(RsRoot::getMetadata).flatMap(RsMd::getCapability).orElse("invalid");
-
-      boolean isSitemapindex = result.getContent().map(rsRoot -> rsRoot instanceof Sitemapindex).orElse(false);
-
-      if (Capability.levelfor(xmlString) > Capability.RESOURCELIST.level || isSitemapindex) {
-        List<RsItem> itemList = result.getContent().map(RsRoot::getItemList).orElse(Collections.emptyList());
-        for (RsItem item : itemList) {
-          String childLink = item.getLoc();
-          if (childLink != null && !index.contains(childLink)) {
-            try {
-              URI childUri = new URI(childLink);
-              Result<RsRoot> childResult = explore(childUri, index);
-              result.addChild(childResult);
-              verifyChildRelation(result, childResult, capability);
-            } catch (URISyntaxException e) {
-              index.addInvalidUri(childLink);
-              result.addError(e);
-              result.addInvalidUri(childLink);
-            }
-          }
+    private void prefetch(String link, ResultIndex index) {
+      if (link == null || fetches.containsKey(link) || index.contains(link)) {
+        return;
+      }
+      try {
+        URI uri = new URI(link);
+        SyncMetrics.explorerQueue().incrementAndGet();
+        if (asyncUriReader != null) {
+          fetches.put(link, asyncUriReader.executeAsync(uri, getConverter())
+            .whenComplete((result, e) -> SyncMetrics.explorerQueue().decrementAndGet()));
+        } else {
+          fetches.put(link, executor.submit(() -> {
+            SyncMetrics.explorerQueue().decrementAndGet();
+            return execute(uri, getConverter());
+          }));
         }
+      } catch (URISyntaxException e) {
+        // reported by the walk.
       }
     }
 
-    return result;
+    private Result<RsRoot> get(URI uri) {
+      Future<Result<RsRoot>> fetch = fetches.remove(uri.toString());
+      if (fetch == null) {
+        return asyncUriReader == null ? execute(uri, getConverter()) : asyncUriReader.execute(uri, getConverter());
+      }
+      try {
+        return fetch.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        Result<RsRoot> result = new Result<>(uri);
+        result.addError(e);
+        return result;
+      } catch (ExecutionException e) {
+        Result<RsRoot> result = new Result<>(uri);
+        result.addError(e.getCause());
+        return result;
+      }
+    }
   }
 
   private Capability extractCapability(Result<RsRoot> result) {
@@ -240,9 +430,13 @@ public class RsExplorer extends AbstractUriExplorer {
     return rsContext;
   }
 
+  private RsBuilder getRsBuilder() {
+    return rsBuilder;
+  }
+
   private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> rsConverter = (uri, response) -> {
     InputStream inStream = response.getEntity().getContent();
-    return new RsBuilder(this.getRsContext()).setInputStream(inStream).build().orElse(null);
+    return getRsBuilder().build(inStream).orElse(null);
   };
 
   private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> getConverter() {
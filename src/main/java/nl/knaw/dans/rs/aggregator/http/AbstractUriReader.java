@@ -1,8 +1,10 @@
 package nl.knaw.dans.rs.aggregator.http;
 
+import nl.knaw.dans.rs.aggregator.metrics.SyncMetrics;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.ContentType;
@@ -13,14 +15,22 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.util.function.Function;
 
 /**
  * Execute requests and store response in a {@link Result}.
+ * <p>
+ *   If a function for conditional headers is set, the headers it returns for a URI (typically
+ *   <code>If-None-Match</code> and/or <code>If-Modified-Since</code>) are added to the request. A response
+ *   with status code 304 (Not Modified) on such a conditional request is handed to the response function, that
+ *   should know how to deliver the result from a local copy.
+ * </p>
  */
 public class AbstractUriReader {
   private final CloseableHttpClient httpClient;
   private boolean keepingHeaders = false;
-  private URI currentUri;
+  private volatile URI currentUri;
+  private Function<URI, Header[]> conditionalHeaders;
 
   final static Logger logger = LoggerFactory.getLogger(AbstractUriReader.class);
 
@@ -42,6 +52,14 @@ public class AbstractUriReader {
     this.keepingHeaders = keepingHeaders;
   }
 
+  public Function<URI, Header[]> getConditionalHeaders() {
+    return conditionalHeaders;
+  }
+
+  public void setConditionalHeaders(Function<URI, Header[]> conditionalHeaders) {
+    this.conditionalHeaders = conditionalHeaders;
+  }
+
   protected CloseableHttpClient getHttpClient() {
     return httpClient;
   }
@@ -51,36 +69,79 @@ public class AbstractUriReader {
   }
 
   public <R> Result<R> execute(URI uri, LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
+    return execute(uri, new Header[0], func);
+  }
+
+  /**
+   * Execute a GET request on the given uri with the given additional request headers.
+   *
+   * @param uri the uri to GET
+   * @param headers additional request headers
+   * @param func function that converts the response
+   * @param <R> type of the result content
+   * @return Result with the converted response
+   */
+  public <R> Result<R> execute(URI uri, Header[] headers,
+                               LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
     logger.debug("Executing GET on uri {}", uri);
     currentUri = uri;
     Result<R> result = new Result<R>(uri);
     HttpGet request = new HttpGet(uri);
+    for (Header header : headers) {
+      request.addHeader(header);
+    }
     CloseableHttpResponse response = null;
+    long start = System.nanoTime();
     try  {
+      boolean conditional = addConditionalHeaders(conditionalHeaders, uri, request);
       response = httpClient.execute(request);
-      int statusCode = response.getStatusLine().getStatusCode();
-      result.setStatusLine(response.getStatusLine().toString());
-      logger.debug("Received {} from {}", response.getStatusLine(), uri);
-      result.setStatusCode(statusCode);
-      if (keepingHeaders) {
-        for (Header header : response.getAllHeaders()) {
-          result.getHeaders().put(header.getName(), header.getValue());
-        }
-      }
-      if (statusCode < 200 || statusCode > 299) {
-        result.addError(new RemoteException(statusCode, response.getStatusLine().getReasonPhrase(), uri));
-      } else {
-        result.accept(func.apply(uri, response));
-      }
+      handleResponse(uri, conditional, keepingHeaders, response, result, func);
     } catch (Exception e) {
       logger.error("Error executing GET on uri {}", uri, e);
       result.addError(e);
     } finally {
       closeResponse(response);
+      SyncMetrics.recordRequest(uri, result.getStatusCode(), System.nanoTime() - start);
     }
     return result;
   }
 
+  /**
+   * Gather status and headers of the given response in the result and apply the response function, if the
+   * status code is 2xx or 304 (Not Modified) on a conditional request. Shared with {@link AsyncUriReader}.
+   */
+  static <R> void handleResponse(URI uri, boolean conditional, boolean keepingHeaders, HttpResponse response,
+                                 Result<R> result, LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func)
+    throws Exception {
+    int statusCode = response.getStatusLine().getStatusCode();
+    result.setStatusLine(response.getStatusLine().toString());
+    logger.debug("Received {} from {}", response.getStatusLine(), uri);
+    result.setStatusCode(statusCode);
+    if (keepingHeaders) {
+      for (Header header : response.getAllHeaders()) {
+        result.getHeaders().put(header.getName(), header.getValue());
+      }
+    }
+    if (conditional && statusCode == HttpStatus.SC_NOT_MODIFIED) {
+      result.accept(func.apply(uri, response));
+    } else if (statusCode < 200 || statusCode > 299) {
+      result.addError(new RemoteException(statusCode, response.getStatusLine().getReasonPhrase(), uri));
+    } else {
+      result.accept(func.apply(uri, response));
+    }
+  }
+
+  static boolean addConditionalHeaders(Function<URI, Header[]> conditionalHeaders, URI uri, HttpGet request) {
+    if (conditionalHeaders == null) return false;
+    Header[] headers = conditionalHeaders.apply(uri);
+    if (headers == null || headers.length == 0) return false;
+    for (Header header : headers) {
+      request.addHeader(header);
+    }
+    logger.debug("Conditional GET on uri {}", uri);
+    return true;
+  }
+
   private void closeResponse(CloseableHttpResponse response) {
     if (response != null) try {
       response.close();
@@ -0,0 +1,251 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import nl.knaw.dans.rs.aggregator.metrics.SyncMetrics;
+import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
+import org.apache.http.ContentTooLongException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.ContentBufferEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SimpleInputBuffer;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Execute requests on a non-blocking {@link CloseableHttpAsyncClient} and store responses in a {@link Result}.
+ * <p>
+ *   The counterpart of {@link AbstractUriReader} for many small documents or resources in flight at once: requests
+ *   are multiplexed over the few I/O threads of the client, see {@link HttpClientFactory#createHttpAsyncClient()}.
+ *   The body of a response is buffered in memory, up to <code>maxBodySize</code> bytes, before the response
+ *   function is applied on the <code>executor</code>, so that I/O threads are never blocked by conversion.
+ * </p>
+ * <p>
+ *   {@link #executeAsync(URI, Header[], LambdaUtil.BiFunction_WithExceptions)} returns a future that always
+ *   completes normally, with errors gathered in the Result, like
+ *   {@link AbstractUriReader#execute(URI, Header[], LambdaUtil.BiFunction_WithExceptions)}.
+ *   Conditional headers and 304 (Not Modified) responses are handled the same way.
+ * </p>
+ */
+public class AsyncUriReader {
+
+  public static final int DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+  private static Logger logger = LoggerFactory.getLogger(AsyncUriReader.class);
+
+  private final CloseableHttpAsyncClient httpAsyncClient;
+  private final Executor executor;
+  private boolean keepingHeaders = false;
+  private int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+  private Function<URI, Header[]> conditionalHeaders;
+
+  public AsyncUriReader(CloseableHttpAsyncClient httpAsyncClient) {
+    this(httpAsyncClient, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param httpAsyncClient a started async client
+   * @param executor executor on which response functions are applied
+   */
+  public AsyncUriReader(CloseableHttpAsyncClient httpAsyncClient, Executor executor) {
+    this.httpAsyncClient = httpAsyncClient;
+    this.executor = executor;
+  }
+
+  public boolean isKeepingHeaders() {
+    return keepingHeaders;
+  }
+
+  public void setKeepingHeaders(boolean keepingHeaders) {
+    this.keepingHeaders = keepingHeaders;
+  }
+
+  public int getMaxBodySize() {
+    return maxBodySize;
+  }
+
+  /**
+   * Set the maximum number of bytes of a response body. Longer responses end in a Result with a
+   * {@link ContentTooLongException}. Default is {@link #DEFAULT_MAX_BODY_SIZE}.
+   *
+   * @param maxBodySize maximum size of a response body in bytes
+   */
+  public void setMaxBodySize(int maxBodySize) {
+    this.maxBodySize = maxBodySize;
+  }
+
+  public Function<URI, Header[]> getConditionalHeaders() {
+    return conditionalHeaders;
+  }
+
+  public void setConditionalHeaders(Function<URI, Header[]> conditionalHeaders) {
+    this.conditionalHeaders = conditionalHeaders;
+  }
+
+  protected CloseableHttpAsyncClient getHttpAsyncClient() {
+    return httpAsyncClient;
+  }
+
+  public <R> CompletableFuture<Result<R>> executeAsync(URI uri,
+                                                       LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
+    return executeAsync(uri, new Header[0], func);
+  }
+
+  /**
+   * Execute a GET request on the given uri with the given additional request headers, without waiting for the
+   * response.
+   *
+   * @param uri the uri to GET
+   * @param headers additional request headers
+   * @param func function that converts the response
+   * @param <R> type of the result content
+   * @return future of the Result with the converted response, that does not complete exceptionally
+   */
+  public <R> CompletableFuture<Result<R>> executeAsync(URI uri, Header[] headers,
+                                                       LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
+    logger.debug("Executing async GET on uri {}", uri);
+    long start = System.nanoTime();
+    Result<R> result = new Result<R>(uri);
+    CompletableFuture<Result<R>> future = new CompletableFuture<>();
+    HttpGet request = new HttpGet(uri);
+    for (Header header : headers) {
+      request.addHeader(header);
+    }
+    boolean conditional = AbstractUriReader.addConditionalHeaders(conditionalHeaders, uri, request);
+    try {
+      httpAsyncClient.execute(HttpAsyncMethods.create(request), new BufferingConsumer(maxBodySize),
+        new FutureCallback<HttpResponse>() {
+
+          @Override
+          public void completed(HttpResponse response) {
+            try {
+              executor.execute(() -> future.complete(handleResponse(uri, conditional, response, result, func)));
+            } catch (RuntimeException e) {
+              // executor rejected the task
+              fail(uri, result, future, e);
+            }
+          }
+
+          @Override
+          public void failed(Exception e) {
+            fail(uri, result, future, e);
+          }
+
+          @Override
+          public void cancelled() {
+            fail(uri, result, future, new IOException("Request cancelled"));
+          }
+        });
+    } catch (RuntimeException e) {
+      // client not running
+      fail(uri, result, future, e);
+    }
+    return future.whenComplete((r, e) ->
+      SyncMetrics.recordRequest(uri, r.getStatusCode(), System.nanoTime() - start));
+  }
+
+  public <R> Result<R> execute(URI uri, LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
+    return execute(uri, new Header[0], func);
+  }
+
+  /**
+   * Execute a GET request on the given uri and wait for the Result.
+   *
+   * @param uri the uri to GET
+   * @param headers additional request headers
+   * @param func function that converts the response
+   * @param <R> type of the result content
+   * @return Result with the converted response
+   */
+  public <R> Result<R> execute(URI uri, Header[] headers,
+                               LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
+    return executeAsync(uri, headers, func).join();
+  }
+
+  private <R> Result<R> handleResponse(URI uri, boolean conditional, HttpResponse response, Result<R> result,
+                                       LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
+    try {
+      AbstractUriReader.handleResponse(uri, conditional, keepingHeaders, response, result, func);
+    } catch (Exception e) {
+      logger.error("Error executing GET on uri {}", uri, e);
+      result.addError(e);
+    }
+    return result;
+  }
+
+  private <R> void fail(URI uri, Result<R> result, CompletableFuture<Result<R>> future, Exception e) {
+    logger.error("Error executing GET on uri {}", uri, e);
+    result.addError(e);
+    future.complete(result);
+  }
+
+  /**
+   * Buffers the body of a response in memory, up to a maximum number of bytes.
+   */
+  private static class BufferingConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private final int maxBodySize;
+    private volatile HttpResponse response;
+    private volatile SimpleInputBuffer buffer;
+    private long received;
+
+    private BufferingConsumer(int maxBodySize) {
+      this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+      this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+      long length = entity.getContentLength();
+      if (length > maxBodySize) {
+        throw new ContentTooLongException("Entity content is too long: " + length);
+      }
+      buffer = new SimpleInputBuffer(length < 0 ? 4096 : (int) length, HeapByteBufferAllocator.INSTANCE);
+      response.setEntity(new ContentBufferEntity(entity, buffer));
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+      int bytes;
+      while ((bytes = buffer.consumeContent(decoder)) > 0) {
+        received += bytes;
+        if (received > maxBodySize) {
+          throw new ContentTooLongException("Entity content is too long: more than " + maxBodySize);
+        }
+      }
+    }
+
+    @Override
+    protected HttpResponse buildResult(HttpContext context) {
+      return response;
+    }
+
+    @Override
+    protected void releaseResources() {
+      response = null;
+      buffer = null;
+    }
+  }
+}
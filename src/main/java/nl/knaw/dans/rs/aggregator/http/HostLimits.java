@@ -0,0 +1,65 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+/**
+ * Limits that a {@link HostRateLimiter} imposes on the requests to one host.
+ * <p>
+ *   <code>requestsPerSecond</code> is the rate at which tokens are added to the bucket of a host, at most
+ *   <code>burst</code> tokens are kept. The number of concurrent requests starts at
+ *   <code>initialConcurrency</code> and is adapted between 1 and <code>maxConcurrency</code>.
+ * </p>
+ */
+public class HostLimits {
+
+  private double requestsPerSecond = 0;
+  private int burst = 1;
+  private int initialConcurrency = 2;
+  private int maxConcurrency = 10;
+
+  public double getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  /**
+   * Set the maximum average number of requests per second. Default is 0: no limit on the rate.
+   *
+   * @param requestsPerSecond maximum average number of requests per second, 0 for no limit
+   */
+  public void setRequestsPerSecond(double requestsPerSecond) {
+    this.requestsPerSecond = Math.max(0, requestsPerSecond);
+  }
+
+  public int getBurst() {
+    return burst;
+  }
+
+  /**
+   * Set the number of requests that may be sent at once after a quiet period. Default is 1.
+   *
+   * @param burst size of the token bucket
+   */
+  public void setBurst(int burst) {
+    this.burst = Math.max(1, burst);
+  }
+
+  public int getInitialConcurrency() {
+    return initialConcurrency;
+  }
+
+  public void setInitialConcurrency(int initialConcurrency) {
+    this.initialConcurrency = Math.max(1, initialConcurrency);
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public void setMaxConcurrency(int maxConcurrency) {
+    this.maxConcurrency = Math.max(1, maxConcurrency);
+  }
+
+  @Override
+  public String toString() {
+    return "HostLimits{requestsPerSecond=" + requestsPerSecond + ", burst=" + burst +
+      ", initialConcurrency=" + initialConcurrency + ", maxConcurrency=" + maxConcurrency + "}";
+  }
+}
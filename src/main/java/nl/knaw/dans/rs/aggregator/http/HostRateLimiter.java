@@ -0,0 +1,330 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the requests to each host, so that parallel synchronisation does not overload a source.
+ * <p>
+ *   Each host has a token bucket that limits the rate of requests and a limit on the number of concurrent
+ *   requests. The concurrency limit is adapted to the responses of the host in AIMD fashion: it grows by one
+ *   per round of successful requests and is halved on a 429 (Too Many Requests) or 503 (Service Unavailable)
+ *   response, on an I/O error or when the latency of the host rises above <code>latencyTolerance</code> times
+ *   the lowest latency seen. A 429 or 503 response also pauses all requests to the host for as long as its
+ *   <code>Retry-After</code> header says, or <code>defaultRetryAfter</code> milliseconds if it has none.
+ * </p>
+ * <p>
+ *   Limits are configured per host with {@link #setHostLimits(Map)}, other hosts get
+ *   {@link #setDefaultLimits(HostLimits)}. A limiter is installed on http clients by
+ *   {@link HttpClientFactory#setHostRateLimiter(HostRateLimiter)}.
+ * </p>
+ */
+public class HostRateLimiter {
+
+  private static Logger logger = LoggerFactory.getLogger(HostRateLimiter.class);
+
+  private HostLimits defaultLimits = new HostLimits();
+  private Map<String, HostLimits> hostLimits = new HashMap<>();
+  private long defaultRetryAfter = 1000;
+  private long maxRetryAfter = 300000;
+  private int maxThrottledRetries = 3;
+  private double latencyTolerance = 2.0;
+
+  private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+
+  public HostLimits getDefaultLimits() {
+    return defaultLimits;
+  }
+
+  public void setDefaultLimits(HostLimits defaultLimits) {
+    this.defaultLimits = defaultLimits;
+  }
+
+  public Map<String, HostLimits> getHostLimits() {
+    return hostLimits;
+  }
+
+  /**
+   * Set limits for individual hosts.
+   *
+   * @param hostLimits limits, keyed by host name
+   */
+  public void setHostLimits(Map<String, HostLimits> hostLimits) {
+    this.hostLimits = new HashMap<>();
+    hostLimits.forEach((host, limits) -> this.hostLimits.put(host.toLowerCase(Locale.ROOT), limits));
+  }
+
+  public long getDefaultRetryAfter() {
+    return defaultRetryAfter;
+  }
+
+  /**
+   * Set the pause in milliseconds after a 429 or 503 response without <code>Retry-After</code> header.
+   * Default is 1000.
+   *
+   * @param defaultRetryAfter pause in milliseconds
+   */
+  public void setDefaultRetryAfter(long defaultRetryAfter) {
+    this.defaultRetryAfter = defaultRetryAfter;
+  }
+
+  public long getMaxRetryAfter() {
+    return maxRetryAfter;
+  }
+
+  /**
+   * Set the longest pause in milliseconds. Requests that are asked to retry later than that are not retried.
+   * Default is 300000.
+   *
+   * @param maxRetryAfter longest pause in milliseconds
+   */
+  public void setMaxRetryAfter(long maxRetryAfter) {
+    this.maxRetryAfter = maxRetryAfter;
+  }
+
+  public int getMaxThrottledRetries() {
+    return maxThrottledRetries;
+  }
+
+  /**
+   * Set how many times a request that got a 429 or 503 response is sent again after the pause. Default is 3.
+   *
+   * @param maxThrottledRetries maximum number of retries of a throttled request
+   */
+  public void setMaxThrottledRetries(int maxThrottledRetries) {
+    this.maxThrottledRetries = maxThrottledRetries;
+  }
+
+  public double getLatencyTolerance() {
+    return latencyTolerance;
+  }
+
+  /**
+   * Set how many times the lowest latency of a host the average latency may be, before the number of
+   * concurrent requests to the host is decreased. Default is 2.0.
+   *
+   * @param latencyTolerance tolerated factor of the lowest latency
+   */
+  public void setLatencyTolerance(double latencyTolerance) {
+    this.latencyTolerance = latencyTolerance;
+  }
+
+  /**
+   * Wait until a request to the given host is allowed.
+   *
+   * @param host the host to send a request to
+   * @return a permit that must be released when the response is consumed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public Permit acquire(String host) throws InterruptedException {
+    HostState state = getHostState(host);
+    state.acquire();
+    return new Permit(state);
+  }
+
+  /**
+   * Current limit on the number of concurrent requests to the given host.
+   *
+   * @param host the host
+   * @return number of concurrent requests allowed
+   */
+  public int getConcurrencyLimit(String host) {
+    return getHostState(host).getConcurrencyLimit();
+  }
+
+  /**
+   * Should a request with a response with the given status code be sent again.
+   *
+   * @param statusCode status code of the response
+   * @param retryAfter value of the <code>Retry-After</code> header of the response, may be <code>null</code>
+   * @param attempt number of retries so far
+   * @return <code>true</code> if the request can be retried after the pause of its host
+   */
+  public boolean shouldRetry(int statusCode, String retryAfter, int attempt) {
+    return isThrottled(statusCode) && attempt < maxThrottledRetries
+      && parseRetryAfter(retryAfter, System.currentTimeMillis()) <= maxRetryAfter;
+  }
+
+  static boolean isThrottled(int statusCode) {
+    return statusCode == 429 || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE;
+  }
+
+  /**
+   * Parse the value of a <code>Retry-After</code> header, delay-seconds or an HTTP-date.
+   *
+   * @return the delay in milliseconds, -1 if the value is absent or cannot be parsed
+   */
+  static long parseRetryAfter(String retryAfter, long now) {
+    if (retryAfter == null || retryAfter.trim().isEmpty()) return -1;
+    String value = retryAfter.trim();
+    try {
+      return Math.max(0, Long.parseLong(value) * 1000);
+    } catch (NumberFormatException e) {
+      Date date = DateUtils.parseDate(value);
+      return date == null ? -1 : Math.max(0, date.getTime() - now);
+    }
+  }
+
+  private HostState getHostState(String host) {
+    String key = host == null ? "" : host.toLowerCase(Locale.ROOT);
+    return hosts.computeIfAbsent(key, h -> new HostState(h, hostLimits.getOrDefault(h, defaultLimits)));
+  }
+
+  /**
+   * Permission for one request. Reports the response, or the failure, to the limiter and gives the concurrency
+   * slot back on release.
+   */
+  public class Permit {
+
+    private final HostState state;
+    private final long start = System.nanoTime();
+    private boolean released;
+
+    private Permit(HostState state) {
+      this.state = state;
+    }
+
+    /**
+     * Report the response of the host.
+     *
+     * @param statusCode status code of the response
+     * @param retryAfter value of the <code>Retry-After</code> header, may be <code>null</code>
+     */
+    public void onResponse(int statusCode, String retryAfter) {
+      long now = System.nanoTime();
+      if (isThrottled(statusCode)) {
+        long delay = parseRetryAfter(retryAfter, System.currentTimeMillis());
+        delay = Math.min(maxRetryAfter, delay < 0 ? defaultRetryAfter : delay);
+        state.onThrottled(now, delay, statusCode);
+      } else if (statusCode >= 500) {
+        state.onFailure(now);
+      } else {
+        state.onSuccess(now, now - start);
+      }
+    }
+
+    /**
+     * Report that no response was received.
+     */
+    public void onFailure() {
+      state.onFailure(System.nanoTime());
+    }
+
+    /**
+     * Give the concurrency slot back. Only the first call has effect.
+     */
+    public synchronized void release() {
+      if (!released) {
+        released = true;
+        state.release();
+      }
+    }
+  }
+
+  private class HostState {
+
+    private final String host;
+    private final HostLimits limits;
+    private double concurrency;
+    private int inFlight;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private long pausedUntil = lastRefill;
+    private long lastDecrease = lastRefill;
+    private double smoothedLatency = -1;
+    private long minLatency = Long.MAX_VALUE;
+
+    private HostState(String host, HostLimits limits) {
+      this.host = host;
+      this.limits = limits;
+      concurrency = Math.min(limits.getInitialConcurrency(), limits.getMaxConcurrency());
+      tokens = limits.getBurst();
+    }
+
+    private synchronized int getConcurrencyLimit() {
+      return (int) concurrency;
+    }
+
+    private synchronized void acquire() throws InterruptedException {
+      double rate = limits.getRequestsPerSecond();
+      while (true) {
+        long now = System.nanoTime();
+        long wait;
+        if (now - pausedUntil < 0) {
+          wait = pausedUntil - now;
+        } else if (inFlight >= (int) concurrency) {
+          wait = 0;
+        } else if (rate > 0) {
+          tokens = Math.min(limits.getBurst(), tokens + (now - lastRefill) * rate / 1e9);
+          lastRefill = now;
+          if (tokens >= 1) {
+            tokens -= 1;
+            break;
+          }
+          wait = Math.max(1, (long) ((1 - tokens) * 1e9 / rate));
+        } else {
+          break;
+        }
+        if (wait == 0) {
+          wait();
+        } else {
+          TimeUnit.NANOSECONDS.timedWait(this, wait);
+        }
+      }
+      inFlight++;
+    }
+
+    private synchronized void release() {
+      inFlight--;
+      notifyAll();
+    }
+
+    private synchronized void onSuccess(long now, long latency) {
+      // the lowest latency slowly drifts up, so that a single fast response does not hold down the limit
+      minLatency = Math.min(latency, (long) (minLatency * 1.01));
+      smoothedLatency = smoothedLatency < 0 ? latency : 0.8 * smoothedLatency + 0.2 * latency;
+      if (smoothedLatency > latencyTolerance * minLatency) {
+        decrease(now, "latency " + TimeUnit.NANOSECONDS.toMillis((long) smoothedLatency) + " ms");
+      } else if (concurrency < limits.getMaxConcurrency()) {
+        concurrency = Math.min(limits.getMaxConcurrency(), concurrency + 1 / concurrency);
+        notifyAll();
+      }
+    }
+
+    private synchronized void onThrottled(long now, long delay, int statusCode) {
+      if (now + TimeUnit.MILLISECONDS.toNanos(delay) - pausedUntil > 0) {
+        pausedUntil = now + TimeUnit.MILLISECONDS.toNanos(delay);
+        logger.info("Pausing requests to {} for {} ms after status {}", host, delay, statusCode);
+      }
+      decrease(now, "status " + statusCode);
+    }
+
+    private synchronized void onFailure(long now) {
+      decrease(now, "failure");
+    }
+
+    /**
+     * Halve the concurrency limit, at most once per average latency, so that the failures of requests that
+     * were sent at the same time count as one.
+     */
+    private void decrease(long now, String reason) {
+      if (now - lastDecrease < Math.max(0, smoothedLatency)) return;
+      lastDecrease = now;
+      double decreased = Math.max(1, concurrency / 2);
+      if ((int) decreased < (int) concurrency) {
+        logger.info("Decreasing concurrent requests to {} from {} to {} because of {}",
+          host, (int) concurrency, (int) decreased, reason);
+      }
+      concurrency = decreased;
+    }
+  }
+}
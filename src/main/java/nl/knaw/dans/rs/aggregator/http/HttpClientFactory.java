@@ -0,0 +1,204 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates {@link CloseableHttpClient}s with a pooling connection manager. One client created by this factory
+ * is meant to be shared by all readers, explorers and resource managers of an application, so that connections
+ * to the same host are reused across sitemap discovery and resource downloads.
+ * <p>
+ *   Properties can be set with setters, for instance by a Spring configuration. Timeouts are in milliseconds.
+ *   Keep-alive duration is taken from the <code>Keep-Alive</code> header of a response, or
+ *   <code>keepAlive</code> if the response has none. Connections that have been idle for longer than
+ *   <code>maxIdleTime</code> are evicted by a background thread.
+ * </p>
+ * <p>
+ *   If a {@link HostRateLimiter} is set, clients created by {@link #createHttpClient()} send every request,
+ *   redirects and retries included, with a permit of the limiter.
+ * </p>
+ * <p>
+ *   {@link #createHttpAsyncClient()} creates a started, non-blocking client with the same settings, that
+ *   multiplexes all requests over <code>ioThreads</code> I/O threads, see {@link AsyncUriReader}.
+ * </p>
+ */
+public class HttpClientFactory {
+
+  private static Logger logger = LoggerFactory.getLogger(HttpClientFactory.class);
+
+  private int maxTotal = 50;
+  private int maxPerRoute = 10;
+  private int connectTimeout = 10000;
+  private int connectionRequestTimeout = 60000;
+  private int socketTimeout = 60000;
+  private long keepAlive = 30000;
+  private long maxIdleTime = 60000;
+  private int ioThreads = 2;
+  private HostRateLimiter hostRateLimiter;
+
+  public CloseableHttpClient createHttpClient() {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxTotal);
+    connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+    RequestConfig requestConfig = RequestConfig.custom()
+      .setConnectTimeout(connectTimeout)
+      .setConnectionRequestTimeout(connectionRequestTimeout)
+      .setSocketTimeout(socketTimeout)
+      .build();
+
+    ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+      long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return duration > 0 ? duration : keepAlive;
+    };
+
+    logger.info("Creating http client: maxTotal={}, maxPerRoute={}, connectTimeout={}, " +
+        "connectionRequestTimeout={}, socketTimeout={}, keepAlive={}, maxIdleTime={}",
+      maxTotal, maxPerRoute, connectTimeout, connectionRequestTimeout, socketTimeout, keepAlive, maxIdleTime);
+    HttpClientBuilder builder = HttpClients.custom();
+    if (hostRateLimiter != null) {
+      logger.info("Pacing requests per host: defaultLimits={}, hostLimits={}",
+        hostRateLimiter.getDefaultLimits(), hostRateLimiter.getHostLimits());
+      builder = new HttpClientBuilder() {
+        @Override
+        protected ClientExecChain decorateMainExec(ClientExecChain mainExec) {
+          return new RateLimitingExec(mainExec, hostRateLimiter);
+        }
+      };
+    }
+    return builder
+      .setConnectionManager(connectionManager)
+      .setDefaultRequestConfig(requestConfig)
+      .setKeepAliveStrategy(keepAliveStrategy)
+      .evictExpiredConnections()
+      .evictIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS)
+      .build();
+  }
+
+  /**
+   * Create and start a non-blocking http client. The caller should close it when done.
+   *
+   * @return a started async http client
+   */
+  public CloseableHttpAsyncClient createHttpAsyncClient() {
+    RequestConfig requestConfig = RequestConfig.custom()
+      .setConnectTimeout(connectTimeout)
+      .setConnectionRequestTimeout(connectionRequestTimeout)
+      .setSocketTimeout(socketTimeout)
+      .build();
+
+    IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+      .setIoThreadCount(ioThreads)
+      .setConnectTimeout(connectTimeout)
+      .setSoTimeout(socketTimeout)
+      .build();
+
+    ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+      long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return duration > 0 ? duration : keepAlive;
+    };
+
+    logger.info("Creating async http client: ioThreads={}, maxTotal={}, maxPerRoute={}, connectTimeout={}, " +
+        "connectionRequestTimeout={}, socketTimeout={}, keepAlive={}",
+      ioThreads, maxTotal, maxPerRoute, connectTimeout, connectionRequestTimeout, socketTimeout, keepAlive);
+    CloseableHttpAsyncClient httpAsyncClient = HttpAsyncClients.custom()
+      .setMaxConnTotal(maxTotal)
+      .setMaxConnPerRoute(maxPerRoute)
+      .setDefaultRequestConfig(requestConfig)
+      .setDefaultIOReactorConfig(ioReactorConfig)
+      .setKeepAliveStrategy(keepAliveStrategy)
+      .build();
+    httpAsyncClient.start();
+    return httpAsyncClient;
+  }
+
+  public int getMaxTotal() {
+    return maxTotal;
+  }
+
+  public void setMaxTotal(int maxTotal) {
+    this.maxTotal = maxTotal;
+  }
+
+  public int getMaxPerRoute() {
+    return maxPerRoute;
+  }
+
+  public void setMaxPerRoute(int maxPerRoute) {
+    this.maxPerRoute = maxPerRoute;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getConnectionRequestTimeout() {
+    return connectionRequestTimeout;
+  }
+
+  public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+    this.connectionRequestTimeout = connectionRequestTimeout;
+  }
+
+  public int getSocketTimeout() {
+    return socketTimeout;
+  }
+
+  public void setSocketTimeout(int socketTimeout) {
+    this.socketTimeout = socketTimeout;
+  }
+
+  public long getKeepAlive() {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(long keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  public long getMaxIdleTime() {
+    return maxIdleTime;
+  }
+
+  public void setMaxIdleTime(long maxIdleTime) {
+    this.maxIdleTime = maxIdleTime;
+  }
+
+  public int getIoThreads() {
+    return ioThreads;
+  }
+
+  public void setIoThreads(int ioThreads) {
+    this.ioThreads = ioThreads;
+  }
+
+  public HostRateLimiter getHostRateLimiter() {
+    return hostRateLimiter;
+  }
+
+  /**
+   * Set the limiter that paces requests per host. Default is <code>null</code>: requests are not paced.
+   *
+   * @param hostRateLimiter the limiter for clients created by {@link #createHttpClient()}
+   */
+  public void setHostRateLimiter(HostRateLimiter hostRateLimiter) {
+    this.hostRateLimiter = hostRateLimiter;
+  }
+}
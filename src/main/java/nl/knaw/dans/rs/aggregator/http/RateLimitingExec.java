@@ -0,0 +1,103 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+/**
+ * Sends each request, including redirects and retries, with a permit of a {@link HostRateLimiter}. The permit
+ * is released when the response is closed, so that a download counts as in flight until its body is read.
+ * Requests that are throttled by the host are sent again after the pause the host asked for.
+ */
+class RateLimitingExec implements ClientExecChain {
+
+  private static Logger logger = LoggerFactory.getLogger(RateLimitingExec.class);
+
+  private final ClientExecChain requestExecutor;
+  private final HostRateLimiter rateLimiter;
+
+  RateLimitingExec(ClientExecChain requestExecutor, HostRateLimiter rateLimiter) {
+    this.requestExecutor = requestExecutor;
+    this.rateLimiter = rateLimiter;
+  }
+
+  @Override
+  public CloseableHttpResponse execute(HttpRoute route, HttpRequestWrapper request, HttpClientContext context,
+                                       HttpExecutionAware execAware) throws IOException, HttpException {
+    String host = route.getTargetHost().getHostName();
+    for (int attempt = 0; ; attempt++) {
+      HostRateLimiter.Permit permit;
+      try {
+        permit = rateLimiter.acquire(host);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to send a request to " + host);
+      }
+      CloseableHttpResponse response;
+      try {
+        response = requestExecutor.execute(route, request, context, execAware);
+      } catch (IOException | HttpException | RuntimeException e) {
+        permit.onFailure();
+        permit.release();
+        throw e;
+      }
+      int statusCode = response.getStatusLine().getStatusCode();
+      Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+      String retryAfterValue = retryAfter == null ? null : retryAfter.getValue();
+      permit.onResponse(statusCode, retryAfterValue);
+      if (rateLimiter.shouldRetry(statusCode, retryAfterValue, attempt) && isRepeatable(request)) {
+        logger.info("Received {} from {}, retrying after pause. attempt={}", statusCode, request.getURI(), attempt + 1);
+        try {
+          response.close();
+        } finally {
+          permit.release();
+        }
+        continue;
+      }
+      return releasingOnClose(response, permit);
+    }
+  }
+
+  private static boolean isRepeatable(HttpRequestWrapper request) {
+    if (request instanceof HttpEntityEnclosingRequest) {
+      HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+      return entity == null || entity.isRepeatable();
+    }
+    return true;
+  }
+
+  private static CloseableHttpResponse releasingOnClose(CloseableHttpResponse response,
+                                                        HostRateLimiter.Permit permit) {
+    return (CloseableHttpResponse) Proxy.newProxyInstance(CloseableHttpResponse.class.getClassLoader(),
+      new Class<?>[] {CloseableHttpResponse.class}, (proxy, method, args) -> {
+        if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+          try {
+            response.close();
+          } finally {
+            permit.release();
+          }
+          return null;
+        }
+        try {
+          return method.invoke(response, args);
+        } catch (InvocationTargetException e) {
+          throw e.getCause();
+        }
+      });
+  }
+}
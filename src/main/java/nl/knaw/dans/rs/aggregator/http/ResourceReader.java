@@ -1,75 +1,241 @@
 package nl.knaw.dans.rs.aggregator.http;
 
-import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
+import nl.knaw.dans.rs.aggregator.metrics.SyncMetrics;
+import nl.knaw.dans.rs.aggregator.util.FileChannelWriter;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.utils.DateUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.Date;
 
 /**
+ * Reads resources to files.
+ * <p>
+ *   A resource is downloaded to a partial file next to the target file, that is moved into place atomically when
+ *   the download completes. If a download breaks off, the partial file is kept, together with the validator
+ *   (strong ETag or Last-Modified) of the response in a file next to it, see {@link #VALIDATOR_EXTENSION}, so
+ *   that the download can also be resumed by a later run. The next read of the same resource to the same file only
+ *   asks for the missing bytes, with a <code>Range</code> and an <code>If-Range</code> request header. If the
+ *   resource changed in the meantime the server sends the complete resource, that replaces the partial file. If
+ *   the server refuses the range request, the partial file is deleted and the resource is downloaded again from
+ *   the start.
+ * </p>
+ * <p>
+ *   If a {@link MessageDigest} is given, it is updated with the bytes of the resource while they are written, so
+ *   that the hash of a downloaded resource is known without reading the file again.
+ * </p>
+ * <p>
+ *   Files are written with the {@link FileChannelWriter} that can be set with
+ *   {@link #setFileWriter(FileChannelWriter)}.
+ * </p>
  * Created on 2017-04-11 16:15.
  */
 public class ResourceReader extends AbstractUriReader {
 
-  private File currentFile;
+  public static final String PART_EXTENSION = ".part";
+  /** Extension of the file that holds the validator of a partial file, appended to the name of the partial file. */
+  public static final String VALIDATOR_EXTENSION = ".validator";
+
+  private volatile File currentFile;
+  private boolean resumingDownloads = true;
+  private FileChannelWriter fileWriter = new FileChannelWriter();
 
 
   public ResourceReader(CloseableHttpClient httpClient) {
     super(httpClient);
   }
 
+  public boolean isResumingDownloads() {
+    return resumingDownloads;
+  }
+
+  public void setResumingDownloads(boolean resumingDownloads) {
+    this.resumingDownloads = resumingDownloads;
+  }
+
+  public FileChannelWriter getFileWriter() {
+    return fileWriter;
+  }
+
+  public void setFileWriter(FileChannelWriter fileWriter) {
+    this.fileWriter = fileWriter;
+  }
+
   public Result<File> read(String url, File file) throws URISyntaxException {
     URI uri = new URI(url);
     return read(uri, file);
   }
 
   public Result<File> read(URI uri, File file) {
+    return read(uri, file, null);
+  }
+
+  /**
+   * Read the resource at the given uri to the given file, computing its digest on the fly.
+   *
+   * @param uri uri of the resource
+   * @param file file to write the resource to
+   * @param digest digest that will be reset and updated with the bytes of the resource, may be <code>null</code>
+   * @return Result with the file as content if successful
+   */
+  public Result<File> read(URI uri, File file, MessageDigest digest) {
     currentFile = file;
-    return execute(uri, fileWriter);
+    File partFile = getPartFile(file);
+    long offset = partFile.length();
+    if (canResume(file)) {
+      logger.debug("Resuming download of {} at byte {}", uri, offset);
+      Header[] headers = {
+        new BasicHeader(HttpHeaders.RANGE, "bytes=" + offset + "-"),
+        new BasicHeader(HttpHeaders.IF_RANGE, readValidator(partFile))
+      };
+      Result<File> result = execute(uri, headers,
+        (u, response) -> writeFile(u, response, file, partFile, offset, digest));
+      int statusCode = result.getStatusCode();
+      if (statusCode == 0 || (statusCode >= 200 && statusCode <= 299)) {
+        return recordDownload(result);
+      }
+      // the range request is refused, for instance 416 if the partial file already holds the complete resource
+      logger.info("Received {} on resumed download of {}. Downloading from byte 0", statusCode, uri);
+      deleteValidator(partFile);
+      if (!partFile.delete()) logger.warn("Could not delete {}", partFile);
+    }
+    return recordDownload(execute(uri, (u, response) -> writeFile(u, response, file, partFile, 0, digest)));
+  }
+
+  private Result<File> recordDownload(Result<File> result) {
+    SyncMetrics.recordDownload(result.getUri(), !result.hasErrors());
+    return result;
+  }
+
+  /**
+   * Can an earlier, broken off download to the given file be resumed.
+   *
+   * @param file the target file of the download
+   * @return <code>true</code> if a partial file and its validator are present, <code>false</code> otherwise
+   */
+  public boolean canResume(File file) {
+    File partFile = getPartFile(file);
+    return resumingDownloads && partFile.length() > 0 && readValidator(partFile) != null;
   }
 
   public File getCurrentFile() {
     return currentFile;
   }
 
-  private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, File, Exception> fileWriter = (uri, response) -> {
+  private File getPartFile(File file) {
+    return new File(file.getParentFile(), file.getName() + PART_EXTENSION);
+  }
+
+  private static File getValidatorFile(File partFile) {
+    return new File(partFile.getParentFile(), partFile.getName() + VALIDATOR_EXTENSION);
+  }
+
+  private String readValidator(File partFile) {
+    File validatorFile = getValidatorFile(partFile);
+    if (!validatorFile.isFile()) return null;
+    try {
+      String validator = new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8).trim();
+      return validator.isEmpty() ? null : validator;
+    } catch (IOException e) {
+      logger.warn("Could not read validator {}", validatorFile, e);
+      return null;
+    }
+  }
+
+  private void writeValidator(File partFile, String validator) throws IOException {
+    Files.write(getValidatorFile(partFile).toPath(), validator.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void deleteValidator(File partFile) {
+    File validatorFile = getValidatorFile(partFile);
+    if (validatorFile.exists() && !validatorFile.delete()) logger.warn("Could not delete {}", validatorFile);
+  }
+
+  private File writeFile(URI uri, HttpResponse response, File file, File partFile, long offset,
+                         MessageDigest digest) throws Exception {
     HttpEntity entity = response.getEntity();
     if (entity != null) {
-      File file = getCurrentFile();
+      boolean append = false;
+      if (response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+        Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        if (offset == 0 || contentRange == null || !contentRange.getValue().startsWith("bytes " + offset + "-")) {
+          deleteValidator(partFile);
+          throw new IOException("Unexpected partial content: " + contentRange + ", expected offset " + offset);
+        }
+        append = true;
+      }
+      if (digest != null) {
+        digest.reset();
+        if (append) updateDigest(digest, partFile);
+      }
+
       file.getParentFile().mkdirs();
+      String validator = getValidator(response);
+      if (validator == null) {
+        deleteValidator(partFile);
+      } else {
+        writeValidator(partFile, validator);
+      }
       InputStream instream = entity.getContent();
-      OutputStream outstream = new FileOutputStream(file);
-      byte[] buffer = new byte[8 * 1024];
-      int bytesRead;
       try {
-        while ((bytesRead = instream.read(buffer)) != -1) {
-          outstream.write(buffer, 0, bytesRead);
-        }
-        Header lmh = response.getFirstHeader("Last-Modified");
-        if (lmh != null) {
-          Date date = DateUtils.parseDate(lmh.getValue());
-          file.setLastModified(date.getTime());
-        }
-
+        SyncMetrics.recordDownloadBytes(uri, fileWriter.write(instream, partFile, append, digest));
       } finally {
         IOUtils.closeQuietly(instream);
-        IOUtils.closeQuietly(outstream);
+      }
+      deleteValidator(partFile);
+      try {
+        Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      Header lmh = response.getFirstHeader("Last-Modified");
+      if (lmh != null) {
+        Date date = DateUtils.parseDate(lmh.getValue());
+        file.setLastModified(date.getTime());
       }
       return file;
     } else {
       return null;
     }
-  };
+  }
+
+  // the bytes that were downloaded before are part of the digest
+  private void updateDigest(MessageDigest digest, File partFile) throws IOException {
+    try (InputStream instream = new FileInputStream(partFile)) {
+      byte[] buffer = new byte[8 * 1024];
+      int bytesRead;
+      while ((bytesRead = instream.read(buffer)) != -1) {
+        digest.update(buffer, 0, bytesRead);
+      }
+    }
+  }
 
+  // If-Range only allows strong entity tags
+  private String getValidator(HttpResponse response) {
+    Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+    if (etag != null && !etag.getValue().startsWith("W/")) {
+      return etag.getValue();
+    }
+    Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+    return lastModified == null ? null : lastModified.getValue();
+  }
 
 }
@@ -0,0 +1,148 @@
+package nl.knaw.dans.rs.aggregator.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exports the meters of {@link SyncMetrics} over JMX and as a Prometheus endpoint, while a synchronisation
+ * job runs.
+ * <p>
+ *   Properties can be set with setters, for instance by a Spring configuration. {@link #start()} adds the
+ *   registries to the global registry of Micrometer and, if <code>prometheusPort</code> is greater than 0, serves
+ *   the scrape page at <code>http://host:prometheusPort/metrics</code>. The server runs on a daemon thread, so
+ *   it does not keep the application alive after the last synchronisation run.
+ * </p>
+ */
+public class MetricsExporter {
+
+  private static Logger logger = LoggerFactory.getLogger(MetricsExporter.class);
+
+  private boolean jmxEnabled = true;
+  private String jmxDomain = "rs-aggregator";
+  private int prometheusPort = 0;
+  private String prometheusPath = "/metrics";
+
+  private final List<MeterRegistry> registries = new ArrayList<>();
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+
+  public boolean isJmxEnabled() {
+    return jmxEnabled;
+  }
+
+  /**
+   * Register the meters as MBeans. Default is <code>true</code>.
+   *
+   * @param jmxEnabled <code>true</code> to export over JMX
+   */
+  public void setJmxEnabled(boolean jmxEnabled) {
+    this.jmxEnabled = jmxEnabled;
+  }
+
+  public String getJmxDomain() {
+    return jmxDomain;
+  }
+
+  public void setJmxDomain(String jmxDomain) {
+    this.jmxDomain = jmxDomain;
+  }
+
+  public int getPrometheusPort() {
+    return prometheusPort;
+  }
+
+  /**
+   * Set the port of the Prometheus scrape page. Default is 0: no scrape page.
+   *
+   * @param prometheusPort port of the scrape page, 0 for none
+   */
+  public void setPrometheusPort(int prometheusPort) {
+    this.prometheusPort = prometheusPort;
+  }
+
+  public String getPrometheusPath() {
+    return prometheusPath;
+  }
+
+  public void setPrometheusPath(String prometheusPath) {
+    this.prometheusPath = prometheusPath;
+  }
+
+  public synchronized void start() throws IOException {
+    if (!registries.isEmpty()) return;
+    if (jmxEnabled) {
+      JmxConfig jmxConfig = new JmxConfig() {
+        @Override
+        public String get(String key) {
+          return null;
+        }
+
+        @Override
+        public String domain() {
+          return jmxDomain;
+        }
+      };
+      add(new JmxMeterRegistry(jmxConfig, Clock.SYSTEM));
+      logger.info("Exporting metrics over JMX, domain={}", jmxDomain);
+    }
+    if (prometheusPort > 0) {
+      PrometheusMeterRegistry prometheusRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+      add(prometheusRegistry);
+      server = HttpServer.create(new InetSocketAddress(prometheusPort), 0);
+      server.createContext(prometheusPath, exchange -> {
+        byte[] body = prometheusRegistry.scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      });
+      serverExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metrics-exporter");
+        thread.setDaemon(true);
+        return thread;
+      });
+      server.setExecutor(serverExecutor);
+      server.start();
+      logger.info("Serving Prometheus metrics at http://localhost:{}{}", prometheusPort, prometheusPath);
+    }
+  }
+
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+    if (serverExecutor != null) {
+      serverExecutor.shutdownNow();
+      serverExecutor = null;
+    }
+    for (MeterRegistry registry : registries) {
+      Metrics.globalRegistry.remove(registry);
+      registry.close();
+    }
+    registries.clear();
+  }
+
+  private void add(MeterRegistry registry) {
+    registries.add(registry);
+    Metrics.globalRegistry.add(registry);
+  }
+}
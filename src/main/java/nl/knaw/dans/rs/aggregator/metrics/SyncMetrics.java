@@ -0,0 +1,155 @@
+package nl.knaw.dans.rs.aggregator.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meters of synchronisation runs, recorded in the global registry of Micrometer, {@link Metrics#globalRegistry}.
+ * <p>
+ *   Without registries added to the global registry, recording is (almost) free. {@link MetricsExporter} adds
+ *   registries that export the meters over JMX and as a Prometheus endpoint.
+ * </p>
+ * <ul>
+ *   <li><code>rs.http.requests</code> - timer of GET requests by host and status, with a percentile histogram;</li>
+ *   <li><code>rs.downloads</code> - counter of resource downloads by host and outcome;</li>
+ *   <li><code>rs.download.bytes</code> - counter of downloaded bytes by host;</li>
+ *   <li><code>rs.verification</code> - timer of local verifications by check: hash, lastmod or size, and by
+ *   phase: item for the verification of an item, bulk for hashes that are computed ahead of verification;</li>
+ *   <li><code>rs.items.pending</code> - gauge of items of sets of resources that are not yet synchronized;</li>
+ *   <li><code>rs.explorer.queue</code> - gauge of sitemaps that wait to be fetched by concurrent explorers.</li>
+ * </ul>
+ */
+public final class SyncMetrics {
+
+  public static final String HTTP_REQUESTS = "rs.http.requests";
+  public static final String DOWNLOADS = "rs.downloads";
+  public static final String DOWNLOAD_BYTES = "rs.download.bytes";
+  public static final String VERIFICATION = "rs.verification";
+  public static final String ITEMS_PENDING = "rs.items.pending";
+  public static final String EXPLORER_QUEUE = "rs.explorer.queue";
+
+  public static final String CHECK_HASH = "hash";
+  public static final String CHECK_LASTMOD = "lastmod";
+  public static final String CHECK_SIZE = "size";
+
+  public static final String PHASE_ITEM = "item";
+  public static final String PHASE_BULK = "bulk";
+
+  private static final AtomicLong itemsPending = new AtomicLong();
+  private static final AtomicLong explorerQueue = new AtomicLong();
+
+  static {
+    MeterRegistry registry = Metrics.globalRegistry;
+    Gauge.builder(ITEMS_PENDING, itemsPending, AtomicLong::get)
+      .description("Items of sets of resources that are not yet synchronized")
+      .register(registry);
+    Gauge.builder(EXPLORER_QUEUE, explorerQueue, AtomicLong::get)
+      .description("Sitemaps that wait to be fetched by concurrent explorers")
+      .register(registry);
+  }
+
+  private SyncMetrics() {
+  }
+
+  /**
+   * Record a GET request.
+   *
+   * @param uri the uri of the request
+   * @param statusCode status code of the response, 0 if there was none
+   * @param nanos duration of the request, including the handling of the response
+   */
+  public static void recordRequest(URI uri, int statusCode, long nanos) {
+    Timer.builder(HTTP_REQUESTS)
+      .description("GET requests")
+      .tag("host", host(uri))
+      .tag("status", statusCode == 0 ? "none" : String.valueOf(statusCode))
+      .publishPercentileHistogram()
+      .register(Metrics.globalRegistry)
+      .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Record a download of a resource.
+   *
+   * @param uri the uri of the resource
+   * @param success <code>true</code> if the resource was downloaded
+   */
+  public static void recordDownload(URI uri, boolean success) {
+    Counter.builder(DOWNLOADS)
+      .description("Resource downloads")
+      .tag("host", host(uri))
+      .tag("outcome", success ? "success" : "failure")
+      .register(Metrics.globalRegistry)
+      .increment();
+  }
+
+  /**
+   * Record downloaded bytes.
+   *
+   * @param uri the uri of the resource
+   * @param bytes number of bytes downloaded
+   */
+  public static void recordDownloadBytes(URI uri, long bytes) {
+    Counter.builder(DOWNLOAD_BYTES)
+      .description("Downloaded bytes")
+      .baseUnit("bytes")
+      .tag("host", host(uri))
+      .register(Metrics.globalRegistry)
+      .increment(bytes);
+  }
+
+  /**
+   * Record a verification of a local resource, in the verification of an item.
+   *
+   * @param check one of {@link #CHECK_HASH}, {@link #CHECK_LASTMOD} or {@link #CHECK_SIZE}
+   * @param nanos duration of the verification
+   */
+  public static void recordVerification(String check, long nanos) {
+    recordVerification(check, PHASE_ITEM, nanos);
+  }
+
+  /**
+   * Record a verification of a local resource.
+   *
+   * @param check one of {@link #CHECK_HASH}, {@link #CHECK_LASTMOD} or {@link #CHECK_SIZE}
+   * @param phase {@link #PHASE_ITEM} or {@link #PHASE_BULK}
+   * @param nanos duration of the verification
+   */
+  public static void recordVerification(String check, String phase, long nanos) {
+    Timer.builder(VERIFICATION)
+      .description("Verifications of local resources")
+      .tag("check", check)
+      .tag("phase", phase)
+      .register(Metrics.globalRegistry)
+      .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Items of sets of resources that are not yet synchronized, summed over the sets that are synchronized.
+   *
+   * @return the value of the gauge {@link #ITEMS_PENDING}
+   */
+  public static AtomicLong itemsPending() {
+    return itemsPending;
+  }
+
+  /**
+   * Sitemaps that wait to be fetched by concurrent explorers.
+   *
+   * @return the value of the gauge {@link #EXPLORER_QUEUE}
+   */
+  public static AtomicLong explorerQueue() {
+    return explorerQueue;
+  }
+
+  private static String host(URI uri) {
+    return uri == null || uri.getHost() == null ? "" : uri.getHost();
+  }
+}
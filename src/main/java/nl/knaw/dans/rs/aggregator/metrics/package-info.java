@@ -0,0 +1,4 @@
+/**
+ * Live metrics of synchronisation runs and their export over JMX and Prometheus.
+ */
+package nl.knaw.dans.rs.aggregator.metrics;
\ No newline at end of file
@@ -0,0 +1,465 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
+import nl.knaw.dans.rs.aggregator.xml.RsConstants;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+
+import javax.annotation.Nonnull;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+/**
+ * A map of normalized URIs to UrlItems that keeps its entries in columns of primitives instead of objects.
+ * <p>
+ *   URIs are split in an interned prefix, up to and including the last '/', and the UTF-8 bytes of the remainder.
+ *   Dates are kept as epoch millis, the change as a byte and a hash as the algorithm and the bytes of its
+ *   hexadecimal value. Keys and values are materialized when they are asked for: an item that is put in the map
+ *   is not the item that is returned by it.
+ * </p>
+ * <p>
+ *   Only what synchronisation needs is kept of an item: loc, lastmod and the md attributes datetime, at, from,
+ *   change, hash, length and type. The loc of a returned item is its normalized URI, dates are in UTC and links
+ *   are left out. The last entry takes the place of a removed entry.
+ * </p>
+ * <p>
+ *   CompactItemMap is not thread safe.
+ * </p>
+ */
+public class CompactItemMap extends AbstractMap<URI, UrlItem> implements RsConstants {
+
+  private static final long NONE = Long.MIN_VALUE;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private static final byte CHANGE_NONE = 0;
+  private static final byte CHANGE_CREATED = 1;
+  private static final byte CHANGE_UPDATED = 2;
+  private static final byte CHANGE_DELETED = 3;
+  private static final byte CHANGE_OTHER = 4;
+
+  private static final byte ALGORITHM_NONE = -1;
+  private static final byte HASH_OTHER = -2;
+
+  private final StringPool prefixes = new StringPool();
+  private final StringPool algorithms = new StringPool();
+  private final StringPool types = new StringPool();
+  // the few values that do not fit in columns
+  private final Map<Integer, String> otherChanges = new HashMap<>();
+  private final Map<Integer, String> otherHashes = new HashMap<>();
+
+  private int size;
+  private int[] prefix = new int[INITIAL_CAPACITY];
+  private byte[][] remainder = new byte[INITIAL_CAPACITY][];
+  private long[] lastmod = new long[INITIAL_CAPACITY];
+  private long[] dateTime = new long[INITIAL_CAPACITY];
+  private long[] at = new long[INITIAL_CAPACITY];
+  private long[] from = new long[INITIAL_CAPACITY];
+  private long[] length = new long[INITIAL_CAPACITY];
+  private byte[] change = new byte[INITIAL_CAPACITY];
+  private byte[] algorithm = new byte[INITIAL_CAPACITY];
+  private byte[][] hash = new byte[INITIAL_CAPACITY][];
+  private int[] type = new int[INITIAL_CAPACITY];
+
+  // open addressing on index + 1, 0 is an empty slot
+  private int[] table = new int[INITIAL_CAPACITY * 2];
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof URI && indexOf((URI) key) >= 0;
+  }
+
+  @Override
+  public UrlItem get(Object key) {
+    if (!(key instanceof URI)) return null;
+    int index = indexOf((URI) key);
+    return index < 0 ? null : getItem(index);
+  }
+
+  @Override
+  public UrlItem put(@Nonnull URI key, @Nonnull UrlItem value) {
+    int index = indexOf(key);
+    UrlItem previous = null;
+    if (index < 0) {
+      index = add(key);
+    } else {
+      previous = getItem(index);
+    }
+    setItem(index, value);
+    return previous;
+  }
+
+  @Override
+  public UrlItem merge(@Nonnull URI key, @Nonnull UrlItem value,
+                       @Nonnull BiFunction<? super UrlItem, ? super UrlItem, ? extends UrlItem> remappingFunction) {
+    int index = indexOf(key);
+    UrlItem item = value;
+    if (index < 0) {
+      index = add(key);
+    } else {
+      item = remappingFunction.apply(getItem(index), value);
+      if (item == null) {
+        removeAt(index);
+        return null;
+      }
+    }
+    setItem(index, item);
+    return item;
+  }
+
+  @Override
+  public UrlItem remove(Object key) {
+    if (!(key instanceof URI)) return null;
+    int index = indexOf((URI) key);
+    if (index < 0) return null;
+    UrlItem previous = getItem(index);
+    removeAt(index);
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    prefixes.clear();
+    algorithms.clear();
+    types.clear();
+    otherChanges.clear();
+    otherHashes.clear();
+    size = 0;
+    prefix = new int[INITIAL_CAPACITY];
+    remainder = new byte[INITIAL_CAPACITY][];
+    lastmod = new long[INITIAL_CAPACITY];
+    dateTime = new long[INITIAL_CAPACITY];
+    at = new long[INITIAL_CAPACITY];
+    from = new long[INITIAL_CAPACITY];
+    length = new long[INITIAL_CAPACITY];
+    change = new byte[INITIAL_CAPACITY];
+    algorithm = new byte[INITIAL_CAPACITY];
+    hash = new byte[INITIAL_CAPACITY][];
+    type = new int[INITIAL_CAPACITY];
+    table = new int[INITIAL_CAPACITY * 2];
+  }
+
+  @Override
+  public Set<URI> keySet() {
+    return new AbstractSet<URI>() {
+      @Override
+      public Iterator<URI> iterator() {
+        return new IndexIterator<>(CompactItemMap.this::getKey);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return containsKey(o);
+      }
+    };
+  }
+
+  @Override
+  public Set<Entry<URI, UrlItem>> entrySet() {
+    return new AbstractSet<Entry<URI, UrlItem>>() {
+      @Override
+      public Iterator<Entry<URI, UrlItem>> iterator() {
+        return new IndexIterator<>(index -> new SimpleImmutableEntry<>(getKey(index), getItem(index)));
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private URI getKey(int index) {
+    return URI.create(prefixes.get(prefix[index]) + new String(remainder[index], StandardCharsets.UTF_8));
+  }
+
+  private UrlItem getItem(int index) {
+    UrlItem item = new UrlItem(getKey(index).toString()).withLastmod(toZonedDateTime(lastmod[index]));
+    RsMd rsMd = new RsMd()
+      .withDateTime(toZonedDateTime(dateTime[index]))
+      .withAt(toZonedDateTime(at[index]))
+      .withFrom(toZonedDateTime(from[index]))
+      .withChange(getChange(index))
+      .withHash(getHash(index))
+      .withLength(length[index] == NONE ? null : length[index])
+      .withType(type[index] < 0 ? null : types.get(type[index]));
+    return item.withMetadata(rsMd);
+  }
+
+  private void setItem(int index, UrlItem item) {
+    Optional<RsMd> md = item.getMetadata();
+    lastmod[index] = toMillis(item.getLastmod());
+    dateTime[index] = toMillis(md.flatMap(RsMd::getDateTime));
+    at[index] = toMillis(md.flatMap(RsMd::getAt));
+    from[index] = toMillis(md.flatMap(RsMd::getFrom));
+    length[index] = md.flatMap(RsMd::getLength).orElse(NONE);
+    type[index] = md.flatMap(RsMd::getType).map(types::intern).orElse(-1);
+    setChange(index, md.flatMap(RsMd::getChange).orElse(null));
+    setHash(index, md.flatMap(RsMd::getHash).orElse(null));
+  }
+
+  private String getChange(int index) {
+    switch (change[index]) {
+      case CHANGE_CREATED: return CH_CREATED;
+      case CHANGE_UPDATED: return CH_UPDATED;
+      case CHANGE_DELETED: return CH_DELETED;
+      case CHANGE_OTHER: return otherChanges.get(index);
+      default: return null;
+    }
+  }
+
+  private void setChange(int index, String value) {
+    otherChanges.remove(index);
+    if (value == null) {
+      change[index] = CHANGE_NONE;
+    } else if (CH_CREATED.equals(value)) {
+      change[index] = CHANGE_CREATED;
+    } else if (CH_UPDATED.equals(value)) {
+      change[index] = CHANGE_UPDATED;
+    } else if (CH_DELETED.equals(value)) {
+      change[index] = CHANGE_DELETED;
+    } else {
+      change[index] = CHANGE_OTHER;
+      otherChanges.put(index, value);
+    }
+  }
+
+  private String getHash(int index) {
+    if (algorithm[index] == HASH_OTHER) return otherHashes.get(index);
+    if (hash[index] == null) return null;
+    String hex = HashUtil.toHex(hash[index]);
+    return algorithm[index] == ALGORITHM_NONE ? hex : algorithms.get(algorithm[index]) + ":" + hex;
+  }
+
+  private void setHash(int index, String value) {
+    otherHashes.remove(index);
+    hash[index] = null;
+    algorithm[index] = ALGORITHM_NONE;
+    if (value == null) return;
+    int colon = value.indexOf(':');
+    byte[] bytes = fromHex(value.substring(colon + 1));
+    // a hash that does not round trip, for instance with upper case or multiple values, is kept as it is
+    if (bytes == null || (colon >= 0 && algorithms.find(value.substring(0, colon)) < 0
+      && algorithms.size() >= Byte.MAX_VALUE)) {
+      algorithm[index] = HASH_OTHER;
+      otherHashes.put(index, value);
+      return;
+    }
+    hash[index] = bytes;
+    if (colon >= 0) algorithm[index] = (byte) algorithms.intern(value.substring(0, colon));
+  }
+
+  private int add(URI key) {
+    if (size == prefix.length) grow();
+    if ((size + 1) * 2 > table.length) rehash();
+    String uri = key.toString();
+    int split = uri.lastIndexOf('/') + 1;
+    int index = size++;
+    prefix[index] = prefixes.intern(uri.substring(0, split));
+    remainder[index] = uri.substring(split).getBytes(StandardCharsets.UTF_8);
+    insert(index);
+    return index;
+  }
+
+  private int indexOf(URI key) {
+    String uri = key.toString();
+    int split = uri.lastIndexOf('/') + 1;
+    int prefixId = prefixes.find(uri.substring(0, split));
+    if (prefixId < 0) return -1;
+    byte[] bytes = uri.substring(split).getBytes(StandardCharsets.UTF_8);
+    int mask = table.length - 1;
+    for (int slot = hash(prefixId, bytes) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      int index = table[slot] - 1;
+      if (prefix[index] == prefixId && Arrays.equals(remainder[index], bytes)) return index;
+    }
+    return -1;
+  }
+
+  // the last entry moves to the index of the removed entry
+  private void removeAt(int index) {
+    deleteSlot(slotOf(index));
+    int last = size - 1;
+    if (index != last) {
+      table[slotOf(last)] = index + 1;
+      prefix[index] = prefix[last];
+      remainder[index] = remainder[last];
+      lastmod[index] = lastmod[last];
+      dateTime[index] = dateTime[last];
+      at[index] = at[last];
+      from[index] = from[last];
+      length[index] = length[last];
+      change[index] = change[last];
+      algorithm[index] = algorithm[last];
+      hash[index] = hash[last];
+      type[index] = type[last];
+      otherChanges.remove(index);
+      otherHashes.remove(index);
+      String otherChange = otherChanges.remove(last);
+      if (otherChange != null) otherChanges.put(index, otherChange);
+      String otherHash = otherHashes.remove(last);
+      if (otherHash != null) otherHashes.put(index, otherHash);
+    } else {
+      otherChanges.remove(last);
+      otherHashes.remove(last);
+    }
+    remainder[last] = null;
+    hash[last] = null;
+    size--;
+  }
+
+  private int slotOf(int index) {
+    int mask = table.length - 1;
+    int slot = hash(prefix[index], remainder[index]) & mask;
+    while (table[slot] != index + 1) slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  // backward shift deletion: entries after the slot that could have been placed in it move up
+  private void deleteSlot(int slot) {
+    int mask = table.length - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+      int index = table[next] - 1;
+      int home = hash(prefix[index], remainder[index]) & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        table[hole] = table[next];
+        hole = next;
+      }
+    }
+    table[hole] = 0;
+  }
+
+  private void insert(int index) {
+    int mask = table.length - 1;
+    int slot = hash(prefix[index], remainder[index]) & mask;
+    while (table[slot] != 0) slot = (slot + 1) & mask;
+    table[slot] = index + 1;
+  }
+
+  private static int hash(int prefixId, byte[] bytes) {
+    int h = prefixId * 31 + Arrays.hashCode(bytes);
+    return h ^ (h >>> 16);
+  }
+
+  private void grow() {
+    int capacity = prefix.length + (prefix.length >> 1);
+    prefix = Arrays.copyOf(prefix, capacity);
+    remainder = Arrays.copyOf(remainder, capacity);
+    lastmod = Arrays.copyOf(lastmod, capacity);
+    dateTime = Arrays.copyOf(dateTime, capacity);
+    at = Arrays.copyOf(at, capacity);
+    from = Arrays.copyOf(from, capacity);
+    length = Arrays.copyOf(length, capacity);
+    change = Arrays.copyOf(change, capacity);
+    algorithm = Arrays.copyOf(algorithm, capacity);
+    hash = Arrays.copyOf(hash, capacity);
+    type = Arrays.copyOf(type, capacity);
+  }
+
+  private void rehash() {
+    table = new int[table.length * 2];
+    for (int index = 0; index < size; index++) {
+      insert(index);
+    }
+  }
+
+  private static long toMillis(Optional<ZonedDateTime> maybeDateTime) {
+    return maybeDateTime.map(zdt -> zdt.toInstant().toEpochMilli()).orElse(NONE);
+  }
+
+  private static ZonedDateTime toZonedDateTime(long millis) {
+    return millis == NONE ? null : Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC);
+  }
+
+  private static byte[] fromHex(String hex) {
+    int len = hex.length();
+    if (len == 0 || len % 2 != 0) return null;
+    byte[] bytes = new byte[len / 2];
+    for (int i = 0; i < len; i += 2) {
+      int high = Character.digit(hex.charAt(i), 16);
+      int low = Character.digit(hex.charAt(i + 1), 16);
+      if (high < 0 || low < 0 || Character.isUpperCase(hex.charAt(i)) || Character.isUpperCase(hex.charAt(i + 1))) {
+        return null;
+      }
+      bytes[i / 2] = (byte) ((high << 4) + low);
+    }
+    return bytes;
+  }
+
+  private class IndexIterator<T> implements Iterator<T> {
+
+    private final IntFunction<T> function;
+    private int index;
+
+    private IndexIterator(IntFunction<T> function) {
+      this.function = function;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return index < size;
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      return function.apply(index++);
+    }
+  }
+
+  private static class StringPool {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    int intern(String value) {
+      return ids.computeIfAbsent(value, v -> {
+        values.add(v);
+        return values.size() - 1;
+      });
+    }
+
+    int find(String value) {
+      Integer id = ids.get(value);
+      return id == null ? -1 : id;
+    }
+
+    String get(int id) {
+      return values.get(id);
+    }
+
+    int size() {
+      return values.size();
+    }
+
+    void clear() {
+      ids.clear();
+      values.clear();
+    }
+  }
+}
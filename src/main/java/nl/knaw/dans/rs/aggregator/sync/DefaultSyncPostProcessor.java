@@ -4,6 +4,7 @@ import nl.knaw.dans.rs.aggregator.discover.ResultIndex;
 import nl.knaw.dans.rs.aggregator.syncore.Sync;
 import nl.knaw.dans.rs.aggregator.syncore.SyncPostProcessor;
 import nl.knaw.dans.rs.aggregator.util.FileCleaner;
+import nl.knaw.dans.rs.aggregator.util.PhaseTimes;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
 import nl.knaw.dans.rs.aggregator.util.RsProperties;
 import org.slf4j.Logger;
@@ -27,6 +28,7 @@ public class DefaultSyncPostProcessor implements SyncPostProcessor {
   // properties set by DefaultSyncPostProcessor
   public static final String PROP_SZ_DELETED_METADATA_FILE_COUNT = SZ + "deleted.metadata.file.count";
   public static final String PROP_SZ_DELETED_SYNC_PROP_FILE_COUNT = SZ + "deleted.sync.prop.file.count";
+  public static final String PROP_SZ_TIME = SZ + "time."; // + phase + ".wall.ms", ".thread.ms" or ".cpu.ms", see PhaseTimes
 
   private static Logger logger = LoggerFactory.getLogger(DefaultSyncPostProcessor.class);
 
@@ -42,11 +44,15 @@ public class DefaultSyncPostProcessor implements SyncPostProcessor {
 
   @Override
   public void postProcess(ResultIndex resultIndex, PathFinder pathFinder, RsProperties syncProps) throws Exception {
+    PhaseTimes phaseTimes = new PhaseTimes();
+    PhaseTimes.Split split = PhaseTimes.start();
     int deletedMetadataFileCount = cleanUpMetadataDirectory(pathFinder, syncProps, resultIndex);
     int deletedSyncPropFileCount = cleanUpSyncProps(pathFinder, syncProps);
+    phaseTimes.stop(PhaseTimes.POST_PROCESS, split);
 
     syncProps.setInt(PROP_SZ_DELETED_METADATA_FILE_COUNT, deletedMetadataFileCount);
     syncProps.setInt(PROP_SZ_DELETED_SYNC_PROP_FILE_COUNT, deletedSyncPropFileCount);
+    phaseTimes.report(syncProps, PROP_SZ_TIME);
     try {
       File file = pathFinder.getSyncPropXmlFile();
       String lsb = "Last saved by " + this.getClass().getName();
@@ -4,36 +4,101 @@ import nl.knaw.dans.rs.aggregator.http.ResourceReader;
 import nl.knaw.dans.rs.aggregator.http.Result;
 import nl.knaw.dans.rs.aggregator.syncore.ResourceManager;
 import nl.knaw.dans.rs.aggregator.syncore.VerificationStatus;
+import nl.knaw.dans.rs.aggregator.util.FileChannelWriter;
 import nl.knaw.dans.rs.aggregator.util.FileCleaner;
 import nl.knaw.dans.rs.aggregator.util.HashUtil;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.util.NormURI;
 import nl.knaw.dans.rs.aggregator.util.ZonedDateTimeUtil;
+import nl.knaw.dans.rs.aggregator.xml.Capability;
+import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
+import nl.knaw.dans.rs.aggregator.xml.RsConstants;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import nl.knaw.dans.rs.aggregator.xml.RsStreamReader;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
+ * A {@link ResourceManager} that keeps resources on the file system, at the location given by
+ * {@link PathFinder#findResourceFilePath(URI)}.
+ * <p>
+ * If the state index is used (the default), the size, last modified and hash of local files are kept in a
+ * {@link ResourceStateIndex} at {@link PathFinder#getResourceStateFile()}. Hash verification of a file that did
+ * not change in size or last modified since its hash was recorded is answered from the index, without reading
+ * the file. The hash of a resource that is created or updated with its item is computed while it is downloaded,
+ * with the algorithm of the hash in the metadata of the item, and recorded in the index. Hashes of existing files
+ * that are not in the index are computed concurrently, on at most <code>hashThreads</code> threads, before the
+ * items of a set of resources are verified.
+ * </p>
+ * <p>
+ * A download that breaks off is resumed, up to <code>maxResumeAttempts</code> times, with a range request for
+ * the missing bytes, see {@link ResourceReader}.
+ * </p>
+ * <p>
+ * {@link #keepOnly(Set)} finds the files to delete by comparing the resources in the state index with the ones
+ * to keep, if the index is complete. It walks the resource directory only if it is not.
+ * </p>
+ * <p>
+ * ResourceDump and ChangeDump packages are downloaded to {@link PathFinder#getPackageDirectory()}. The bitstreams
+ * in a package are extracted to the location of the resource that is identified by the loc of their manifest
+ * item, and only if they verify against the hash and length in the manifest. The package is deleted afterwards.
+ * </p>
  * Created on 2017-04-28 12:56.
  */
 public class FsResourceManager implements ResourceManager {
 
   private static Logger logger = LoggerFactory.getLogger(FsResourceManager.class);
 
+  public static final String PACKAGE_MANIFEST = "manifest.xml";
+
   private PathFinder pathFinder;
   private ResourceReader resourceReader;
   private CloseableHttpClient httpClient;
+  private ResourceSyncContext rsContext;
+  private boolean usingStateIndex = true;
+  private int maxResumeAttempts = 3;
+  private int writeBufferSize = FileChannelWriter.DEFAULT_BUFFER_SIZE;
+  private boolean fsync;
+  private int hashThreads = Runtime.getRuntime().availableProcessors();
+  private FileChannelWriter fileWriter;
+  private ResourceStateIndex stateIndex;
 
   private PathFinder getPathFinder() {
     if (pathFinder == null) throw new IllegalStateException("Missing PathFinder. No PathFinder was set.");
@@ -42,6 +107,106 @@ public class FsResourceManager implements ResourceManager {
 
   public void setPathFinder(PathFinder pathFinder) {
     this.pathFinder = pathFinder;
+    if (usingStateIndex) {
+      stateIndex = new ResourceStateIndex(pathFinder.getResourceStateFile());
+    } else {
+      // files written in this run will not be known to the index of a later run
+      ResourceStateIndex.invalidate(pathFinder.getResourceStateFile());
+      stateIndex = null;
+    }
+  }
+
+  public boolean isUsingStateIndex() {
+    return usingStateIndex;
+  }
+
+  public void setUsingStateIndex(boolean usingStateIndex) {
+    this.usingStateIndex = usingStateIndex;
+  }
+
+  public int getMaxResumeAttempts() {
+    return maxResumeAttempts;
+  }
+
+  public void setMaxResumeAttempts(int maxResumeAttempts) {
+    this.maxResumeAttempts = maxResumeAttempts;
+  }
+
+  public int getWriteBufferSize() {
+    return writeBufferSize;
+  }
+
+  /**
+   * Set the size in bytes of the buffer that is used to write resources to disk.
+   * Default is {@link FileChannelWriter#DEFAULT_BUFFER_SIZE}.
+   *
+   * @param writeBufferSize size of the write buffer
+   */
+  public void setWriteBufferSize(int writeBufferSize) {
+    this.writeBufferSize = writeBufferSize;
+    fileWriter = null;
+  }
+
+  public boolean isFsync() {
+    return fsync;
+  }
+
+  /**
+   * Force downloaded resources to the storage device before they are moved into place. Default is
+   * <code>false</code>.
+   *
+   * @param fsync <code>true</code> to force resources to the storage device
+   */
+  public void setFsync(boolean fsync) {
+    this.fsync = fsync;
+    fileWriter = null;
+  }
+
+  public int getHashThreads() {
+    return hashThreads;
+  }
+
+  /**
+   * Set the maximum number of threads that work on local resources concurrently: threads that compute hashes
+   * ahead of verification, if the state index is used, and threads that delete resources in
+   * {@link #keepOnly(Set)}. Default is the number of available processors.
+   *
+   * @param hashThreads maximum number of threads working on local resources
+   */
+  public void setHashThreads(int hashThreads) {
+    this.hashThreads = Math.max(1, hashThreads);
+  }
+
+  private FileChannelWriter getFileWriter() {
+    if (fileWriter == null) {
+      fileWriter = new FileChannelWriter(writeBufferSize, fsync);
+    }
+    return fileWriter;
+  }
+
+  @Override
+  public boolean canCopy() {
+    // a subclass would be copied as FsResourceManager.
+    return getClass() == FsResourceManager.class;
+  }
+
+  @Override
+  public FsResourceManager copy() {
+    FsResourceManager copy = new FsResourceManager()
+      .withHttpClient(httpClient)
+      .withResourceReader(resourceReader)
+      .withRsContext(rsContext);
+    copy.setUsingStateIndex(usingStateIndex);
+    copy.setMaxResumeAttempts(maxResumeAttempts);
+    copy.setWriteBufferSize(writeBufferSize);
+    copy.setFsync(fsync);
+    copy.setHashThreads(hashThreads);
+    return copy;
+  }
+
+  @Override
+  public void endSynchronization() {
+    if (stateIndex != null) stateIndex.save();
   }
 
   private CloseableHttpClient getHttpClient() {
@@ -51,6 +216,7 @@ public class FsResourceManager implements ResourceManager {
     return httpClient;
   }
 
+  @Override
   public FsResourceManager withHttpClient(CloseableHttpClient httpClient) {
     this.httpClient = httpClient;
     return this;
@@ -59,6 +225,7 @@ public class FsResourceManager implements ResourceManager {
   private ResourceReader getResourceReader() {
     if (resourceReader == null) {
       resourceReader = new ResourceReader(getHttpClient());
+      resourceReader.setFileWriter(getFileWriter());
     }
     return resourceReader;
   }
@@ -68,6 +235,22 @@ public class FsResourceManager implements ResourceManager {
     return this;
   }
 
+  private ResourceSyncContext getRsContext() {
+    if (rsContext == null) {
+      try {
+        rsContext = new ResourceSyncContext();
+      } catch (JAXBException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return rsContext;
+  }
+
+  public FsResourceManager withRsContext(ResourceSyncContext rsContext) {
+    this.rsContext = rsContext;
+    return this;
+  }
+
   @Override
   public boolean exists(@Nonnull URI normalizedURI) {
     return getPathFinder().findResourceFilePath(normalizedURI).exists();
@@ -77,8 +260,7 @@ public class FsResourceManager implements ResourceManager {
   public VerificationStatus verifyHash(@Nonnull URI normalizedURI, @Nonnull String algorithm, @Nonnull String hash) {
     VerificationStatus status = VerificationStatus.not_verified;
     try {
-      String localHash = HashUtil.computeHash(algorithm,
-        new FileInputStream(getPathFinder().findResourceFilePath(normalizedURI)));
+      String localHash = findLocalHash(normalizedURI, algorithm);
       if (hash.equalsIgnoreCase(localHash)) {
         status = VerificationStatus.verification_success;
         //logger.debug("Verified {} hash of {}.", algorithm, normalizedURI);
@@ -97,6 +279,55 @@ public class FsResourceManager implements ResourceManager {
     return status;
   }
 
+  /**
+   * Computes the hashes that are not yet in the state index concurrently, on at most <code>hashThreads</code>
+   * threads, and records them in the state index.
+   *
+   * @param algorithms the hash algorithm that will be verified for each resource, keyed by normalized URI
+   */
+  @Override
+  public void prepareHashVerification(@Nonnull Map<URI, String> algorithms) {
+    if (stateIndex == null) return;
+    Map<File, String> algorithmsByFile = new HashMap<>();
+    Map<File, URI> uris = new HashMap<>();
+    Map<File, ResourceStateIndex.State> states = new HashMap<>();
+    for (Map.Entry<URI, String> entry : algorithms.entrySet()) {
+      File file = getPathFinder().findResourceFilePath(entry.getKey());
+      if (!file.isFile() || stateIndex.get(entry.getKey(), file)
+        .flatMap(state -> state.getHash(entry.getValue())).isPresent()) continue;
+      algorithmsByFile.put(file, entry.getValue());
+      uris.put(file, entry.getKey());
+      // size and last modified before hashing: a file that changes meanwhile will not be current in the index
+      states.put(file, ResourceStateIndex.State.of(file, null, null));
+    }
+    if (algorithmsByFile.isEmpty()) return;
+    long start = System.currentTimeMillis();
+    Map<File, String> hashes = HashUtil.computeHashes(algorithmsByFile, hashThreads);
+    for (Map.Entry<File, String> entry : hashes.entrySet()) {
+      ResourceStateIndex.State state = states.get(entry.getKey());
+      stateIndex.put(uris.get(entry.getKey()), new ResourceStateIndex.State(state.getSize(),
+        state.getLastModified(), algorithmsByFile.get(entry.getKey()), entry.getValue()));
+    }
+    logger.info("Computed {} of {} hashes with {} threads in {} ms", hashes.size(), algorithmsByFile.size(),
+      hashThreads, System.currentTimeMillis() - start);
+  }
+
+  private String findLocalHash(URI normalizedURI, String algorithm) throws NoSuchAlgorithmException, IOException {
+    File file = getPathFinder().findResourceFilePath(normalizedURI);
+    if (stateIndex == null) {
+      return HashUtil.computeHash(algorithm, file);
+    }
+    Optional<String> maybeHash = stateIndex.get(normalizedURI, file).flatMap(state -> state.getHash(algorithm));
+    if (maybeHash.isPresent()) {
+      return maybeHash.get();
+    }
+    long size = file.length();
+    long lastModified = file.lastModified();
+    String localHash = HashUtil.computeHash(algorithm, file);
+    stateIndex.put(normalizedURI, new ResourceStateIndex.State(size, lastModified, algorithm, localHash));
+    return localHash;
+  }
+
   @Override
   public VerificationStatus verifyLastModified(@Nonnull URI normalizedURI, @Nonnull ZonedDateTime lastModified) {
     VerificationStatus status = VerificationStatus.not_verified;
@@ -128,20 +359,121 @@ public class FsResourceManager implements ResourceManager {
     return status;
   }
 
+  /**
+   * Delete the resource files that are not in the given set. If the state index is complete, the files to delete
+   * are the ones the index knows of and that are not in the set, together with their partial downloads.
+   * Otherwise the resource directory is walked, concurrently per top level entry, after which the index is
+   * complete. Files are deleted on at most <code>hashThreads</code> threads.
+   *
+   * @param normalizedURIs the resources to keep
+   * @return <code>true</code>
+   */
   @Override
   public boolean keepOnly(@Nonnull Set<URI> normalizedURIs) {
-    Set<File> fileSet = getPathFinder().findResourceFilePaths(normalizedURIs);
-    FileCleaner fileCleaner = new FileCleaner(fileSet);
+    long start = System.currentTimeMillis();
     File resourceDirectory = getPathFinder().getResourceDirectory();
-    if (!resourceDirectory.exists()) return true;
-    try {
-      Files.walkFileTree(getPathFinder().getResourceDirectory().toPath(), fileCleaner);
-    } catch (IOException e) {
-      throw new RuntimeException("Could not clear resource directory for " + getPathFinder().getCapabilityListUri(), e);
+    if (stateIndex != null && stateIndex.isComplete()) {
+      Set<URI> obsolete = stateIndex.getURIs();
+      obsolete.removeAll(normalizedURIs);
+      int deleted = deleteAll(obsolete, resourceDirectory);
+      stateIndex.retainAll(normalizedURIs);
+      logger.info("Deleted {} of {} obsolete resources known to the state index in {} ms",
+        deleted, obsolete.size(), System.currentTimeMillis() - start);
+      return true;
+    }
+    if (stateIndex != null) stateIndex.retainAll(normalizedURIs);
+    if (resourceDirectory.exists()) {
+      Set<File> fileSet = getPathFinder().findResourceFilePaths(normalizedURIs);
+      int deleted = walkAndClean(resourceDirectory, fileSet);
+      logger.info("Deleted {} resources while walking {} in {} ms", deleted, resourceDirectory,
+        System.currentTimeMillis() - start);
+    }
+    if (stateIndex != null) {
+      // the remaining files are all in the set: record the ones that the index does not know yet
+      Set<URI> unknown = normalizedURIs.stream()
+        .filter(uri -> !stateIndex.contains(uri)).collect(Collectors.toSet());
+      sumConcurrently(unknown, uri -> {
+        File file = getPathFinder().findResourceFilePath(uri);
+        if (file.isFile()) stateIndex.put(uri, ResourceStateIndex.State.of(file, null, null));
+        return 0;
+      });
+      stateIndex.setComplete(true);
     }
     return true;
   }
 
+  private int deleteAll(Set<URI> normalizedURIs, File resourceDirectory) {
+    Set<File> directories = ConcurrentHashMap.newKeySet();
+    int deleted = sumConcurrently(normalizedURIs, uri -> {
+      File file = getPathFinder().findResourceFilePath(uri);
+      directories.add(file.getParentFile());
+      // a broken off download of the resource
+      File partFile = new File(file.getParentFile(), file.getName() + ResourceReader.PART_EXTENSION);
+      if (partFile.delete()) logger.debug("Deleted {}", partFile);
+      File validatorFile = new File(partFile.getParentFile(), partFile.getName() + ResourceReader.VALIDATOR_EXTENSION);
+      if (validatorFile.delete()) logger.debug("Deleted {}", validatorFile);
+      boolean fileDeleted = file.delete();
+      if (fileDeleted) logger.debug("Deleted {} --> {}", uri, file);
+      return fileDeleted ? 1 : 0;
+    });
+    // deepest directories first; a directory that is not empty is not deleted
+    directories.stream().sorted(Comparator.comparingInt((File dir) -> dir.getPath().length()).reversed())
+      .forEach(directory -> {
+        File dir = directory;
+        while (!dir.equals(resourceDirectory) && dir.delete()) {
+          logger.debug("Deleted directory {}", dir);
+          dir = dir.getParentFile();
+        }
+      });
+    return deleted;
+  }
+
+  private int walkAndClean(File resourceDirectory, Set<File> fileSet) {
+    String[] names = resourceDirectory.list();
+    if (names == null) return 0;
+    int deleted = sumConcurrently(Arrays.asList(names), name -> {
+      FileCleaner fileCleaner = new FileCleaner(fileSet);
+      try {
+        Files.walkFileTree(new File(resourceDirectory, name).toPath(), fileCleaner);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not clear resource directory for "
+          + getPathFinder().getCapabilityListUri(), e);
+      }
+      return fileCleaner.getDeletedFileCount();
+    });
+    String[] remaining = resourceDirectory.list();
+    if (remaining != null && remaining.length == 0 && resourceDirectory.delete()) {
+      logger.debug("Deleted directory {}", resourceDirectory);
+    }
+    return deleted;
+  }
+
+  // file operations block: run them on at most hashThreads threads of their own, not on the common pool
+  private <T> int sumConcurrently(Collection<T> items, ToIntFunction<T> task) {
+    if (items.isEmpty()) return 0;
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(hashThreads, items.size()));
+    List<Future<Integer>> futures = new ArrayList<>(items.size());
+    int sum = 0;
+    try {
+      for (T item : items) {
+        futures.add(executor.submit(() -> task.applyAsInt(item)));
+      }
+      for (Future<Integer> future : futures) {
+        sum += future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while working on resources of "
+        + getPathFinder().getCapabilityListUri(), e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    return sum;
+  }
+
   @Override
   public boolean keep(@Nonnull URI normalizedURI) {
     File resourcePath = getPathFinder().findResourceFilePath(normalizedURI);
@@ -151,32 +483,211 @@ public class FsResourceManager implements ResourceManager {
 
   @Override
   public boolean create(@Nonnull URI normalizedURI) {
-    return download(normalizedURI);
+    return download(normalizedURI, null);
+  }
+
+  @Override
+  public boolean create(@Nonnull URI normalizedURI, @Nonnull UrlItem item) {
+    return download(normalizedURI, item);
   }
 
   @Override
   public boolean update(@Nonnull URI normalizedURI) {
-    return download(normalizedURI);
+    return download(normalizedURI, null);
+  }
+
+  @Override
+  public boolean update(@Nonnull URI normalizedURI, @Nonnull UrlItem item) {
+    return download(normalizedURI, item);
   }
 
   @Override
   public boolean delete(@Nonnull URI normalizedURI) {
     File resourcePath = getPathFinder().findResourceFilePath(normalizedURI);
     boolean deleted = resourcePath.delete();
+    if (stateIndex != null) stateIndex.remove(normalizedURI);
     if (deleted) logger.debug("Deleted {} --> {}", normalizedURI, resourcePath);
     return true;
   }
 
-  private boolean download(@Nonnull URI normalizedURI) {
+  private boolean download(@Nonnull URI normalizedURI, UrlItem item) {
     boolean downloaded = false;
     File resourcePath = getPathFinder().findResourceFilePath(normalizedURI);
-    Result<File> result = getResourceReader().read(normalizedURI, resourcePath);
+    String algorithm = stateIndex == null || item == null ? null : getHashAlgorithm(item);
+    MessageDigest digest = null;
+    if (algorithm != null) {
+      try {
+        digest = MessageDigest.getInstance(algorithm);
+      } catch (NoSuchAlgorithmException e) {
+        logger.debug("Not computing hash while downloading. Unknown algorithm '{}': {}", algorithm, normalizedURI);
+        algorithm = null;
+      }
+    }
+    Result<File> result = getResourceReader().read(normalizedURI, resourcePath, digest);
+    for (int i = 0; !result.getContent().isPresent() && i < maxResumeAttempts
+      && getResourceReader().canResume(resourcePath); i++) {
+      logger.info("Resuming download. attempt={}, uri={}", i + 1, normalizedURI);
+      result = getResourceReader().read(normalizedURI, resourcePath, digest);
+    }
     if (result.getContent().isPresent()) {
       downloaded = true;
+      if (stateIndex != null) {
+        String hash = digest == null ? null : HashUtil.toHex(digest.digest());
+        stateIndex.put(normalizedURI, ResourceStateIndex.State.of(resourcePath, algorithm, hash));
+      }
       logger.debug("Downloaded {} --> {}", normalizedURI, resourcePath);
     } else {
       logger.warn("Failed download of {}: ", normalizedURI, result.lastError());
     }
     return downloaded;
   }
+
+  @Override
+  public boolean canIngestPackages() {
+    return true;
+  }
+
+  @Override
+  public Optional<List<UrlItem>> ingestPackage(@Nonnull URI packageURI) {
+    File packageDirectory = getPathFinder().getPackageDirectory();
+    File packageFile;
+    try {
+      if (packageDirectory.mkdirs()) logger.debug("Created directory path {}", packageDirectory);
+      packageFile = Files.createTempFile(packageDirectory.toPath(), "package-", ".zip").toFile();
+    } catch (IOException e) {
+      logger.error("Could not create package file in {}", packageDirectory, e);
+      return Optional.empty();
+    }
+    try {
+      Result<File> result = getResourceReader().read(packageURI, packageFile);
+      if (!result.getContent().isPresent()) {
+        logger.warn("Failed download of package {}: ", packageURI, result.lastError());
+        return Optional.empty();
+      }
+      return ingestPackageFile(packageURI, packageFile);
+    } finally {
+      if (packageFile.delete()) logger.debug("Deleted package file {}", packageFile);
+    }
+  }
+
+  private Optional<List<UrlItem>> ingestPackageFile(URI packageURI, File packageFile) {
+    try (ZipFile zipFile = new ZipFile(packageFile)) {
+      ZipEntry manifestEntry = zipFile.getEntry(PACKAGE_MANIFEST);
+      if (manifestEntry == null) {
+        logger.warn("No {} in package {}", PACKAGE_MANIFEST, packageURI);
+        return Optional.empty();
+      }
+      List<UrlItem> manifestItems = new ArrayList<>();
+      Optional<RsRoot> maybeManifest;
+      try (InputStream inputStream = zipFile.getInputStream(manifestEntry)) {
+        maybeManifest = new RsStreamReader(getRsContext())
+          .stream(inputStream, rsItem -> manifestItems.add((UrlItem) rsItem));
+      }
+      Optional<RsMd> manifestMd = maybeManifest.map(RsRoot::getMetadata);
+      String capability = manifestMd.flatMap(RsMd::getCapability).orElse("");
+      if (!Capability.RESOURCEDUMP_MANIFEST.xmlValue.equals(capability)
+        && !Capability.CHANGEDUMP_MANIFEST.xmlValue.equals(capability)) {
+        logger.warn("Unexpected capability '{}' on manifest of package {}", capability, packageURI);
+        return Optional.empty();
+      }
+      Optional<ZonedDateTime> manifestAt = manifestMd.flatMap(RsMd::getAt);
+
+      int ingested = 0;
+      for (UrlItem item : manifestItems) {
+        if (ingestEntry(zipFile, item)) ingested++;
+        // set rs:at on item if not present, in order to merge it with other items
+        if (manifestAt.isPresent() && !item.getMetadata().flatMap(RsMd::getAt).isPresent()) {
+          item.getMetadata().map(rsMd -> rsMd.withAt(manifestAt.get()));
+        }
+      }
+      logger.info("Ingested {} of {} resources from package {}", ingested, manifestItems.size(), packageURI);
+      return Optional.of(manifestItems);
+    } catch (IOException | XMLStreamException | JAXBException e) {
+      logger.warn("Could not ingest package {}", packageURI, e);
+      return Optional.empty();
+    }
+  }
+
+  private boolean ingestEntry(ZipFile zipFile, UrlItem item) {
+    Optional<RsMd> md = item.getMetadata();
+    // deleted resources have no bitstream in a package
+    if (RsConstants.CH_DELETED.equalsIgnoreCase(md.flatMap(RsMd::getChange).orElse(""))) return false;
+
+    Optional<URI> maybeUri = NormURI.normalize(item.getLoc());
+    Optional<String> maybePath = md.flatMap(RsMd::getPath);
+    if (!maybeUri.isPresent() || !maybePath.isPresent()) {
+      logger.warn("Missing loc or md:path on manifest item: {}", item.getLoc());
+      return false;
+    }
+    URI normalizedURI = maybeUri.get();
+    String path = maybePath.get();
+    ZipEntry entry = zipFile.getEntry(path.startsWith("/") ? path.substring(1) : path);
+    if (entry == null) {
+      logger.warn("No entry {} in package for {}", path, normalizedURI);
+      return false;
+    }
+    File resourcePath;
+    try {
+      resourcePath = getPathFinder().findResourceFilePath(normalizedURI);
+    } catch (IllegalArgumentException e) {
+      logger.warn("Manifest item not in set of resources: {}", normalizedURI, e);
+      return false;
+    }
+
+    String algorithm = getHashAlgorithm(item);
+    String hash = md.flatMap(RsMd::getHash).map(h -> h.substring(h.indexOf(':') + 1)).orElse(null);
+
+    File partFile = new File(resourcePath.getParentFile(), resourcePath.getName() + ResourceReader.PART_EXTENSION);
+    try {
+      MessageDigest digest = algorithm == null ? null : MessageDigest.getInstance(algorithm);
+      File directory = partFile.getParentFile();
+      if (directory.mkdirs()) logger.debug("Created directory path {}", directory);
+      long size;
+      try (InputStream inputStream = zipFile.getInputStream(entry)) {
+        size = getFileWriter().write(inputStream, partFile, false, digest);
+      }
+      Optional<Long> maybeLength = md.flatMap(RsMd::getLength);
+      if (maybeLength.isPresent() && maybeLength.get() != size) {
+        logger.info("Length not equal in package. manifest={}, entry={}, uri={}", maybeLength.get(), size,
+          normalizedURI);
+        return deletePart(partFile);
+      }
+      String localHash = digest == null ? null : HashUtil.toHex(digest.digest());
+      if (hash != null && !hash.equalsIgnoreCase(localHash)) {
+        logger.info("Hash failure in package. algorithm={}, manifest={}, entry={}, uri={}",
+          algorithm, hash, localHash, normalizedURI);
+        return deletePart(partFile);
+      }
+      try {
+        Files.move(partFile.toPath(), resourcePath.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(partFile.toPath(), resourcePath.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      item.getLastmod().ifPresent(lastmod -> resourcePath.setLastModified(ZonedDateTimeUtil.toLong(lastmod)));
+      if (stateIndex != null) {
+        stateIndex.put(normalizedURI, ResourceStateIndex.State.of(resourcePath, algorithm, localHash));
+      }
+      logger.debug("Ingested {} --> {}", normalizedURI, resourcePath);
+      return true;
+    } catch (NoSuchAlgorithmException e) {
+      logger.error("Unknown hash algorithm: '{}': {}", algorithm, normalizedURI, e);
+    } catch (IOException e) {
+      logger.warn("Could not extract {} from package: {}", path, normalizedURI, e);
+    }
+    return deletePart(partFile);
+  }
+
+  // algorithm of the hash in the metadata of the item, as in 'md5:1584abdf8ebdc9802ac0c6a7402c03b6'
+  private String getHashAlgorithm(UrlItem item) {
+    Optional<String> maybeHash = item.getMetadata().flatMap(RsMd::getHash);
+    if (!maybeHash.isPresent()) return null;
+    String[] splitHash = maybeHash.get().split(":");
+    return splitHash.length > 1 ? splitHash[0] : "md5";
+  }
+
+  private boolean deletePart(File partFile) {
+    if (partFile.exists() && !partFile.delete()) logger.warn("Could not delete {}", partFile);
+    return false;
+  }
 }
@@ -1,39 +1,71 @@
 package nl.knaw.dans.rs.aggregator.sync;
 
 import nl.knaw.dans.rs.aggregator.syncore.SitemapConverterProvider;
+import nl.knaw.dans.rs.aggregator.util.FileChannelWriter;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.xml.Capability;
 import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
 import nl.knaw.dans.rs.aggregator.xml.RsBuilder;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import nl.knaw.dans.rs.aggregator.xml.RsStreamReader;
+import nl.knaw.dans.rs.aggregator.xml.Urlset;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.JAXBException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Properties;
 
 /**
  * A {@link SitemapConverterProvider} that provides a converter that both stores the response on disk and
  * returns the response unmarshalled as {@link RsRoot}. The file location of the sitemap is decided by
  * calling {@link PathFinder#findMetadataFilePath(URI)} for the given URI on the current PathFinder.
+ * <p>
+ * If streaming items is switched on, the items of resourcelists and changelists are not unmarshalled:
+ * the converter returns the root of these documents without items. The items can be streamed from the stored
+ * file with a {@link RsStreamReader}.
+ * </p>
+ * <p>
+ * If conditional requests are switched on (the default), the ETag and Last-Modified headers of saved sitemaps
+ * are kept in {@link PathFinder#getSitemapValidatorsFile()}, that is written once all sitemaps of a set are
+ * collected. A following request on the same sitemap will carry the corresponding If-None-Match and
+ * If-Modified-Since headers, and on a 304 (Not Modified) response the converter returns the previously saved
+ * sitemap. Validators are only kept for sitemaps that could be read.
+ * </p>
  */
 public class FsSitemapConverterProvider implements SitemapConverterProvider {
 
   private static Logger logger = LoggerFactory.getLogger(FsSitemapConverterProvider.class);
 
+  private static final String ETAG = "etag.";
+  private static final String LAST_MODIFIED = "last-modified.";
+
   private ResourceSyncContext rsContext;
+  private volatile RsBuilder rsBuilder;
   private PathFinder currentPathFinder;
+  private boolean streamingItems;
+  private boolean conditionalRequests = true;
+  private boolean fsync;
+  private FileChannelWriter fileWriter;
+  private final Properties validators = new Properties();
+  private boolean validatorsChanged;
 
   @Override
   public LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> getConverter() {
@@ -43,6 +75,9 @@ public class FsSitemapConverterProvider implements SitemapConverterProvider {
   private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception>
       fileSavingConverter = (uri, response) -> {
 
+      if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+        return unmarshalSaved(uri);
+      }
       HttpEntity entity = response.getEntity();
       RsRoot rsRoot = null;
       if (entity != null) {
@@ -50,49 +85,198 @@ public class FsSitemapConverterProvider implements SitemapConverterProvider {
         File directoryPath = file.getParentFile();
         if (directoryPath.mkdirs()) logger.debug("Created directory path {}", directoryPath);
         InputStream instream = entity.getContent();
-        boolean saved = saveFile(instream, file);
-        if (saved) {
-          logger.debug("Saved {} --> {}", uri, file);
-          Header lmh = response.getFirstHeader("Last-Modified");
-          if (lmh != null) {
-            Date date = DateUtils.parseDate(lmh.getValue());
-            if (file.setLastModified(date.getTime())) logger.debug("Last modified from remote: {} on {}", date, file);
-          }
-          rsRoot = new RsBuilder(getRsContext()).setFile(file).build().orElse(null);
-          if (rsRoot != null) {
-            logger.debug("Collected sitemap with capability {} from {}", rsRoot.getCapability(), uri);
+        try {
+          boolean saved = saveFile(instream, file);
+          if (saved) {
+            logger.debug("Saved {} --> {}", uri, file);
+            Header lmh = response.getFirstHeader("Last-Modified");
+            if (lmh != null) {
+              Date date = DateUtils.parseDate(lmh.getValue());
+              if (file.setLastModified(date.getTime())) logger.debug("Last modified from remote: {} on {}", date, file);
+            }
+            rsRoot = unmarshal(file);
+            if (rsRoot != null) {
+              logger.debug("Collected sitemap with capability {} from {}", rsRoot.getCapability(), uri);
+            }
           }
+        } finally {
+          // validators only stand for a saved sitemap that could be read.
+          setValidators(uri, rsRoot == null ? null : response);
         }
       }
       return rsRoot;
     };
 
+  private RsRoot unmarshalSaved(URI uri) throws Exception {
+    File file = getCurrentPathFinder().findMetadataFilePath(uri);
+    if (!file.exists()) {
+      throw new IOException("Not modified, but no saved sitemap for " + uri + " at " + file);
+    }
+    logger.debug("Not modified {} --> {}", uri, file);
+    RsRoot rsRoot = unmarshal(file);
+    if (rsRoot != null) {
+      logger.debug("Reused sitemap with capability {} from {}", rsRoot.getCapability(), file);
+    }
+    return rsRoot;
+  }
+
+  @Override
+  public Header[] getConditionalHeaders(URI uri) {
+    List<Header> headers = new ArrayList<>();
+    if (conditionalRequests && currentPathFinder != null
+      && currentPathFinder.findMetadataFilePath(uri).exists()) {
+      String etag = validators.getProperty(ETAG + uri);
+      if (etag != null) headers.add(new BasicHeader("If-None-Match", etag));
+      String lastModified = validators.getProperty(LAST_MODIFIED + uri);
+      if (lastModified != null) headers.add(new BasicHeader("If-Modified-Since", lastModified));
+    }
+    return headers.toArray(new Header[headers.size()]);
+  }
+
+  private void setValidators(URI uri, HttpResponse response) {
+    if (!conditionalRequests) return;
+    synchronized (validators) {
+      setOrRemove(ETAG + uri, response == null ? null : response.getFirstHeader("ETag"));
+      setOrRemove(LAST_MODIFIED + uri, response == null ? null : response.getFirstHeader("Last-Modified"));
+      validatorsChanged = true;
+    }
+  }
+
+  @Override
+  public void sitemapsCollected() {
+    if (!conditionalRequests || currentPathFinder == null) return;
+    synchronized (validators) {
+      if (!validatorsChanged) return;
+      File file = currentPathFinder.getSitemapValidatorsFile();
+      File directoryPath = file.getParentFile();
+      if (directoryPath.mkdirs()) logger.debug("Created directory path {}", directoryPath);
+      try (OutputStream out = new FileOutputStream(file)) {
+        validators.store(out, "Validators of saved sitemaps");
+        validatorsChanged = false;
+      } catch (IOException e) {
+        logger.warn("Could not save sitemap validators to {}", file, e);
+      }
+    }
+  }
+
+  private void setOrRemove(String key, Header header) {
+    if (header == null) {
+      validators.remove(key);
+    } else {
+      validators.setProperty(key, header.getValue());
+    }
+  }
+
+  private void loadValidators(PathFinder pathFinder) {
+    synchronized (validators) {
+      validators.clear();
+      validatorsChanged = false;
+      File file = pathFinder.getSitemapValidatorsFile();
+      if (conditionalRequests && file.exists()) {
+        try (InputStream in = new FileInputStream(file)) {
+          validators.load(in);
+        } catch (IOException e) {
+          logger.warn("Could not load sitemap validators from {}", file, e);
+          validators.clear();
+        }
+      }
+    }
+  }
+
+  private RsRoot unmarshal(File file) throws Exception {
+    if (!streamingItems) {
+      return getRsBuilder().build(file).orElse(null);
+    }
+    try (InputStream instream = new FileInputStream(file)) {
+      return new RsStreamReader(getRsContext()).read(instream, rsRoot -> !isItemList(rsRoot)).orElse(null);
+    }
+  }
+
+  private static boolean isItemList(RsRoot rsRoot) {
+    if (!(rsRoot instanceof Urlset) || rsRoot.getMetadata() == null) return false;
+    Capability capa = (Capability) rsRoot.getCapability().orElse(null);
+    return capa == Capability.RESOURCELIST || capa == Capability.CHANGELIST;
+  }
+
   private boolean saveFile(InputStream instream, File file) throws IOException {
-    boolean saved = false;
-    OutputStream outstream = new FileOutputStream(file);
-    byte[] buffer = new byte[8 * 1024];
-    int bytesRead;
     try {
-      while ((bytesRead = instream.read(buffer)) != -1) {
-        outstream.write(buffer, 0, bytesRead);
-      }
-      saved = true;
+      getFileWriter().write(instream, file, false, null);
+      return true;
     } finally {
       IOUtils.closeQuietly(instream);
-      IOUtils.closeQuietly(outstream);
     }
-    return saved;
+  }
+
+  private FileChannelWriter getFileWriter() {
+    if (fileWriter == null) {
+      fileWriter = new FileChannelWriter(FileChannelWriter.DEFAULT_BUFFER_SIZE, fsync);
+    }
+    return fileWriter;
   }
 
   @Override
   public FsSitemapConverterProvider withResourceSyncContext(ResourceSyncContext rsContext) {
     this.rsContext = rsContext;
+    rsBuilder = null;
+    return this;
+  }
+
+  @Override
+  public FsSitemapConverterProvider withStreamingItems(boolean streamingItems) {
+    this.streamingItems = streamingItems;
     return this;
   }
 
+  @Override
+  public boolean canCopy() {
+    // a subclass would be copied as FsSitemapConverterProvider.
+    return getClass() == FsSitemapConverterProvider.class;
+  }
+
+  @Override
+  public FsSitemapConverterProvider copy() {
+    FsSitemapConverterProvider copy = new FsSitemapConverterProvider()
+      .withResourceSyncContext(rsContext)
+      .withStreamingItems(streamingItems);
+    copy.setConditionalRequests(conditionalRequests);
+    copy.setFsync(fsync);
+    return copy;
+  }
+
+  public boolean isStreamingItems() {
+    return streamingItems;
+  }
+
+  public void setStreamingItems(boolean streamingItems) {
+    this.streamingItems = streamingItems;
+  }
+
+  public boolean isConditionalRequests() {
+    return conditionalRequests;
+  }
+
+  public void setConditionalRequests(boolean conditionalRequests) {
+    this.conditionalRequests = conditionalRequests;
+  }
+
+  public boolean isFsync() {
+    return fsync;
+  }
+
+  /**
+   * Force saved sitemaps to the storage device before they are read. Default is <code>false</code>.
+   *
+   * @param fsync <code>true</code> to force saved sitemaps to the storage device
+   */
+  public void setFsync(boolean fsync) {
+    this.fsync = fsync;
+    fileWriter = null;
+  }
+
   @Override
   public void setPathFinder(PathFinder pathFinder) {
     currentPathFinder = pathFinder;
+    loadValidators(pathFinder);
   }
 
   private PathFinder getCurrentPathFinder() {
@@ -112,4 +296,12 @@ public class FsSitemapConverterProvider implements SitemapConverterProvider {
     }
     return rsContext;
   }
+
+  private RsBuilder getRsBuilder() {
+    // RsBuilder.build(File) is thread safe, one instance serves all concurrent conversions.
+    if (rsBuilder == null) {
+      rsBuilder = new RsBuilder(getRsContext());
+    }
+    return rsBuilder;
+  }
 }
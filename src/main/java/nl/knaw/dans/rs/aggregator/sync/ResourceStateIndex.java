@@ -0,0 +1,259 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the state of local resource files: size, last modified and, if known, the hash of the file.
+ * <p>
+ *   A state is only handed out if size and last modified of the file on disk still equal the recorded ones.
+ *   This enables answering hash verifications without reading the file. The index is saved as a tab separated
+ *   text file, one line per resource:
+ * </p>
+ * <pre>
+ *   size  lastModified  algorithm  hash  uri
+ * </pre>
+ * <p>
+ *   The index is <em>complete</em> if it knows every resource file in the resource directory, so that files that
+ *   are no longer needed can be found without walking the directory. Completeness is kept in a marker file next
+ *   to the index file. The marker is removed as soon as a resource is added to the index and written again when
+ *   the index is saved, so that an index that was not saved after new files were written is not trusted.
+ * </p>
+ * <p>
+ *   ResourceStateIndex is thread safe.
+ * </p>
+ */
+public class ResourceStateIndex {
+
+  private static Logger logger = LoggerFactory.getLogger(ResourceStateIndex.class);
+
+  private static final String NONE = "-";
+  private static final String COMPLETE_MARKER_SUFFIX = ".complete";
+
+  private final File indexFile;
+  private final Map<URI, State> states = new ConcurrentHashMap<>();
+  private volatile boolean changed;
+  private volatile boolean complete;
+  private volatile boolean markerCurrent;
+
+  /**
+   * Create an index that is kept in the given file. An existing index file is read.
+   *
+   * @param indexFile file to keep the index
+   */
+  public ResourceStateIndex(@Nonnull File indexFile) {
+    this.indexFile = indexFile;
+    load();
+  }
+
+  /**
+   * Declare the index kept in the given file incomplete, for instance because resource files are written while
+   * the index is not used.
+   *
+   * @param indexFile file that keeps the index
+   */
+  public static void invalidate(@Nonnull File indexFile) {
+    File marker = getCompleteMarker(indexFile);
+    if (marker.delete()) logger.debug("Deleted {}", marker);
+  }
+
+  private static File getCompleteMarker(File indexFile) {
+    return new File(indexFile.getParentFile(), indexFile.getName() + COMPLETE_MARKER_SUFFIX);
+  }
+
+  public File getIndexFile() {
+    return indexFile;
+  }
+
+  public int size() {
+    return states.size();
+  }
+
+  public Set<URI> getURIs() {
+    return states.keySet().stream().collect(Collectors.toSet());
+  }
+
+  public boolean contains(@Nonnull URI normalizedURI) {
+    return states.containsKey(normalizedURI);
+  }
+
+  /**
+   * Does the index know every resource file in the resource directory.
+   *
+   * @return <code>true</code> if the index is complete
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  public synchronized void setComplete(boolean complete) {
+    if (this.complete != complete) changed = true;
+    this.complete = complete;
+    if (!complete) invalidateMarker();
+  }
+
+  /**
+   * Get the state of the given file, as recorded for the given uri.
+   *
+   * @param normalizedURI identifies the resource
+   * @param file local file of the resource
+   * @return Optional of State, empty if not recorded or if the file changed since it was recorded
+   */
+  public Optional<State> get(@Nonnull URI normalizedURI, @Nonnull File file) {
+    State state = states.get(normalizedURI);
+    if (state != null && state.isCurrent(file)) {
+      return Optional.of(state);
+    }
+    return Optional.empty();
+  }
+
+  public void put(@Nonnull URI normalizedURI, @Nonnull State state) {
+    if (states.put(normalizedURI, state) == null && markerCurrent) invalidateMarker();
+    changed = true;
+  }
+
+  private synchronized void invalidateMarker() {
+    if (!markerCurrent) return;
+    markerCurrent = false;
+    invalidate(indexFile);
+  }
+
+  public void remove(@Nonnull URI normalizedURI) {
+    if (states.remove(normalizedURI) != null) changed = true;
+  }
+
+  public void retainAll(@Nonnull Set<URI> normalizedURIs) {
+    if (states.keySet().retainAll(normalizedURIs)) changed = true;
+  }
+
+  /**
+   * Save the index if it changed since it was read or last saved. The index file is replaced atomically.
+   */
+  public synchronized void save() {
+    if (!changed) return;
+    changed = false;
+    File directory = indexFile.getParentFile();
+    if (directory.mkdirs()) logger.debug("Created directory path {}", directory);
+    Path tmpPath = new File(directory, indexFile.getName() + ".tmp").toPath();
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+        for (Map.Entry<URI, State> entry : states.entrySet()) {
+          State state = entry.getValue();
+          writer.write(state.size + "\t" + state.lastModified + "\t" + nullToNone(state.algorithm) + "\t"
+            + nullToNone(state.hash) + "\t" + entry.getKey());
+          writer.newLine();
+        }
+      }
+      try {
+        Files.move(tmpPath, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpPath, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      if (complete && !markerCurrent) {
+        Files.write(getCompleteMarker(indexFile).toPath(), new byte[0]);
+        markerCurrent = true;
+      }
+      logger.debug("Saved state of {} resources to {}", states.size(), indexFile);
+    } catch (IOException e) {
+      changed = true;
+      logger.error("Could not save resource state index to {}", indexFile, e);
+    }
+  }
+
+  private void load() {
+    if (!indexFile.exists()) {
+      invalidate(indexFile);
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", 5);
+        if (fields.length == 5) {
+          states.put(URI.create(fields[4]), new State(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+            noneToNull(fields[2]), noneToNull(fields[3])));
+        }
+      }
+      complete = getCompleteMarker(indexFile).exists();
+      markerCurrent = complete;
+      logger.debug("Loaded state of {} resources from {}, complete={}", states.size(), indexFile, complete);
+    } catch (IOException | IllegalArgumentException e) {
+      logger.warn("Could not load resource state index from {}. Starting with an empty index.", indexFile, e);
+      states.clear();
+      invalidate(indexFile);
+    }
+  }
+
+  private static String nullToNone(String value) {
+    return value == null ? NONE : value;
+  }
+
+  private static String noneToNull(String value) {
+    return NONE.equals(value) ? null : value;
+  }
+
+  /**
+   * Recorded state of a local resource file.
+   */
+  public static class State {
+
+    private final long size;
+    private final long lastModified;
+    private final String algorithm;
+    private final String hash;
+
+    /**
+     * Record the current size and last modified of the given file, with an optional hash.
+     *
+     * @param file local file
+     * @param algorithm algorithm of the hash, may be <code>null</code>
+     * @param hash hash of the file, may be <code>null</code>
+     * @return State of the file
+     */
+    public static State of(@Nonnull File file, @Nullable String algorithm, @Nullable String hash) {
+      return new State(file.length(), file.lastModified(), algorithm, hash);
+    }
+
+    public State(long size, long lastModified, @Nullable String algorithm, @Nullable String hash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.algorithm = algorithm;
+      this.hash = hash;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public Optional<String> getHash(@Nonnull String algorithm) {
+      return algorithm.equalsIgnoreCase(this.algorithm) ? Optional.ofNullable(hash) : Optional.empty();
+    }
+
+    public boolean isCurrent(@Nonnull File file) {
+      return file.length() == size && file.lastModified() == lastModified;
+    }
+  }
+}
@@ -7,6 +7,7 @@ import nl.knaw.dans.rs.aggregator.http.Result;
 import nl.knaw.dans.rs.aggregator.syncore.Sync;
 import nl.knaw.dans.rs.aggregator.util.NormURI;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
+import nl.knaw.dans.rs.aggregator.util.PhaseTimes;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
 import nl.knaw.dans.rs.aggregator.util.RsProperties;
 import nl.knaw.dans.rs.aggregator.xml.Capability;
@@ -14,12 +15,16 @@ import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
 import nl.knaw.dans.rs.aggregator.xml.RsConstants;
 import nl.knaw.dans.rs.aggregator.xml.RsMd;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import nl.knaw.dans.rs.aggregator.xml.RsStreamReader;
 import nl.knaw.dans.rs.aggregator.xml.Sitemapindex;
 import nl.knaw.dans.rs.aggregator.xml.UrlItem;
 import nl.knaw.dans.rs.aggregator.xml.Urlset;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,8 +40,35 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
+ * Collects the sitemaps of a set of resources and merges the items of resourcelists and changelists into
+ * the most recent items per normalized URI.
+ * <p>
+ * With streaming items switched on, items of resourcelists and changelists that came without items from the
+ * converter are streamed from the sitemap file that was stored at {@link PathFinder#findMetadataFilePath(URI)},
+ * see {@link nl.knaw.dans.rs.aggregator.syncore.SitemapConverterProvider#withStreamingItems(boolean)}.
+ * </p>
+ * <p>
+ * With compact items switched on (the default), the most recent items are kept in a {@link CompactItemMap}.
+ * With a spill threshold greater than 0 they are kept in a {@link SpillingItemMap} and handed out in the
+ * order of their normalized URI.
+ * </p>
+ * <p>
+ * With changelists only switched on, resourcelists and resourcedumps are neither explored nor analyzed. Only
+ * changelist items after the as-of date are collected and the resources that are not mentioned in them are left
+ * alone. The date of the latest full synchronisation is carried over from the previous run.
+ * </p>
+ * <p>
+ * Items of resourcedumps and changedumps point to ZIP packages. They are not merged with the most recent items,
+ * but collected as dump packages, see {@link #getResourceDumpPackages()} and {@link #getChangeDumpPackages()}.
+ * </p>
+ * <p>
+ * The time spent on exploring sitemaps, on converting them (included in exploring) and on merging their items
+ * is reported per phase, see {@link PhaseTimes}.
+ * </p>
  * Created on 2017-04-26 09:13.
  */
 public class SitemapCollector implements RsConstants {
@@ -44,24 +76,41 @@ public class SitemapCollector implements RsConstants {
   private static Logger logger = LoggerFactory.getLogger(SitemapCollector.class);
 
   private CloseableHttpClient httpClient;
+  private CloseableHttpAsyncClient httpAsyncClient;
   private ResourceSyncContext rsContext;
 
   private ZonedDateTime asOfDateTime;
   private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> converter;
+  private boolean streamingItems;
+  private boolean compactItems = true;
+  private int spillThreshold;
+  private int explorerThreads = 1;
+  private boolean changeListsOnly;
+  private Function<URI, Header[]> conditionalHeaders;
+
+  private PathFinder currentPathFinder;
 
   private ResultIndex currentIndex;
   private Set<String> invalidUris;
   private List<Result<?>> errorResults;
   private List<Result<?>> unhandledResults;
   private Map<URI, UrlItem> recentItems;
+  private List<UrlItem> resourceDumpPackages;
+  private List<UrlItem> changeDumpPackages;
   private ZonedDateTime ultimateResourceListAt;
   private ZonedDateTime ultimateChangeListFrom;
+  private ZonedDateTime latestFullSync;
 
+  private int countNotModified;
   private int countCapabilityLists;
   private int countResourceListIndexes;
   private int countChangelistIndexes;
   private int countResourceLists;
   private int countChangeLists;
+  private int countResourceDumpIndexes;
+  private int countChangeDumpIndexes;
+  private int countResourceDumps;
+  private int countChangeDumps;
 
   private int countRemain;
   private int countCreated;
@@ -70,10 +119,58 @@ public class SitemapCollector implements RsConstants {
 
   private boolean foundNewResourceList;
 
+  private final PhaseTimes phaseTimes = new PhaseTimes();
+
 
   public SitemapCollector() {
   }
 
+  /**
+   * Can this SitemapCollector be copied with {@link #copy()}. Subclasses that override <code>copy()</code> should
+   * override this method as well. If <code>false</code>, sets of resources are synchronized one after the other.
+   *
+   * @return <code>true</code> if this SitemapCollector can be copied, <code>false</code> otherwise
+   */
+  public boolean canCopy() {
+    return getClass() == SitemapCollector.class;
+  }
+
+  /**
+   * Create a new SitemapCollector with the same configuration as this one. If sets of resources are synchronized
+   * concurrently, each set is collected by its own copy. Subclasses may override this method, for instance
+   * with <code>return copyConfiguration(new MyCollector());</code>, together with {@link #canCopy()}.
+   *
+   * @return a new SitemapCollector with the same configuration
+   */
+  public SitemapCollector copy() {
+    if (!canCopy()) {
+      throw new UnsupportedOperationException(getClass().getName() + " does not override copy()");
+    }
+    return copyConfiguration(new SitemapCollector());
+  }
+
+  /**
+   * Give the configuration of this SitemapCollector to the given copy.
+   *
+   * @param copy a new SitemapCollector
+   * @param <T> type of the copy
+   * @return the given copy
+   */
+  protected <T extends SitemapCollector> T copyConfiguration(T copy) {
+    copy.withHttpClient(httpClient)
+      .withHttpAsyncClient(httpAsyncClient)
+      .withRsContext(rsContext)
+      .withAsOfDateTime(asOfDateTime)
+      .withConverter(converter)
+      .withStreamingItems(streamingItems)
+      .withCompactItems(compactItems)
+      .withSpillThreshold(spillThreshold)
+      .withExplorerThreads(explorerThreads)
+      .withChangeListsOnly(changeListsOnly)
+      .withConditionalHeaders(conditionalHeaders);
+    return copy;
+  }
+
   public CloseableHttpClient getHttpClient() {
     if (httpClient == null) {
       httpClient = HttpClients.createDefault();
@@ -86,6 +183,23 @@ public class SitemapCollector implements RsConstants {
     return this;
   }
 
+  public CloseableHttpAsyncClient getHttpAsyncClient() {
+    return httpAsyncClient;
+  }
+
+  /**
+   * Explore sitemaps on the given non-blocking client, see
+   * {@link RsExplorer#withHttpAsyncClient(CloseableHttpAsyncClient)}. Default is <code>null</code>: sitemaps are
+   * fetched on the blocking client.
+   *
+   * @param httpAsyncClient a started async client, may be <code>null</code>
+   * @return this for enabling method chaining
+   */
+  public SitemapCollector withHttpAsyncClient(CloseableHttpAsyncClient httpAsyncClient) {
+    this.httpAsyncClient = httpAsyncClient;
+    return this;
+  }
+
   public ResourceSyncContext getRsContext() {
     if (rsContext == null) {
       try {
@@ -126,6 +240,89 @@ public class SitemapCollector implements RsConstants {
     return this;
   }
 
+  public boolean isStreamingItems() {
+    return streamingItems;
+  }
+
+  public SitemapCollector withStreamingItems(boolean streamingItems) {
+    this.streamingItems = streamingItems;
+    return this;
+  }
+
+  public boolean isCompactItems() {
+    return compactItems;
+  }
+
+  /**
+   * Keep the most recent items in a {@link CompactItemMap} instead of a HashMap. Default is <code>true</code>.
+   * A compact map takes a fraction of the memory, but only keeps what synchronisation needs of an item.
+   *
+   * @param compactItems <code>true</code> to keep the most recent items compact
+   * @return this for enabling method chaining
+   */
+  public SitemapCollector withCompactItems(boolean compactItems) {
+    this.compactItems = compactItems;
+    return this;
+  }
+
+  public int getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  /**
+   * Keep the most recent items in a {@link SpillingItemMap} in {@link PathFinder#getSpillDirectory()}, that
+   * spills items to disk each time <code>spillThreshold</code> items are collected. Default is 0: items are kept
+   * in memory.
+   *
+   * @param spillThreshold number of items that are held in memory before they are spilled to disk, 0 for never
+   * @return this for enabling method chaining
+   */
+  public SitemapCollector withSpillThreshold(int spillThreshold) {
+    this.spillThreshold = spillThreshold;
+    return this;
+  }
+
+  public Function<URI, Header[]> getConditionalHeaders() {
+    return conditionalHeaders;
+  }
+
+  /**
+   * Request sitemaps with the conditional headers provided by the given function. The converter should be able
+   * to handle a response with status code 304 (Not Modified),
+   * see {@link nl.knaw.dans.rs.aggregator.syncore.SitemapConverterProvider#getConditionalHeaders(URI)}.
+   *
+   * @param conditionalHeaders function that returns conditional headers for a URI, may be <code>null</code>
+   * @return this for enabling method chaining
+   */
+  public SitemapCollector withConditionalHeaders(Function<URI, Header[]> conditionalHeaders) {
+    this.conditionalHeaders = conditionalHeaders;
+    return this;
+  }
+
+  public int getExplorerThreads() {
+    return explorerThreads;
+  }
+
+  public SitemapCollector withExplorerThreads(int explorerThreads) {
+    this.explorerThreads = explorerThreads;
+    return this;
+  }
+
+  public boolean isChangeListsOnly() {
+    return changeListsOnly;
+  }
+
+  /**
+   * Only collect the items of changelists, skip resourcelists and resourcedumps. Default is <code>false</code>.
+   * Only sensible if the set of resources was fully synchronized with a resourcelist before.
+   *
+   * @param changeListsOnly <code>true</code> to skip resourcelists and resourcedumps
+   * @return this for enabling method chaining
+   */
+  public SitemapCollector withChangeListsOnly(boolean changeListsOnly) {
+    this.changeListsOnly = changeListsOnly;
+    return this;
+  }
 
   public ResultIndex getCurrentIndex() {
     return currentIndex;
@@ -171,6 +368,22 @@ public class SitemapCollector implements RsConstants {
     return countChangeLists;
   }
 
+  public int getCountResourceDumpIndexes() {
+    return countResourceDumpIndexes;
+  }
+
+  public int getCountChangeDumpIndexes() {
+    return countChangeDumpIndexes;
+  }
+
+  public int getCountResourceDumps() {
+    return countResourceDumps;
+  }
+
+  public int getCountChangeDumps() {
+    return countChangeDumps;
+  }
+
   public int getCountRemain() {
     return countRemain;
   }
@@ -199,22 +412,78 @@ public class SitemapCollector implements RsConstants {
     return ultimateChangeListFrom.isAfter(ultimateResourceListAt) ? ultimateChangeListFrom : ultimateResourceListAt;
   }
 
+  /**
+   * Get the start of the latest synchronisation that was not restricted to changelists. For a full
+   * synchronisation this is the start of the current run.
+   *
+   * @return start of the latest full synchronisation
+   */
+  public ZonedDateTime getLatestFullSync() {
+    return latestFullSync;
+  }
+
   public Map<URI, UrlItem> getMostRecentItems() {
     return recentItems;
   }
 
+  /**
+   * Get the packages of resourcedumps with a date after the as-of date.
+   *
+   * @return items that point to resourcedump packages
+   */
+  public List<UrlItem> getResourceDumpPackages() {
+    return resourceDumpPackages;
+  }
+
+  /**
+   * Get the packages of changedumps with a date after the as-of date, in the order they were listed.
+   *
+   * @return items that point to changedump packages
+   */
+  public List<UrlItem> getChangeDumpPackages() {
+    return changeDumpPackages;
+  }
+
+  /**
+   * Release the most recent items. Items that were spilled to disk are deleted.
+   */
+  public void releaseItems() {
+    if (recentItems instanceof SpillingItemMap) ((SpillingItemMap) recentItems).close();
+  }
+
   public boolean hasNewResourceList() {
     return foundNewResourceList;
   }
 
   public void collectSitemaps(PathFinder pathFinder, RsProperties syncProps) {
+    currentPathFinder = pathFinder;
     reset();
+    LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> converter = getConverter();
     RsExplorer explorer = new RsExplorer(getHttpClient(), getRsContext())
-      .withConverter(getConverter())
+      .withConverter((uri, response) -> {
+        PhaseTimes.Split split = PhaseTimes.start();
+        try {
+          return converter.apply(uri, response);
+        } finally {
+          phaseTimes.stop(PhaseTimes.PARSE, split);
+        }
+      })
       .withFollowChildLinks(true)
       .withFollowIndexLinks(false)
-      .withFollowParentLinks(false);
+      .withFollowParentLinks(false)
+      .withMaxConcurrentRequests(getExplorerThreads())
+      .withHttpAsyncClient(getHttpAsyncClient())
+      .withConditionalHeaders(getConditionalHeaders());
+    if (changeListsOnly) {
+      explorer.withChildFilter(item -> !item.getMetadata().flatMap(RsMd::getCapability)
+        .filter(capa -> Capability.RESOURCELIST.xmlValue.equals(capa) || Capability.RESOURCEDUMP.xmlValue.equals(capa))
+        .isPresent());
+    }
+    PhaseTimes.Split split = PhaseTimes.start();
     currentIndex = explorer.explore(pathFinder.getCapabilityListUri());
+    phaseTimes.stop(PhaseTimes.EXPLORE, split);
+
+    split = PhaseTimes.start();
 
     invalidUris = currentIndex.getInvalidUris();
     for (String invalidUri : invalidUris) {
@@ -228,10 +497,17 @@ public class SitemapCollector implements RsConstants {
           logger.warn("Result has errors. URI: {}, msg: {}", pathFinder.getCapabilityListUri(), error.getMessage());
         }
       } else {
+        if (result.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) countNotModified++;
         analyze(result);
       }
     }
-    setNewResourceListFound(pathFinder);
+    if (changeListsOnly) {
+      carryOverFromPrevious(pathFinder);
+    } else {
+      latestFullSync = pathFinder.getSyncStart();
+      setNewResourceListFound(pathFinder);
+    }
+    phaseTimes.stop(PhaseTimes.MERGE, split);
     reportResults(pathFinder, syncProps);
   }
 
@@ -249,21 +525,46 @@ public class SitemapCollector implements RsConstants {
     }
   }
 
+  private void carryOverFromPrevious(PathFinder pathFinder) {
+    // no resourcelists seen: keep the resources that are not in the changelists.
+    foundNewResourceList = false;
+    File prevSyncPropFile = pathFinder.getPrevSyncPropXmlFile();
+    if (prevSyncPropFile != null) {
+      RsProperties prevSyncProps = new RsProperties();
+      try {
+        prevSyncProps.loadFromXML(prevSyncPropFile);
+        ZonedDateTime prevResourceListAt = prevSyncProps.getDateTime(Sync.PROP_CL_DATE_LATEST_RESOURCELIST);
+        if (prevResourceListAt != null) ultimateResourceListAt = prevResourceListAt;
+        latestFullSync = prevSyncProps.getDateTime(Sync.PROP_CL_DATE_LATEST_FULL_SYNC);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not load syncProps from " + prevSyncPropFile, e);
+      }
+    }
+  }
+
   private void reportResults(PathFinder pathFinder, RsProperties syncProps) {
     syncProps.setDateTime(Sync.PROP_CL_AS_OF_DATE_TIME, asOfDateTime);
     syncProps.setProperty(Sync.PROP_CL_CONVERTER, getConverter().toString());
+    syncProps.setInt(Sync.PROP_CL_EXPLORER_THREADS, getExplorerThreads());
+    syncProps.setBool(Sync.PROP_CL_CHANGELISTS_ONLY, changeListsOnly);
     syncProps.setInt(Sync.PROP_CL_COUNT_INVALID_URIS, invalidUris.size());
     syncProps.setInt(Sync.PROP_CL_COUNT_ERROR_RESULTS, errorResults.size());
     syncProps.setInt(Sync.PROP_CL_COUNT_UNHNDLED_RESULTS, unhandledResults.size());
+    syncProps.setInt(Sync.PROP_CL_COUNT_NOT_MODIFIED, countNotModified);
 
     syncProps.setInt(Sync.PROP_CL_COUNT_CAPABILITY_LISTS, countCapabilityLists);
     syncProps.setInt(Sync.PROP_CL_COUNT_RESOURCELIST_INDEXES, countResourceListIndexes);
     syncProps.setInt(Sync.PROP_CL_COUNT_CHANGELIST_INDEXES, countChangelistIndexes);
     syncProps.setInt(Sync.PROP_CL_COUNT_RESOURCELISTS, countResourceLists);
     syncProps.setInt(Sync.PROP_CL_COUNT_CHANGELISTS, countChangeLists);
+    syncProps.setInt(Sync.PROP_CL_COUNT_RESOURCEDUMP_INDEXES, countResourceDumpIndexes);
+    syncProps.setInt(Sync.PROP_CL_COUNT_CHANGEDUMP_INDEXES, countChangeDumpIndexes);
+    syncProps.setInt(Sync.PROP_CL_COUNT_RESOURCEDUMPS, countResourceDumps);
+    syncProps.setInt(Sync.PROP_CL_COUNT_CHANGEDUMPS, countChangeDumps);
 
     syncProps.setDateTime(Sync.PROP_CL_DATE_LATEST_RESOURCELIST, ultimateResourceListAt);
     syncProps.setDateTime(Sync.PROP_CL_DATE_LATEST_CHANGELIST, ultimateChangeListFrom);
+    if (latestFullSync != null) syncProps.setDateTime(Sync.PROP_CL_DATE_LATEST_FULL_SYNC, latestFullSync);
     syncProps.setBool(Sync.PROP_CL_FOUND_NEW_RESOURCELIST, foundNewResourceList);
 
     syncProps.setInt(Sync.PROP_CL_ITEMS_RECENT, recentItems.size());
@@ -271,6 +572,8 @@ public class SitemapCollector implements RsConstants {
     syncProps.setInt(Sync.PROP_CL_ITEMS_CREATED, countCreated);
     syncProps.setInt(Sync.PROP_CL_ITEMS_UPDATED, countUpdated);
     syncProps.setInt(Sync.PROP_CL_ITEMS_DELETED, countDeleted);
+    syncProps.setInt(Sync.PROP_CL_DUMP_PACKAGES, resourceDumpPackages.size() + changeDumpPackages.size());
+    phaseTimes.report(syncProps, Sync.PROP_CL_TIME);
 
     try {
       File file = pathFinder.getSyncPropXmlFile();
@@ -285,15 +588,28 @@ public class SitemapCollector implements RsConstants {
 
   private void reset() {
     currentIndex = null;
+    phaseTimes.clear();
     errorResults = new ArrayList<>();
     unhandledResults = new ArrayList<>();
-    recentItems = new HashMap<>();
+    releaseItems();
+    if (spillThreshold > 0) {
+      recentItems = new SpillingItemMap(currentPathFinder.getSpillDirectory(), spillThreshold);
+    } else {
+      recentItems = compactItems ? new CompactItemMap() : new HashMap<>();
+    }
+    resourceDumpPackages = new ArrayList<>();
+    changeDumpPackages = new ArrayList<>();
 
+    countNotModified = 0;
     countCapabilityLists = 0;
     countResourceListIndexes = 0;
     countChangelistIndexes = 0;
     countResourceLists = 0;
     countChangeLists = 0;
+    countResourceDumpIndexes = 0;
+    countChangeDumpIndexes = 0;
+    countResourceDumps = 0;
+    countChangeDumps = 0;
 
     countRemain = 0;
     countCreated = 0;
@@ -302,6 +618,7 @@ public class SitemapCollector implements RsConstants {
 
     ultimateResourceListAt = ZonedDateTime.parse(NULL_DATE).withZoneSameInstant(ZoneOffset.UTC);
     ultimateChangeListFrom = ZonedDateTime.parse(NULL_DATE).withZoneSameInstant(ZoneOffset.UTC);
+    latestFullSync = null;
 
     foundNewResourceList = true; // -> causes syncWorker to call .keepOnly on ResourceManager,
     // unless we set it otherwise in setNewResourceListFound.
@@ -334,6 +651,11 @@ public class SitemapCollector implements RsConstants {
         countResourceListIndexes++;
       } else if (capa == Capability.CHANGELIST) {
         countChangelistIndexes++;
+      } else if (capa == Capability.RESOURCEDUMP) {
+        // the resourcedumps in this index are analyzed as urlsets.
+        countResourceDumpIndexes++;
+      } else if (capa == Capability.CHANGEDUMP) {
+        countChangeDumpIndexes++;
       } else {
         siResult.addError(new RemoteResourceSyncFrameworkException("Unexpected capability on sitemapindex: " + xmlValue));
         errorResults.add(siResult);
@@ -355,6 +677,10 @@ public class SitemapCollector implements RsConstants {
         analyzeResourceList(usResult);
       } else if (capa == Capability.CHANGELIST) {
         analyzeChangeList(usResult);
+      } else if (capa == Capability.RESOURCEDUMP) {
+        analyzeResourceDump(usResult);
+      } else if (capa == Capability.CHANGEDUMP) {
+        analyzeChangeDump(usResult);
       } else if (capa == Capability.CAPABILITYLIST) {
         countCapabilityLists++;
       } else {
@@ -369,6 +695,10 @@ public class SitemapCollector implements RsConstants {
   }
 
   private void analyzeResourceList(Result<Urlset> usResult) {
+    if (changeListsOnly) {
+      logger.debug("Skipping resourceList because only looking at changeLists: {}", usResult);
+      return;
+    }
     Urlset resourcelist = usResult.getContent().orElse(null);
     ZonedDateTime listAt;
     // ultimate date for resourceLists is in required md:at attribute
@@ -388,7 +718,7 @@ public class SitemapCollector implements RsConstants {
       countResourceLists++;
 
       // walk item list
-      for (UrlItem item : resourcelist.getItemList()) {
+      forEachItem(usResult, item -> {
         countRemain++;
 
         // set rs:at on item if not present
@@ -397,7 +727,8 @@ public class SitemapCollector implements RsConstants {
 
         // merge item with recentItems
         mergeItem(usResult, item);
-      }
+        return true;
+      });
     } else {
       logger.debug("Skipping resourceList because completed date {} <= {}: {}", listAt, getAsOfDateTime(), usResult);
     }
@@ -421,13 +752,13 @@ public class SitemapCollector implements RsConstants {
       return;
     }
 
+    // a changelist without md:until is still open and may have new items
     Optional<ZonedDateTime> maybeListUntil = changelist.getMetadata().getUntil();
-    ZonedDateTime clDate = maybeListUntil.orElse(listFrom);
-    if ( clDate.isAfter(getAsOfDateTime())) {
+    if (!maybeListUntil.isPresent() || maybeListUntil.get().isAfter(getAsOfDateTime())) {
       countChangeLists++;
 
       // walk item list
-      for (UrlItem item : changelist.getItemList()) {
+      forEachItem(usResult, item -> {
 
         // set rs:datetime on item if not present
         Optional<ZonedDateTime> dateTime = item.getMetadata().flatMap(RsMd::getDateTime);
@@ -453,7 +784,7 @@ public class SitemapCollector implements RsConstants {
               errorResults.add(usResult);
               logger.warn("Unrecognized md:change attribute on changeList '{} : {}", change,
                   usResult);
-              return;
+              return false;
             }
           }
           else {
@@ -461,15 +792,104 @@ public class SitemapCollector implements RsConstants {
                 "Missing required md:change attribute on changeList"));
             errorResults.add(usResult);
             logger.warn("Missing required md:change attribute on changeList: {}", usResult);
-            return;
+            return false;
           }
 
           // merge item with recentItems
           mergeItem(usResult, item);
         }
-      }
+        return true;
+      });
+    } else {
+      logger.debug("Skipping changeList because until date {} <= {}: {}", maybeListUntil.get(), getAsOfDateTime(),
+        usResult);
+    }
+  }
+
+  private void analyzeResourceDump(Result<Urlset> usResult) {
+    if (changeListsOnly) {
+      logger.debug("Skipping resourceDump because only looking at changeLists: {}", usResult);
+      return;
+    }
+    Urlset resourcedump = usResult.getContent().orElse(null);
+    // resourceDumps, like resourceLists, have a required md:at attribute
+    Optional<ZonedDateTime> maybeDumpAt = resourcedump.getMetadata().getAt();
+    if (!maybeDumpAt.isPresent()) {
+      usResult.addError(new RemoteResourceSyncFrameworkException("Missing required md:at attribute on resourceDump"));
+      errorResults.add(usResult);
+      logger.warn("Missing required md:at attribute on resourceDump at {}", usResult);
+      return;
+    }
+    ZonedDateTime dumpAt = maybeDumpAt.get();
+    ZonedDateTime rdDate = resourcedump.getMetadata().getCompleted().orElse(dumpAt);
+    if (rdDate.isAfter(getAsOfDateTime())) {
+      countResourceDumps++;
+      forEachItem(usResult, item -> {
+        Optional<ZonedDateTime> maybeAt = item.getMetadata().flatMap(RsMd::getAt);
+        if (!maybeAt.isPresent()) item.getMetadata().map(rsMd1 -> rsMd1.withAt(dumpAt));
+        resourceDumpPackages.add(item);
+        return true;
+      });
+    } else {
+      logger.debug("Skipping resourceDump because completed date {} <= {}: {}", rdDate, getAsOfDateTime(), usResult);
+    }
+  }
+
+  private void analyzeChangeDump(Result<Urlset> usResult) {
+    Urlset changedump = usResult.getContent().orElse(null);
+    // changeDumps, like changeLists, have a required md:from attribute
+    Optional<ZonedDateTime> maybeDumpFrom = changedump.getMetadata().getFrom();
+    if (!maybeDumpFrom.isPresent()) {
+      usResult.addError(new RemoteResourceSyncFrameworkException("Missing required md:from attribute on changeDump"));
+      errorResults.add(usResult);
+      logger.warn("Missing required md:from attribute on changeDump: {}", usResult);
+      return;
+    }
+    ZonedDateTime dumpFrom = maybeDumpFrom.get();
+    ZonedDateTime cdDate = changedump.getMetadata().getUntil().orElse(dumpFrom);
+    if (cdDate.isAfter(getAsOfDateTime())) {
+      countChangeDumps++;
+      forEachItem(usResult, item -> {
+        // a package covers the changes from md:from until md:until
+        ZonedDateTime packageDate = item.getMetadata().flatMap(RsMd::getUntil)
+          .orElse(item.getMetadata().flatMap(RsMd::getFrom).orElse(cdDate));
+        if (packageDate.isAfter(getAsOfDateTime())) {
+          changeDumpPackages.add(item);
+        }
+        return true;
+      });
     } else {
-      logger.debug("Skipping changeList because until date {} <= {}: {}", listFrom, getAsOfDateTime(), usResult);
+      logger.debug("Skipping changeDump because until date {} <= {}: {}", cdDate, getAsOfDateTime(), usResult);
+    }
+  }
+
+  /**
+   * Hand the items of the given urlset to the handler, until the handler returns <code>false</code>.
+   * Items are taken from the urlset itself or, if streaming items and the urlset came without items,
+   * streamed from the stored sitemap file.
+   */
+  private void forEachItem(Result<Urlset> usResult, Predicate<UrlItem> handler) {
+    Urlset urlset = usResult.getContent().orElse(null);
+    if (!streamingItems || !urlset.getItemList().isEmpty()) {
+      for (UrlItem item : urlset.getItemList()) {
+        if (!handler.test(item)) return;
+      }
+      return;
+    }
+    File file = currentPathFinder.findMetadataFilePath(usResult.getUri());
+    if (!file.exists()) {
+      logger.debug("No stored sitemap to stream items from: {}", file);
+      return;
+    }
+    boolean[] stopped = {false};
+    try {
+      new RsStreamReader(getRsContext()).stream(file, rsItem -> {
+        if (!stopped[0]) stopped[0] = !handler.test((UrlItem) rsItem);
+      });
+    } catch (Exception e) {
+      usResult.addError(e);
+      errorResults.add(usResult);
+      logger.warn("Could not stream items from {}: {}", file, usResult, e);
     }
   }
 
@@ -484,10 +904,5 @@ public class SitemapCollector implements RsConstants {
     }
   }
 
-//  private PathFinder getCurrentPathFinder() {
-//    if (currentPathFinder == null) throw new IllegalStateException("No current PathFinder");
-//    return currentPathFinder;
-//  }
-
 
 }
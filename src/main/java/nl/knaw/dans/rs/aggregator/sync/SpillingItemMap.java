@@ -0,0 +1,556 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.xml.RsLn;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A map of normalized URIs to UrlItems that spills its entries to disk, so that the number of entries is not
+ * limited by the heap.
+ * <p>
+ *   Entries that are put or merged are buffered. When the buffer holds <code>spillThreshold</code> entries, it is
+ *   sorted by key and written to a run file. The first read after a put or merge merges the runs, in the order
+ *   they were written, into one file that is sorted by key. Entries with the same key are merged with the
+ *   remapping function one by one, in the order they were put or merged, so the result is the same as that of
+ *   merging them into a HashMap. Entries are iterated in key order and streamed from disk. Lookups go through a
+ *   sparse index in memory of every {@link #INDEX_INTERVAL}th key.
+ * </p>
+ * <p>
+ *   The return value of {@link #merge(URI, UrlItem, BiFunction)} is the given value, the merged value is computed
+ *   when the entries are read. {@link #put(URI, UrlItem)} always returns <code>null</code>: looking up the
+ *   previous value would merge the runs on every put. All files are kept in a directory of their own, which is cleared when the map is
+ *   created and deleted when it is closed.
+ * </p>
+ * <p>
+ *   SpillingItemMap is not thread safe.
+ * </p>
+ */
+public class SpillingItemMap extends AbstractMap<URI, UrlItem> implements Closeable {
+
+  private static Logger logger = LoggerFactory.getLogger(SpillingItemMap.class);
+
+  public static final int DEFAULT_SPILL_THRESHOLD = 100000;
+  public static final int INDEX_INTERVAL = 64;
+
+  private static final BiFunction<UrlItem, UrlItem, UrlItem> REPLACE = (previous, value) -> value;
+  private static final Comparator<Map.Entry<String, UrlItem>> BY_KEY = Map.Entry.comparingByKey();
+
+  private final File directory;
+  private final int spillThreshold;
+
+  private final List<Map.Entry<String, UrlItem>> buffer = new ArrayList<>();
+  private final List<File> runs = new ArrayList<>();
+  private BiFunction<? super UrlItem, ? super UrlItem, ? extends UrlItem> pendingFunction;
+  private int fileCount;
+
+  private File sortedFile;
+  private FileChannel lookupChannel;
+  private final TreeMap<String, Long> index = new TreeMap<>();
+  private int size;
+  private final List<Closeable> openIterators = new ArrayList<>();
+
+  public SpillingItemMap(@Nonnull File directory) {
+    this(directory, DEFAULT_SPILL_THRESHOLD);
+  }
+
+  /**
+   * Create a map that keeps its files in the given directory. Files in the directory are deleted.
+   *
+   * @param directory directory for the files of this map
+   * @param spillThreshold number of entries that are buffered before they are spilled to disk
+   */
+  public SpillingItemMap(@Nonnull File directory, int spillThreshold) {
+    this.directory = directory;
+    this.spillThreshold = Math.max(1, spillThreshold);
+    try {
+      if (directory.exists()) FileUtils.cleanDirectory(directory);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not clean spill directory " + directory, e);
+    }
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public int getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  @Override
+  public int size() {
+    sort();
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof URI && find(key.toString(), false) != null;
+  }
+
+  @Override
+  public UrlItem get(Object key) {
+    if (!(key instanceof URI)) return null;
+    byte[] bytes = find(key.toString(), true);
+    return bytes == null ? null : decode(bytes);
+  }
+
+  /**
+   * Put the given value under the given key. Unlike other maps, the previous value is not returned.
+   *
+   * @param key normalized URI of the item
+   * @param value the item
+   * @return <code>null</code>
+   */
+  @Override
+  public UrlItem put(@Nonnull URI key, @Nonnull UrlItem value) {
+    merge(key, value, REPLACE);
+    return null;
+  }
+
+  @Override
+  public UrlItem merge(@Nonnull URI key, @Nonnull UrlItem value,
+                       @Nonnull BiFunction<? super UrlItem, ? super UrlItem, ? extends UrlItem> remappingFunction) {
+    if (pendingFunction != remappingFunction && hasPending()) sort();
+    pendingFunction = remappingFunction;
+    buffer.add(new SimpleImmutableEntry<>(key.toString(), value));
+    if (buffer.size() >= spillThreshold) spill();
+    return value;
+  }
+
+  @Override
+  public void clear() {
+    close();
+  }
+
+  @Override
+  public Set<URI> keySet() {
+    return new AbstractSet<URI>() {
+      @Override
+      public Iterator<URI> iterator() {
+        return new SortedFileIterator<>(record -> URI.create(record.key));
+      }
+
+      @Override
+      public int size() {
+        return SpillingItemMap.this.size();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return containsKey(o);
+      }
+    };
+  }
+
+  @Override
+  public Set<Entry<URI, UrlItem>> entrySet() {
+    return new AbstractSet<Entry<URI, UrlItem>>() {
+      @Override
+      public Iterator<Entry<URI, UrlItem>> iterator() {
+        return new SortedFileIterator<>(record ->
+          new SimpleImmutableEntry<>(URI.create(record.key), decode(record.item)));
+      }
+
+      @Override
+      public int size() {
+        return SpillingItemMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * Delete all entries and the files of this map.
+   */
+  @Override
+  public void close() {
+    new ArrayList<>(openIterators).forEach(IOUtils::closeQuietly);
+    IOUtils.closeQuietly(lookupChannel);
+    lookupChannel = null;
+    buffer.clear();
+    runs.clear();
+    index.clear();
+    sortedFile = null;
+    size = 0;
+    pendingFunction = null;
+    try {
+      FileUtils.deleteDirectory(directory);
+    } catch (IOException e) {
+      logger.warn("Could not delete spill directory {}", directory, e);
+    }
+  }
+
+  private boolean hasPending() {
+    return !buffer.isEmpty() || !runs.isEmpty();
+  }
+
+  private File nextFile(String prefix) {
+    if (directory.mkdirs()) logger.debug("Created directory path {}", directory);
+    return new File(directory, prefix + "-" + fileCount++ + ".bin");
+  }
+
+  private void spill() {
+    // stable sort: entries with the same key stay in the order they were merged
+    buffer.sort(BY_KEY);
+    File run = nextFile("run");
+    try (DataOutputStream out = newOutputStream(run)) {
+      for (Map.Entry<String, UrlItem> entry : buffer) {
+        writeRecord(out, entry.getKey(), encode(entry.getValue()));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not spill items to " + run, e);
+    }
+    logger.debug("Spilled {} items to {}", buffer.size(), run);
+    runs.add(run);
+    buffer.clear();
+  }
+
+  /**
+   * Merge the sorted file and the runs, oldest first, into a new sorted file.
+   */
+  private void sort() {
+    if (!hasPending()) return;
+    if (!buffer.isEmpty()) spill();
+    new ArrayList<>(openIterators).forEach(IOUtils::closeQuietly);
+    IOUtils.closeQuietly(lookupChannel);
+    lookupChannel = null;
+
+    List<File> sources = new ArrayList<>();
+    if (sortedFile != null) sources.add(sortedFile);
+    sources.addAll(runs);
+    File target = nextFile("sorted");
+    PriorityQueue<RecordReader> queue = new PriorityQueue<>(Comparator
+      .comparing((RecordReader reader) -> reader.record.key).thenComparingInt(reader -> reader.order));
+    List<RecordReader> readers = new ArrayList<>();
+    index.clear();
+    size = 0;
+    long start = System.currentTimeMillis();
+    try (DataOutputStream out = newOutputStream(target)) {
+      for (int i = 0; i < sources.size(); i++) {
+        RecordReader reader = new RecordReader(sources.get(i), i);
+        readers.add(reader);
+        if (reader.next()) queue.add(reader);
+      }
+      long position = 0;
+      while (!queue.isEmpty()) {
+        RecordReader reader = queue.poll();
+        String key = reader.record.key;
+        byte[] bytes = reader.record.item;
+        UrlItem merged = null;
+        if (reader.next()) queue.add(reader);
+        while (!queue.isEmpty() && queue.peek().record.key.equals(key)) {
+          RecordReader sameKey = queue.poll();
+          merged = pendingFunction.apply(merged == null ? decode(bytes) : merged, decode(sameKey.record.item));
+          if (sameKey.next()) queue.add(sameKey);
+        }
+        if (merged != null) bytes = encode(merged);
+        if (size % INDEX_INTERVAL == 0) index.put(key, position);
+        position += writeRecord(out, key, bytes);
+        size++;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not merge spilled items to " + target, e);
+    } finally {
+      readers.forEach(IOUtils::closeQuietly);
+    }
+    logger.debug("Merged {} files to {} items in {} ms: {}", sources.size(), size,
+      System.currentTimeMillis() - start, target);
+    sources.forEach(File::delete);
+    runs.clear();
+    sortedFile = target;
+  }
+
+  private byte[] find(String key, boolean withItem) {
+    sort();
+    Map.Entry<String, Long> floor = index.floorEntry(key);
+    if (floor == null) return null;
+    Long end = Optional.ofNullable(index.higherEntry(key)).map(Map.Entry::getValue).orElse(null);
+    try {
+      if (lookupChannel == null) lookupChannel = FileChannel.open(sortedFile.toPath(), StandardOpenOption.READ);
+      long limit = end == null ? lookupChannel.size() : end;
+      ByteBuffer block = ByteBuffer.allocate((int) (limit - floor.getValue()));
+      while (block.hasRemaining() && lookupChannel.read(block, floor.getValue() + block.position()) != -1) {
+        // read the block of INDEX_INTERVAL records
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(block.array(), 0, block.position()));
+      Record record;
+      while ((record = readRecord(in, false)) != null) {
+        int comparison = record.key.compareTo(key);
+        if (comparison == 0) {
+          return withItem ? readItem(in) : new byte[0];
+        } else if (comparison > 0) {
+          return null;
+        }
+        skipItem(in);
+      }
+      return null;
+    } catch (IOException e) {
+      throw new RuntimeException("Could not read spilled items from " + sortedFile, e);
+    }
+  }
+
+  private static DataOutputStream newOutputStream(File file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+  }
+
+  private static DataInputStream newInputStream(File file) throws IOException {
+    return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+  }
+
+  private static long writeRecord(DataOutputStream out, String key, byte[] item) throws IOException {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(keyBytes.length);
+    out.write(keyBytes);
+    out.writeInt(item.length);
+    out.write(item);
+    return 8L + keyBytes.length + item.length;
+  }
+
+  private static Record readRecord(DataInputStream in, boolean withItem) throws IOException {
+    int keyLength;
+    try {
+      keyLength = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    byte[] keyBytes = new byte[keyLength];
+    in.readFully(keyBytes);
+    String key = new String(keyBytes, StandardCharsets.UTF_8);
+    return new Record(key, withItem ? readItem(in) : null);
+  }
+
+  private static byte[] readItem(DataInputStream in) throws IOException {
+    byte[] item = new byte[in.readInt()];
+    in.readFully(item);
+    return item;
+  }
+
+  private static void skipItem(DataInputStream in) throws IOException {
+    in.skipBytes(in.readInt());
+  }
+
+  static byte[] encode(UrlItem item) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeUTF(item.getLoc());
+      writeDate(out, item.getLastmod());
+      writeString(out, item.getChangefreq());
+      Optional<RsMd> maybeMd = item.getMetadata();
+      out.writeBoolean(maybeMd.isPresent());
+      if (maybeMd.isPresent()) {
+        RsMd md = maybeMd.get();
+        writeString(out, md.getCapability());
+        writeDate(out, md.getAt());
+        writeDate(out, md.getCompleted());
+        writeDate(out, md.getFrom());
+        writeDate(out, md.getUntil());
+        writeDate(out, md.getDateTime());
+        writeString(out, md.getChange());
+        writeString(out, md.getEncoding());
+        writeString(out, md.getHash());
+        writeOptional(out, md.getLength(), out::writeLong);
+        writeString(out, md.getPath());
+        writeString(out, md.getType());
+      }
+      out.writeInt(item.getLinkList().size());
+      for (RsLn ln : item.getLinkList()) {
+        out.writeUTF(ln.getRel());
+        out.writeUTF(ln.getHref());
+        writeString(out, ln.getEncoding());
+        writeString(out, ln.getHash());
+        writeOptional(out, ln.getLength(), out::writeLong);
+        writeDate(out, ln.getModified());
+        writeString(out, ln.getPath());
+        writeOptional(out, ln.getPri(), out::writeInt);
+        writeString(out, ln.getType());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not encode item " + item.getLoc(), e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static UrlItem decode(byte[] bytes) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      UrlItem item = new UrlItem(in.readUTF())
+        .withLastmod(readDate(in))
+        .withChangefreq(readString(in));
+      if (in.readBoolean()) {
+        item.withMetadata(new RsMd()
+          .withCapability(readString(in))
+          .withAt(readDate(in))
+          .withCompleted(readDate(in))
+          .withFrom(readDate(in))
+          .withUntil(readDate(in))
+          .withDateTime(readDate(in))
+          .withChange(readString(in))
+          .withEncoding(readString(in))
+          .withHash(readString(in))
+          .withLength(in.readBoolean() ? in.readLong() : null)
+          .withPath(readString(in))
+          .withType(readString(in)));
+      }
+      int links = in.readInt();
+      for (int i = 0; i < links; i++) {
+        item.addLink(new RsLn(in.readUTF(), in.readUTF())
+          .withEncoding(readString(in))
+          .withHash(readString(in))
+          .withLength(in.readBoolean() ? in.readLong() : null)
+          .withModified(readDate(in))
+          .withPath(readString(in))
+          .withPri(in.readBoolean() ? in.readInt() : null)
+          .withType(readString(in)));
+      }
+      return item;
+    } catch (IOException e) {
+      throw new RuntimeException("Could not decode item", e);
+    }
+  }
+
+  private static void writeString(DataOutput out, Optional<String> value) throws IOException {
+    writeOptional(out, value, out::writeUTF);
+  }
+
+  private static void writeDate(DataOutput out, Optional<ZonedDateTime> value) throws IOException {
+    writeString(out, value.map(ZonedDateTime::toString));
+  }
+
+  private static <T> void writeOptional(DataOutput out, Optional<T> value, Writer<T> writer) throws IOException {
+    out.writeBoolean(value.isPresent());
+    if (value.isPresent()) writer.write(value.get());
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static ZonedDateTime readDate(DataInput in) throws IOException {
+    String value = readString(in);
+    return value == null ? null : ZonedDateTime.parse(value);
+  }
+
+  private interface Writer<T> {
+    void write(T value) throws IOException;
+  }
+
+  private static class Record {
+
+    private final String key;
+    private final byte[] item;
+
+    private Record(String key, byte[] item) {
+      this.key = key;
+      this.item = item;
+    }
+  }
+
+  private static class RecordReader implements Closeable {
+
+    private final DataInputStream in;
+    private final int order;
+    private Record record;
+
+    private RecordReader(File file, int order) throws IOException {
+      this.in = newInputStream(file);
+      this.order = order;
+    }
+
+    private boolean next() throws IOException {
+      record = readRecord(in, true);
+      return record != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private class SortedFileIterator<T> implements Iterator<T>, Closeable {
+
+    private final Function<Record, T> function;
+    private DataInputStream in;
+    private Record next;
+
+    private SortedFileIterator(Function<Record, T> function) {
+      this.function = function;
+      sort();
+      if (sortedFile == null) return;
+      try {
+        in = newInputStream(sortedFile);
+        openIterators.add(this);
+        advance();
+      } catch (IOException e) {
+        throw new RuntimeException("Could not read spilled items from " + sortedFile, e);
+      }
+    }
+
+    private void advance() throws IOException {
+      next = readRecord(in, true);
+      if (next == null) close();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public T next() {
+      if (next == null) throw new NoSuchElementException();
+      Record record = next;
+      try {
+        advance();
+      } catch (IOException e) {
+        throw new RuntimeException("Could not read spilled items from " + sortedFile, e);
+      }
+      return function.apply(record);
+    }
+
+    @Override
+    public void close() {
+      IOUtils.closeQuietly(in);
+      openIterators.remove(this);
+    }
+  }
+}
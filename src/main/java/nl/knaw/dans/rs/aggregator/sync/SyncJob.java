@@ -1,5 +1,6 @@
 package nl.knaw.dans.rs.aggregator.sync;
 
+import nl.knaw.dans.rs.aggregator.http.HttpClientFactory;
 import nl.knaw.dans.rs.aggregator.schedule.Job;
 import nl.knaw.dans.rs.aggregator.syncore.ResourceManager;
 import nl.knaw.dans.rs.aggregator.syncore.SitemapConverterProvider;
@@ -11,7 +12,7 @@ import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
 import nl.knaw.dans.rs.aggregator.util.RsProperties;
 import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +26,10 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created on 2017-05-03 17:05.
@@ -33,7 +38,9 @@ public class SyncJob implements Job {
 
   private static Logger logger = LoggerFactory.getLogger(SyncJob.class);
 
+  private HttpClientFactory httpClientFactory;
   private CloseableHttpClient httpClient;
+  private CloseableHttpAsyncClient httpAsyncClient;
   private ResourceSyncContext rsContext;
 
   private SitemapConverterProvider sitemapConverterProvider;
@@ -46,6 +53,20 @@ public class SyncJob implements Job {
   private String uriListLocation;
   private String baseDirectory;
 
+  private int workerThreads = 1;
+  private int maxConcurrentPerHost = Integer.MAX_VALUE;
+  private boolean streamingItems;
+  private boolean compactItems = true;
+  private int spillThreshold;
+  private int explorerThreads = 1;
+  private boolean asyncExploration;
+  private int maxConcurrentSets = 1;
+  private boolean usingDumps = true;
+  private boolean incrementalSync;
+  private int fullSyncIntervalDays = 7;
+  private String fullSyncTriggerFile;
+  private volatile boolean fullSyncRequested;
+
   public SitemapConverterProvider getSitemapConverterProvider() {
     if (sitemapConverterProvider == null) {
       sitemapConverterProvider = new FsSitemapConverterProvider();
@@ -92,9 +113,20 @@ public class SyncJob implements Job {
     this.syncPostProcessor = syncPostProcessor;
   }
 
+  public HttpClientFactory getHttpClientFactory() {
+    if (httpClientFactory == null) {
+      httpClientFactory = new HttpClientFactory();
+    }
+    return httpClientFactory;
+  }
+
+  public void setHttpClientFactory(HttpClientFactory httpClientFactory) {
+    this.httpClientFactory = httpClientFactory;
+  }
+
   public CloseableHttpClient getHttpClient() {
     if (httpClient == null) {
-      httpClient = HttpClients.createDefault();
+      httpClient = getHttpClientFactory().createHttpClient();
     }
     return httpClient;
   }
@@ -103,6 +135,17 @@ public class SyncJob implements Job {
     this.httpClient = httpClient;
   }
 
+  public CloseableHttpAsyncClient getHttpAsyncClient() {
+    if (httpAsyncClient == null) {
+      httpAsyncClient = getHttpClientFactory().createHttpAsyncClient();
+    }
+    return httpAsyncClient;
+  }
+
+  public void setHttpAsyncClient(CloseableHttpAsyncClient httpAsyncClient) {
+    this.httpAsyncClient = httpAsyncClient;
+  }
+
   public ResourceSyncContext getRsContext() {
     if (rsContext == null) {
       try {
@@ -151,6 +194,152 @@ public class SyncJob implements Job {
     this.baseDirectory = baseDirectory;
   }
 
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  public void setWorkerThreads(int workerThreads) {
+    this.workerThreads = workerThreads;
+  }
+
+  public int getMaxConcurrentPerHost() {
+    return maxConcurrentPerHost;
+  }
+
+  public void setMaxConcurrentPerHost(int maxConcurrentPerHost) {
+    this.maxConcurrentPerHost = maxConcurrentPerHost;
+  }
+
+  public boolean isStreamingItems() {
+    return streamingItems;
+  }
+
+  public void setStreamingItems(boolean streamingItems) {
+    this.streamingItems = streamingItems;
+  }
+
+  public boolean isCompactItems() {
+    return compactItems;
+  }
+
+  public void setCompactItems(boolean compactItems) {
+    this.compactItems = compactItems;
+  }
+
+  public int getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  public void setSpillThreshold(int spillThreshold) {
+    this.spillThreshold = spillThreshold;
+  }
+
+  public int getExplorerThreads() {
+    return explorerThreads;
+  }
+
+  public void setExplorerThreads(int explorerThreads) {
+    this.explorerThreads = explorerThreads;
+  }
+
+  public boolean isAsyncExploration() {
+    return asyncExploration;
+  }
+
+  /**
+   * Fetch sitemaps on a non-blocking http client, created by the http client factory. All sitemaps of a
+   * set that are known ahead of the walk are then requested at once, and <code>explorerThreads</code> only
+   * convert the responses. Default is <code>false</code>.
+   *
+   * @param asyncExploration <code>true</code> to explore sets of resources on a non-blocking http client
+   */
+  public void setAsyncExploration(boolean asyncExploration) {
+    this.asyncExploration = asyncExploration;
+  }
+
+  public int getMaxConcurrentSets() {
+    return maxConcurrentSets;
+  }
+
+  /**
+   * Set the maximum number of sets of resources that are synchronized concurrently. Default is 1: the sets
+   * in the uri-list are synchronized one after the other. With more than one concurrent set, each set is
+   * handled by its own copy of SitemapConverterProvider, SitemapCollector and ResourceManager,
+   * see {@link ResourceManager#copy()}. If one of them cannot be copied, see {@link ResourceManager#canCopy()},
+   * the sets are synchronized one after the other.
+   *
+   * @param maxConcurrentSets maximum number of concurrently synchronized sets
+   */
+  public void setMaxConcurrentSets(int maxConcurrentSets) {
+    this.maxConcurrentSets = maxConcurrentSets;
+  }
+
+  public boolean isUsingDumps() {
+    return usingDumps;
+  }
+
+  public void setUsingDumps(boolean usingDumps) {
+    this.usingDumps = usingDumps;
+  }
+
+  public boolean isIncrementalSync() {
+    return incrementalSync;
+  }
+
+  /**
+   * Synchronize incrementally. Default is <code>false</code>: each run takes resourcelists into account.
+   * When <code>true</code>, a set of resources that was fully synchronized before is synchronized with the items
+   * of its changelists only, until a full synchronisation is due, see {@link #setFullSyncIntervalDays(int)} and
+   * {@link #requestFullSync()} and {@link #setFullSyncTriggerFile(String)}.
+   *
+   * @param incrementalSync <code>true</code> to only process changelists after a full synchronisation
+   */
+  public void setIncrementalSync(boolean incrementalSync) {
+    this.incrementalSync = incrementalSync;
+  }
+
+  public int getFullSyncIntervalDays() {
+    return fullSyncIntervalDays;
+  }
+
+  /**
+   * Set the number of days after which an incremental synchronisation is replaced by a full synchronisation
+   * that verifies all resources in the resourcelists. Default is 7. 0 for only on request.
+   *
+   * @param fullSyncIntervalDays days between full synchronisations, 0 for only on request
+   */
+  public void setFullSyncIntervalDays(int fullSyncIntervalDays) {
+    this.fullSyncIntervalDays = fullSyncIntervalDays;
+  }
+
+  public File getFullSyncTriggerFile() {
+    return fullSyncTriggerFile == null ? new File(getBaseDirectory(), "full-sync") : new File(fullSyncTriggerFile);
+  }
+
+  /**
+   * Set the location of the file that triggers a full synchronisation. If the file exists when a run starts,
+   * the run synchronizes all sets of resources fully, see {@link #requestFullSync()}, and the file is deleted when
+   * the run succeeds. Default is the file <code>full-sync</code> in the base directory.
+   *
+   * @param fullSyncTriggerFile location of the file that triggers a full synchronisation
+   */
+  public void setFullSyncTriggerFile(String fullSyncTriggerFile) {
+    this.fullSyncTriggerFile = fullSyncTriggerFile;
+  }
+
+  /**
+   * Have the next run synchronize all sets of resources fully, regardless of incremental synchronisation.
+   * From outside the application, a full synchronisation is requested by creating the file
+   * {@link #getFullSyncTriggerFile()}.
+   */
+  public void requestFullSync() {
+    fullSyncRequested = true;
+  }
+
+  public boolean isFullSyncRequested() {
+    return fullSyncRequested;
+  }
+
   public void readListAndSynchronize() throws Exception {
     List<URI> uriList = new ArrayList<>();
     Scanner scanner = new Scanner(new File(getUriListLocation()));
@@ -167,43 +356,160 @@ public class SyncJob implements Job {
   }
 
   public void synchronize(List<URI> uriList) throws Exception {
-    SitemapConverterProvider sitemapConverterProvider = getSitemapConverterProvider()
-      .withResourceSyncContext(getRsContext());
-    SitemapCollector sitemapCollector = getSitemapCollector()
+    File trigger = getFullSyncTriggerFile();
+    boolean triggered = trigger.exists();
+    if (triggered) {
+      logger.info("Full synchronisation requested with {}", trigger);
+      requestFullSync();
+    }
+    boolean fullSync = fullSyncRequested;
+    fullSyncRequested = false;
+    try {
+      doSynchronize(uriList, fullSync);
+    } catch (Exception e) {
+      // not done, ask again next run.
+      if (fullSync) fullSyncRequested = true;
+      throw e;
+    }
+    if (triggered && !trigger.delete()) logger.warn("Could not delete {}", trigger);
+  }
+
+  private void doSynchronize(List<URI> uriList, boolean fullSync) throws Exception {
+    if (getMaxConcurrentSets() > 1 && uriList.size() > 1 && canCopy()) {
+      synchronizeConcurrently(uriList, fullSync);
+    } else {
+      synchronizeSerially(uriList, fullSync);
+    }
+  }
+
+  private boolean canCopy() {
+    List<String> notCopyable = new ArrayList<>();
+    if (!getSitemapConverterProvider().canCopy()) notCopyable.add(getSitemapConverterProvider().getClass().getName());
+    if (!getSitemapCollector().canCopy()) notCopyable.add(getSitemapCollector().getClass().getName());
+    if (!getResourceManager().canCopy()) notCopyable.add(getResourceManager().getClass().getName());
+    if (!notCopyable.isEmpty()) {
+      logger.warn("Synchronizing sets of resources one after the other, cannot copy {}", notCopyable);
+    }
+    return notCopyable.isEmpty();
+  }
+
+  private void synchronizeSerially(List<URI> uriList, boolean fullSync) throws Exception {
+    SitemapConverterProvider sitemapConverterProvider = getSitemapConverterProvider();
+    SyncWorker syncWorker = createSyncWorker(sitemapConverterProvider, getSitemapCollector(),
+      getResourceManager());
+    for (URI uri : uriList) {
+      synchronizeSet(uri, sitemapConverterProvider, syncWorker, fullSync);
+    }
+  }
+
+  private void synchronizeConcurrently(List<URI> uriList, boolean fullSync) throws Exception {
+    // each set gets its own provider, collector, resource manager and worker.
+    List<SitemapConverterProvider> providers = new ArrayList<>(uriList.size());
+    List<SyncWorker> syncWorkers = new ArrayList<>(uriList.size());
+    for (int i = 0; i < uriList.size(); i++) {
+      SitemapConverterProvider sitemapConverterProvider = getSitemapConverterProvider().copy();
+      providers.add(sitemapConverterProvider);
+      syncWorkers.add(createSyncWorker(sitemapConverterProvider, getSitemapCollector().copy(),
+        getResourceManager().copy()));
+    }
+
+    int threads = Math.min(getMaxConcurrentSets(), uriList.size());
+    logger.info("Synchronizing {} sets of resources with max {} concurrent sets", uriList.size(), threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>(uriList.size());
+    try {
+      for (int i = 0; i < uriList.size(); i++) {
+        URI uri = uriList.get(i);
+        SitemapConverterProvider sitemapConverterProvider = providers.get(i);
+        SyncWorker syncWorker = syncWorkers.get(i);
+        futures.add(executor.submit(() -> {
+          synchronizeSet(uri, sitemapConverterProvider, syncWorker, fullSync);
+          return null;
+        }));
+      }
+      Exception firstException = null;
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          logger.error("Error while synchronizing {}", uriList.get(i), e.getCause());
+          if (firstException == null) {
+            firstException = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+          }
+        }
+      }
+      if (firstException != null) {
+        throw firstException;
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private SyncWorker createSyncWorker(SitemapConverterProvider sitemapConverterProvider,
+                                      SitemapCollector sitemapCollector, ResourceManager resourceManager) {
+    sitemapConverterProvider
+      .withResourceSyncContext(getRsContext())
+      .withStreamingItems(isStreamingItems());
+    sitemapCollector
       .withHttpClient(getHttpClient())
       .withRsContext(getRsContext())
-      .withConverter(sitemapConverterProvider.getConverter());
-    SyncWorker syncWorker = new SyncWorker()
+      .withConverter(sitemapConverterProvider.getConverter())
+      .withStreamingItems(isStreamingItems())
+      .withCompactItems(isCompactItems())
+      .withSpillThreshold(getSpillThreshold())
+      .withExplorerThreads(getExplorerThreads())
+      .withHttpAsyncClient(isAsyncExploration() ? getHttpAsyncClient() : null)
+      .withConditionalHeaders(sitemapConverterProvider::getConditionalHeaders);
+    return new SyncWorker()
       .withSitemapCollector(sitemapCollector)
       .withVerificationPolicy(getVerificationPolicy())
-      .withResourceManager(getResourceManager());
-    SyncPostProcessor syncPostProcessor = getSyncPostProcessor();
+      .withResourceManager(resourceManager.withHttpClient(getHttpClient()))
+      .withWorkerThreads(getWorkerThreads())
+      .withMaxConcurrentPerHost(getMaxConcurrentPerHost())
+      .withUsingDumps(isUsingDumps());
+  }
 
-    for (URI uri : uriList) {
-      PathFinder pathFinder = new PathFinder(getBaseDirectory(), uri);
-      RsProperties currentSyncProps = new RsProperties();
-      setLatestSyncRun(pathFinder, sitemapCollector);
+  private void synchronizeSet(URI uri, SitemapConverterProvider sitemapConverterProvider, SyncWorker syncWorker,
+                              boolean fullSync) throws Exception {
+    SitemapCollector sitemapCollector = syncWorker.getSitemapCollector();
+    PathFinder pathFinder = new PathFinder(getBaseDirectory(), uri);
+    RsProperties currentSyncProps = new RsProperties();
+    setLatestSyncRun(pathFinder, sitemapCollector, fullSync);
 
-      sitemapConverterProvider.setPathFinder(pathFinder);
+    sitemapConverterProvider.setPathFinder(pathFinder);
+    try {
       syncWorker.synchronize(pathFinder, currentSyncProps);
-      syncPostProcessor.postProcess(sitemapCollector.getCurrentIndex(), pathFinder, currentSyncProps);
+    } finally {
+      sitemapConverterProvider.sitemapsCollected();
     }
+    getSyncPostProcessor().postProcess(sitemapCollector.getCurrentIndex(), pathFinder, currentSyncProps);
   }
 
-  private void setLatestSyncRun(PathFinder pathFinder, SitemapCollector sitemapCollector) {
+  private void setLatestSyncRun(PathFinder pathFinder, SitemapCollector sitemapCollector, boolean fullSync) {
     File prevSyncPropFile = pathFinder.getPrevSyncPropXmlFile();
     ZonedDateTime latestSyncRun = null;
+    ZonedDateTime latestFullSync = null;
     if (prevSyncPropFile != null) {
       RsProperties prevSyncProps = new RsProperties();
       try {
         prevSyncProps.loadFromXML(prevSyncPropFile);
         latestSyncRun = prevSyncProps.getDateTime(Sync.PROP_SW_SYNC_START);
+        latestFullSync = prevSyncProps.getDateTime(Sync.PROP_CL_DATE_LATEST_FULL_SYNC);
+        // runs before incremental synchronisation existed were full runs.
+        if (latestFullSync == null && !prevSyncProps.getBool(Sync.PROP_CL_CHANGELISTS_ONLY)) {
+          latestFullSync = latestSyncRun;
+        }
       } catch (IOException e) {
         throw new RuntimeException("Could not load syncProps from " + prevSyncPropFile, e);
       }
     }
-    sitemapCollector.withAsOfDateTime(latestSyncRun);
-    logger.info("only looking at item-events after {}", sitemapCollector.getAsOfDateTime());
+    boolean changeListsOnly = isIncrementalSync() && !fullSync && latestFullSync != null
+      && (getFullSyncIntervalDays() <= 0
+        || latestFullSync.plusDays(getFullSyncIntervalDays()).isAfter(pathFinder.getSyncStart()));
+    sitemapCollector.withAsOfDateTime(latestSyncRun).withChangeListsOnly(changeListsOnly);
+    logger.info("only looking at item-events after {}{}", sitemapCollector.getAsOfDateTime(),
+      changeListsOnly ? " in changelists, latest full sync at " + latestFullSync : "");
   }
 
   @Override
@@ -0,0 +1,180 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Journal of the items that were successfully synchronized during a synchronisation run. Each outcome is
+ * appended and flushed as soon as the item is done, so that a run that was broken off can be resumed by the
+ * next run. The journal is a tab separated text file, one line per item:
+ * <pre>
+ *   outcome  downloads  fingerprint  uri
+ * </pre>
+ * The fingerprint captures the change, datetime, lastmod, hash and length of the item. An outcome is only
+ * taken over by a next run if the fingerprint of the item did not change in the meantime.
+ * <p>
+ *   SyncJournal is thread safe.
+ * </p>
+ */
+public class SyncJournal {
+
+  private static Logger logger = LoggerFactory.getLogger(SyncJournal.class);
+
+  private final File journalFile;
+  private final Map<URI, Entry> entries = new ConcurrentHashMap<>();
+  private BufferedWriter writer;
+
+  /**
+   * Open the journal in the given file. Outcomes of an earlier, unfinished run are read.
+   *
+   * @param journalFile file of the journal
+   */
+  public SyncJournal(@Nonnull File journalFile) {
+    this.journalFile = journalFile;
+    load();
+  }
+
+  public File getJournalFile() {
+    return journalFile;
+  }
+
+  /**
+   * The number of outcomes of an earlier run that are available.
+   *
+   * @return number of outcomes
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Find the outcome of an earlier run for the given item.
+   *
+   * @param normalizedURI normalized URI of the item
+   * @param item the item
+   * @return Optional of Entry, empty if the item was not journaled or if it changed since
+   */
+  public Optional<Entry> find(@Nonnull URI normalizedURI, @Nonnull UrlItem item) {
+    Entry entry = entries.get(normalizedURI);
+    if (entry != null && entry.fingerprint.equals(fingerprint(item))) {
+      return Optional.of(entry);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Append the outcome of the given item to the journal.
+   *
+   * @param normalizedURI normalized URI of the item
+   * @param item the item
+   * @param outcome outcome of the synchronisation of the item
+   * @param downloads number of successful downloads that were done for the item
+   */
+  public synchronized void append(@Nonnull URI normalizedURI, @Nonnull UrlItem item, @Nonnull String outcome,
+                                  int downloads) {
+    try {
+      if (writer == null) {
+        File directory = journalFile.getParentFile();
+        if (directory.mkdirs()) logger.debug("Created directory path {}", directory);
+        writer = Files.newBufferedWriter(journalFile.toPath(), StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      }
+      writer.write(outcome + "\t" + downloads + "\t" + fingerprint(item) + "\t" + normalizedURI);
+      writer.newLine();
+      writer.flush();
+    } catch (IOException e) {
+      logger.warn("Could not append to sync journal {}", journalFile, e);
+    }
+  }
+
+  public synchronized void close() {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        logger.warn("Could not close sync journal {}", journalFile, e);
+      }
+      writer = null;
+    }
+  }
+
+  /**
+   * Close and delete the journal. Called when the synchronisation run was not broken off.
+   */
+  public synchronized void delete() {
+    close();
+    entries.clear();
+    if (journalFile.delete()) logger.debug("Deleted sync journal {}", journalFile);
+  }
+
+  private void load() {
+    if (!journalFile.exists()) return;
+    try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", 4);
+        // the last line may be incomplete if the previous run was killed while writing.
+        if (fields.length == 4) {
+          try {
+            entries.put(URI.create(fields[3]), new Entry(fields[0], Integer.parseInt(fields[1]), fields[2]));
+          } catch (IllegalArgumentException e) {
+            logger.debug("Skipping line in sync journal {}: {}", journalFile, line);
+          }
+        }
+      }
+      logger.info("Resuming synchronisation with {} outcomes from {}", entries.size(), journalFile);
+    } catch (IOException e) {
+      logger.warn("Could not read sync journal {}. Starting over.", journalFile, e);
+      entries.clear();
+    }
+  }
+
+  // datetimes as instants: the offset of a datetime is not kept by every item map
+  static String fingerprint(UrlItem item) {
+    Optional<RsMd> md = item.getMetadata();
+    return md.flatMap(RsMd::getChange).orElse("") + "|"
+      + md.flatMap(RsMd::getDateTime).map(dt -> dt.toInstant().toString()).orElse("") + "|"
+      + item.getLastmod().map(dt -> dt.toInstant().toString()).orElse("") + "|"
+      + md.flatMap(RsMd::getHash).orElse("") + "|"
+      + md.flatMap(RsMd::getLength).map(Object::toString).orElse("");
+  }
+
+  /**
+   * Journaled outcome of an item.
+   */
+  public static class Entry {
+
+    private final String outcome;
+    private final int downloads;
+    private final String fingerprint;
+
+    private Entry(String outcome, int downloads, String fingerprint) {
+      this.outcome = outcome;
+      this.downloads = downloads;
+      this.fingerprint = fingerprint;
+    }
+
+    public String getOutcome() {
+      return outcome;
+    }
+
+    public int getDownloads() {
+      return downloads;
+    }
+  }
+}
@@ -1,14 +1,18 @@
 package nl.knaw.dans.rs.aggregator.sync;
 
+import nl.knaw.dans.rs.aggregator.metrics.SyncMetrics;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
 import nl.knaw.dans.rs.aggregator.syncore.ResourceManager;
 import nl.knaw.dans.rs.aggregator.syncore.Sync;
 import nl.knaw.dans.rs.aggregator.syncore.VerificationPolicy;
 import nl.knaw.dans.rs.aggregator.syncore.VerificationStatus;
+import nl.knaw.dans.rs.aggregator.util.NormURI;
+import nl.knaw.dans.rs.aggregator.util.PhaseTimes;
 import nl.knaw.dans.rs.aggregator.util.RsProperties;
 import nl.knaw.dans.rs.aggregator.xml.RsConstants;
 import nl.knaw.dans.rs.aggregator.xml.RsMd;
 import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.HdrHistogram.ConcurrentHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,10 +21,38 @@ import java.io.IOException;
 import java.net.URI;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Synchronizes the resources of one set of resources, as collected by the {@link SitemapCollector}.
+ * <p>
+ * Items are synchronized one after another, unless {@link #withWorkerThreads(int)} is set to a value greater
+ * than 1. In that case items are handed to a pool of worker threads and the number of items that is handled
+ * concurrently for any one host is limited by {@link #withMaxConcurrentPerHost(int)}. The configured
+ * {@link ResourceManager} should be thread safe when more than one worker thread is used.
+ * </p>
+ * <p>
+ * If using dumps (the default) and the ResourceManager can ingest packages, the packages of resourcedumps are
+ * ingested on the first synchronisation of a set of resources and the packages of new changedumps on each
+ * synchronisation, before items are synchronized one by one. Ingested resources are then verified
+ * locally and need not be downloaded individually.
+ * </p>
+ * <p>
+ * The time spent on ingesting dumps, keepOnly, hashing ahead of verification, verification and downloads is
+ * reported per phase, see {@link PhaseTimes}, together with percentiles of the time it took to synchronize one item.
+ * </p>
  * Created on 2017-04-15 14:36.
  */
 public class SyncWorker implements RsConstants {
@@ -29,6 +61,10 @@ public class SyncWorker implements RsConstants {
 
   private static final int MAX_DOWNLOADS = Integer.MAX_VALUE;
   private static final int MAX_DOWNLOAD_RETRY = 3;
+  private static final int WORKER_THREADS = 1;
+  private static final int MAX_CONCURRENT_PER_HOST = Integer.MAX_VALUE;
+  private static final int HASH_BATCH_SIZE = 10000;
+  private static final String NO_ACTION = "no_action";
 
   private SitemapCollector sitemapCollector;
   private ResourceManager resourceManager;
@@ -37,24 +73,44 @@ public class SyncWorker implements RsConstants {
   private int maxDownloads = MAX_DOWNLOADS;
   private int maxDownloadRetry = MAX_DOWNLOAD_RETRY;
   private boolean trialRun = false;
-
-  private int itemCount;
-  private int verifiedItems;
-  private int itemsDeleted;
-  private int itemsCreated;
-  private int itemsUpdated;
-  private int itemsRemain;
-  private int itemsNoAction; // change='deleted' and resource does not exists.
-  private int failedDeletions;
-  private int failedCreations;
-  private int failedUpdates;
-  private int failedRemains;
+  private int workerThreads = WORKER_THREADS;
+  private int maxConcurrentPerHost = MAX_CONCURRENT_PER_HOST;
+  private boolean usingDumps = true;
+
+  private final AtomicInteger itemCount = new AtomicInteger();
+  private final AtomicInteger verifiedItems = new AtomicInteger();
+  private final AtomicInteger itemsDeleted = new AtomicInteger();
+  private final AtomicInteger itemsCreated = new AtomicInteger();
+  private final AtomicInteger itemsUpdated = new AtomicInteger();
+  private final AtomicInteger itemsRemain = new AtomicInteger();
+  private final AtomicInteger itemsNoAction = new AtomicInteger(); // change='deleted' and resource does not exists.
+  private final AtomicInteger failedDeletions = new AtomicInteger();
+  private final AtomicInteger failedCreations = new AtomicInteger();
+  private final AtomicInteger failedUpdates = new AtomicInteger();
+  private final AtomicInteger failedRemains = new AtomicInteger();
   private int totalFailures;
 
+  private final AtomicInteger preventedActions = new AtomicInteger();
+  private final AtomicInteger itemsResumed = new AtomicInteger();
+  private final AtomicLong pendingItems = new AtomicLong();
+  private final PhaseTimes phaseTimes = new PhaseTimes();
+  // microseconds per item
+  private final ConcurrentHistogram itemLatency = new ConcurrentHistogram(3);
+  private int dumpPackagesIngested;
+  private int dumpPackagesFailed;
+  private int dumpItems;
+
+  private SyncJournal journal;
+  // successful downloads for the item that is synchronized by the current thread
+  private final ThreadLocal<int[]> itemDownloads = ThreadLocal.withInitial(() -> new int[1]);
+
+  // guarded by downloadLock
+  private final Object downloadLock = new Object();
   private int downloadCount;
-  private boolean syncComplete;
+  private int downloadsInProgress;
 
-  private int preventedActions;
+  private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+  private boolean syncComplete;
 
   public SyncWorker() {
 
@@ -123,33 +179,97 @@ public class SyncWorker implements RsConstants {
     return this;
   }
 
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  /**
+   * Set the number of threads that synchronize items concurrently. Default is 1: items are synchronized
+   * one after another on the calling thread.
+   *
+   * @param workerThreads number of worker threads
+   * @return <code>this</code> to enable method chaining
+   */
+  public SyncWorker withWorkerThreads(int workerThreads) {
+    this.workerThreads = Math.max(1, workerThreads);
+    return this;
+  }
+
+  public int getMaxConcurrentPerHost() {
+    return maxConcurrentPerHost;
+  }
+
+  /**
+   * Set the maximum number of items of any one host that are synchronized concurrently. Only effective if
+   * the number of worker threads is greater than 1. Default is no limit other than the number of worker threads.
+   *
+   * @param maxConcurrentPerHost maximum number of concurrently synchronized items per host
+   * @return <code>this</code> to enable method chaining
+   */
+  public SyncWorker withMaxConcurrentPerHost(int maxConcurrentPerHost) {
+    this.maxConcurrentPerHost = Math.max(1, maxConcurrentPerHost);
+    return this;
+  }
+
+  public boolean isUsingDumps() {
+    return usingDumps;
+  }
+
+  /**
+   * Ingest the packages of resourcedumps and changedumps before synchronizing items one by one. Default is
+   * <code>true</code>. Only effective if the ResourceManager can ingest packages,
+   * see {@link ResourceManager#canIngestPackages()}.
+   *
+   * @param usingDumps <code>true</code> to ingest dump packages
+   * @return <code>this</code> to enable method chaining
+   */
+  public SyncWorker withUsingDumps(boolean usingDumps) {
+    this.usingDumps = usingDumps;
+    return this;
+  }
+
   public void synchronize(PathFinder pathFinder, RsProperties syncProps) {
     reset();
     getResourceManager().setPathFinder(pathFinder);
-    syncLocalResources(pathFinder, syncProps);
+    try {
+      syncLocalResources(pathFinder, syncProps);
+    } finally {
+      getResourceManager().endSynchronization();
+      getSitemapCollector().releaseItems();
+    }
     report(pathFinder, syncProps);
   }
 
   private void reset() {
-    itemCount = 0;
-    verifiedItems = 0;
+    itemCount.set(0);
+    verifiedItems.set(0);
 
-    itemsCreated = 0;
-    itemsUpdated = 0;
-    itemsRemain = 0;
-    itemsDeleted = 0;
+    itemsCreated.set(0);
+    itemsUpdated.set(0);
+    itemsRemain.set(0);
+    itemsDeleted.set(0);
 
-    itemsNoAction = 0;
+    itemsNoAction.set(0);
 
-    failedCreations = 0;
-    failedUpdates = 0;
-    failedRemains = 0;
-    failedDeletions = 0;
+    failedCreations.set(0);
+    failedUpdates.set(0);
+    failedRemains.set(0);
+    failedDeletions.set(0);
     totalFailures = 0;
 
-    downloadCount = 0;
-
-    preventedActions = 0;
+    synchronized (downloadLock) {
+      downloadCount = 0;
+      downloadsInProgress = 0;
+    }
+    hostPermits.clear();
+
+    preventedActions.set(0);
+    itemsResumed.set(0);
+    phaseTimes.clear();
+    itemLatency.reset();
+    dumpPackagesIngested = 0;
+    dumpPackagesFailed = 0;
+    dumpItems = 0;
     syncComplete = false;
   }
 
@@ -160,78 +280,275 @@ public class SyncWorker implements RsConstants {
       logger.warn("Not synchronizing because of previous {} errors: {}",
         collector.countErrors(), pathFinder.getCapabilityListUri());
     } else {
+      if (usingDumps && getResourceManager().canIngestPackages()) {
+        PhaseTimes.Split split = PhaseTimes.start();
+        ingestDumps(pathFinder, collector);
+        phaseTimes.stop(PhaseTimes.DUMPS, split);
+      }
       if (collector.hasNewResourceList() && !trialRun) {
+        PhaseTimes.Split split = PhaseTimes.start();
         resourceManager.keepOnly(collector.getMostRecentItems().keySet());
+        phaseTimes.stop(PhaseTimes.KEEP_ONLY, split);
       }
-      for (Map.Entry<URI, UrlItem> entry : collector.getMostRecentItems().entrySet()) {
-        syncItem(entry.getKey(), entry.getValue());
+      journal = trialRun ? null : new SyncJournal(pathFinder.getSyncJournalFile());
+      PhaseTimes.Split hashSplit = PhaseTimes.start();
+      prepareHashVerification(collector.getMostRecentItems());
+      phaseTimes.stop(PhaseTimes.HASH, hashSplit);
+      pendingItems.set(collector.getMostRecentItems().size());
+      SyncMetrics.itemsPending().addAndGet(pendingItems.get());
+      try {
+        if (workerThreads > 1) {
+          syncItemsConcurrently(collector.getMostRecentItems());
+        } else {
+          for (Map.Entry<URI, UrlItem> entry : collector.getMostRecentItems().entrySet()) {
+            syncItem(entry.getKey(), entry.getValue());
+          }
+        }
+        // all items were handled: a next run need not resume this one.
+        if (journal != null) journal.delete();
+      } finally {
+        // items that were not handled, because of a failure, are no longer pending either
+        SyncMetrics.itemsPending().addAndGet(-pendingItems.getAndSet(0));
+        if (journal != null) journal.close();
+        journal = null;
       }
     }
-    totalFailures = failedCreations + failedUpdates + failedDeletions + failedRemains;
+    totalFailures = failedCreations.get() + failedUpdates.get() + failedDeletions.get() + failedRemains.get();
 
-    syncComplete = !trialRun && !collector.hasErrors() && preventedActions == 0 && totalFailures == 0;
+    syncComplete = !trialRun && !collector.hasErrors() && preventedActions.get() == 0 && totalFailures == 0
+      && dumpPackagesFailed == 0;
 
     logger.info("====> synchronized={}, new ResourceList={}, items={}, verified={}, " +
         "failures={}, downloads={} [success/failures] " +
         "created={}/{}, updated={}/{}, remain={}/{}, deleted={}/{}, " +
         "no_action={}, trial run={}, resource set={}",
-      syncComplete, collector.hasNewResourceList(), itemCount, verifiedItems, totalFailures, downloadCount, itemsCreated,
+      syncComplete, collector.hasNewResourceList(), itemCount, verifiedItems, totalFailures, getDownloadCount(),
+      itemsCreated,
       failedCreations, itemsUpdated,
       failedUpdates, itemsRemain, failedRemains,
       itemsDeleted, failedDeletions, itemsNoAction, trialRun, pathFinder.getCapabilityListUri());
   }
 
+  private void ingestDumps(PathFinder pathFinder, SitemapCollector collector) {
+    List<UrlItem> packages = new ArrayList<>();
+    // a resourcedump is only worth its download if the set of resources is not yet present
+    if (pathFinder.getPrevSyncPropXmlFile() == null) {
+      packages.addAll(collector.getResourceDumpPackages());
+    }
+    packages.addAll(collector.getChangeDumpPackages());
+    for (UrlItem dumpPackage : packages) {
+      Optional<URI> maybeUri = NormURI.normalize(dumpPackage.getLoc());
+      if (!maybeUri.isPresent()) {
+        logger.warn("Missing loc on dump package item: {}", pathFinder.getCapabilityListUri());
+        dumpPackagesFailed++;
+        continue;
+      }
+      URI packageURI = maybeUri.get();
+      if (!reserveDownload(packageURI)) continue;
+      Optional<List<UrlItem>> maybeItems = resourceManager.ingestPackage(packageURI);
+      completeDownload(maybeItems.isPresent());
+      if (maybeItems.isPresent()) {
+        dumpPackagesIngested++;
+        for (UrlItem item : maybeItems.get()) {
+          dumpItems++;
+          // resources that are only listed in a dump are synchronized as well, and resources that could not
+          // be ingested are fetched one by one
+          NormURI.normalize(item.getLoc())
+            .ifPresent(uri -> collector.getMostRecentItems().merge(uri, item, UrlItem::latest));
+        }
+      } else {
+        dumpPackagesFailed++;
+      }
+    }
+    if (!packages.isEmpty()) {
+      logger.info("Ingested {} dump packages with {} items, {} packages failed: {}",
+        dumpPackagesIngested, dumpItems, dumpPackagesFailed, pathFinder.getCapabilityListUri());
+    }
+  }
+
+  /**
+   * Announce the hashes of existing resources that will be verified, so that the ResourceManager can compute
+   * them in bulk. Items that will be deleted or that are resumed from the journal are left out.
+   */
+  private void prepareHashVerification(Map<URI, UrlItem> items) {
+    Map<URI, String> algorithms = new HashMap<>();
+    for (Map.Entry<URI, UrlItem> entry : items.entrySet()) {
+      UrlItem item = entry.getValue();
+      Optional<String> maybeHash = item.getMetadata().flatMap(RsMd::getHash);
+      if (!maybeHash.isPresent() || CH_DELETED.equals(item.getMetadata().flatMap(RsMd::getChange).orElse(null))
+        || (journal != null && journal.find(entry.getKey(), item).isPresent())) continue;
+      algorithms.put(entry.getKey(), getHashAlgorithm(maybeHash.get()));
+      // in batches, so that sets of resources that are spilled to disk are not held in memory
+      if (algorithms.size() == HASH_BATCH_SIZE) {
+        resourceManager.prepareHashVerification(algorithms);
+        algorithms.clear();
+      }
+    }
+    if (!algorithms.isEmpty()) resourceManager.prepareHashVerification(algorithms);
+  }
+
+  private static String getHashAlgorithm(String hash) {
+    String[] splitHash = hash.split(":");
+    return splitHash.length > 1 ? splitHash[0] : "md5";
+  }
+
+  private void syncItemsConcurrently(Map<URI, UrlItem> items) {
+    logger.info("Synchronizing {} items with {} worker threads, max {} concurrent per host",
+      items.size(), workerThreads, maxConcurrentPerHost);
+    // a bounded queue, so that items are taken from the map as they are synchronized. If the queue is full,
+    // the calling thread synchronizes the item itself.
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(workerThreads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    try {
+      for (Map.Entry<URI, UrlItem> entry : items.entrySet()) {
+        if (failure.get() != null) break;
+        executor.execute(() -> {
+          try {
+            syncItemWithHostPermit(entry.getKey(), entry.getValue());
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        });
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while synchronizing items", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    Throwable cause = failure.get();
+    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+    if (cause instanceof Error) throw (Error) cause;
+    if (cause != null) throw new RuntimeException(cause);
+  }
+
+  private void syncItemWithHostPermit(URI normalizedURI, UrlItem item) {
+    String host = normalizedURI.getHost() == null ? "" : normalizedURI.getHost();
+    Semaphore permits = hostPermits.computeIfAbsent(host, h -> new Semaphore(maxConcurrentPerHost));
+    permits.acquireUninterruptibly();
+    try {
+      syncItem(normalizedURI, item);
+    } finally {
+      permits.release();
+    }
+  }
+
   private void syncItem(URI normalizedURI, UrlItem item) {
-    itemCount++;
+    long start = System.nanoTime();
+    try {
+      if (journal != null) {
+        Optional<SyncJournal.Entry> maybeEntry = journal.find(normalizedURI, item);
+        if (maybeEntry.isPresent()) {
+          resumeItem(normalizedURI, maybeEntry.get());
+          return;
+        }
+      }
+      itemDownloads.get()[0] = 0;
+      String outcome = doSyncItem(normalizedURI, item);
+      if (outcome != null && journal != null) {
+        journal.append(normalizedURI, item, outcome, itemDownloads.get()[0]);
+      }
+    } finally {
+      itemLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+      pendingItems.decrementAndGet();
+      SyncMetrics.itemsPending().decrementAndGet();
+    }
+  }
+
+  /**
+   * Count the outcome of an item that was synchronized by an earlier run that was broken off, as if the item
+   * was synchronized by this run.
+   */
+  private void resumeItem(URI normalizedURI, SyncJournal.Entry entry) {
+    itemCount.incrementAndGet();
+    itemsResumed.incrementAndGet();
+    String outcome = entry.getOutcome();
+    if (CH_REMAIN.equals(outcome)) {
+      itemsRemain.incrementAndGet();
+      verifiedItems.incrementAndGet();
+    } else if (CH_CREATED.equals(outcome)) {
+      itemsCreated.incrementAndGet();
+      verifiedItems.incrementAndGet();
+    } else if (CH_UPDATED.equals(outcome)) {
+      itemsUpdated.incrementAndGet();
+      verifiedItems.incrementAndGet();
+    } else if (CH_DELETED.equals(outcome)) {
+      itemsDeleted.incrementAndGet();
+    } else {
+      itemsNoAction.incrementAndGet();
+    }
+    synchronized (downloadLock) {
+      downloadCount += entry.getDownloads();
+    }
+    logger.debug("------> resumed {}, normalizedURI={}", outcome, normalizedURI);
+  }
+
+  /**
+   * Synchronize the given item.
+   *
+   * @return the outcome if successful, <code>null</code> otherwise
+   */
+  private String doSyncItem(URI normalizedURI, UrlItem item) {
+    String outcome = null;
+    int itemNumber = itemCount.incrementAndGet();
     String change = item.getMetadata().flatMap(RsMd::getChange).orElse(CH_REMAIN);
     boolean resourceExists = resourceManager.exists(normalizedURI);
 
-    logger.debug("------> {} {}, exists={}, normalizedURI={}", itemCount, change, resourceExists, normalizedURI);
+    logger.debug("------> {} {}, exists={}, normalizedURI={}", itemNumber, change, resourceExists, normalizedURI);
 
     if (CH_REMAIN.equalsIgnoreCase(change)) {
       if (verifyChange(normalizedURI, item, resourceExists)) {
-        itemsRemain++;
+        itemsRemain.incrementAndGet();
+        outcome = CH_REMAIN;
       } else {
-        failedRemains++;
+        failedRemains.incrementAndGet();
       }
     } else if (CH_CREATED.equalsIgnoreCase(change)) {
       if (verifyChange(normalizedURI, item, resourceExists)) {
-        itemsCreated++;
+        itemsCreated.incrementAndGet();
+        outcome = CH_CREATED;
       } else {
-        failedCreations++;
+        failedCreations.incrementAndGet();
       }
     } else if (CH_UPDATED.equalsIgnoreCase(change)) {
       if (verifyChange(normalizedURI, item, resourceExists)) {
-        itemsUpdated++;
+        itemsUpdated.incrementAndGet();
+        outcome = CH_UPDATED;
       } else {
-        failedUpdates++;
+        failedUpdates.incrementAndGet();
       }
     } else if (CH_DELETED.equalsIgnoreCase(change) && resourceExists) {
       if (actionAllowed(normalizedURI) && resourceManager.delete(normalizedURI)) {
-        itemsDeleted++;
+        itemsDeleted.incrementAndGet();
+        outcome = CH_DELETED;
       } else {
-        failedDeletions++;
+        failedDeletions.incrementAndGet();
       }
     } else if (CH_DELETED.equalsIgnoreCase(change) && !resourceExists) {
-      itemsNoAction++;
+      itemsNoAction.incrementAndGet();
+      outcome = NO_ACTION;
     }
+    return outcome;
   }
 
   private boolean verifyChange(URI normalizedURI, UrlItem item, boolean resourceExists) {
     boolean success;
     if (resourceExists) {
-      boolean verified = doVerify(normalizedURI, item);
+      boolean verified = doVerify(normalizedURI, item, false);
       if (verified) {
         success = actionAllowed(normalizedURI) && resourceManager.keep(normalizedURI);
+      } else if (reserveDownload(normalizedURI)) {
+        success = completeDownload(update(normalizedURI, item) && verifyAndUpdate(normalizedURI, item));
       } else {
-        success = actionAllowed(normalizedURI) && resourceManager.update(normalizedURI)
-          && verifyAndUpdate(normalizedURI, item);
-        if (success) downloadCount++;
+        success = false;
       }
-    } else { // resource does not exist
-      success = actionAllowed(normalizedURI) && resourceManager.create(normalizedURI)
-        && verifyAndUpdate(normalizedURI, item);
-      if (success) downloadCount++;
+    } else if (reserveDownload(normalizedURI)) { // resource does not exist
+      success = completeDownload(create(normalizedURI, item) && verifyAndUpdate(normalizedURI, item));
+    } else {
+      success = false;
     }
     return success;
   }
@@ -239,7 +556,8 @@ public class SyncWorker implements RsConstants {
   private boolean verifyAndUpdate(URI normalizedURI, UrlItem item) {
     boolean verified = false;
     for (int i=0; i < getMaxDownloadRetry(); i++) {
-      verified = doVerify(normalizedURI, item);
+      // the download of the caller is reserved, repeat downloads are part of it
+      verified = doVerify(normalizedURI, item, true);
       if (verified) {
         break;
       } else {
@@ -247,28 +565,85 @@ public class SyncWorker implements RsConstants {
           break;
         } else {
           logger.info("Repeating download. download count={}, uri={}", i, normalizedURI);
-          resourceManager.update(normalizedURI);
+          update(normalizedURI, item);
         }
       }
     }
     return verified;
   }
 
+  private boolean create(URI normalizedURI, UrlItem item) {
+    PhaseTimes.Split split = PhaseTimes.start();
+    try {
+      return resourceManager.create(normalizedURI, item);
+    } finally {
+      phaseTimes.stop(PhaseTimes.DOWNLOAD, split);
+    }
+  }
+
+  private boolean update(URI normalizedURI, UrlItem item) {
+    PhaseTimes.Split split = PhaseTimes.start();
+    try {
+      return resourceManager.update(normalizedURI, item);
+    } finally {
+      phaseTimes.stop(PhaseTimes.DOWNLOAD, split);
+    }
+  }
+
   private boolean actionAllowed(URI normalizedURI) {
     boolean allowed = true;
     if (trialRun) {
       logger.debug("Trial run. No action on: {}", normalizedURI);
       allowed = false;
-      preventedActions++;
-    } else if (downloadCount >= maxDownloads) {
+      preventedActions.incrementAndGet();
+    } else if (getDownloadCount() >= maxDownloads) {
       logger.debug("Max downloads reached. No further action on: {}", normalizedURI);
       allowed = false;
-      preventedActions++;
+      preventedActions.incrementAndGet();
     }
     return allowed;
   }
 
-  private boolean doVerify(URI normalizedURI, UrlItem item) {
+  /**
+   * Reserve one of the remaining downloads. Downloads in progress count as reserved, so the number of
+   * successful downloads will not exceed maxDownloads, whatever the number of worker threads.
+   * A successful reservation must be followed by a call to {@link #completeDownload(boolean)}.
+   */
+  private boolean reserveDownload(URI normalizedURI) {
+    if (!actionAllowed(normalizedURI)) return false;
+    synchronized (downloadLock) {
+      if (downloadCount + downloadsInProgress >= maxDownloads) {
+        logger.debug("Max downloads reserved. No further action on: {}", normalizedURI);
+        preventedActions.incrementAndGet();
+        return false;
+      }
+      downloadsInProgress++;
+      return true;
+    }
+  }
+
+  private boolean completeDownload(boolean success) {
+    synchronized (downloadLock) {
+      downloadsInProgress--;
+      if (success) downloadCount++;
+    }
+    if (success) {
+      itemDownloads.get()[0]++;
+    }
+    return success;
+  }
+
+  private int getDownloadCount() {
+    synchronized (downloadLock) {
+      return downloadCount;
+    }
+  }
+
+  /**
+   * Verify the local resource against the item. A download that the policy asks for takes a reservation of
+   * its own, unless the caller holds one for this item already.
+   */
+  private boolean doVerify(URI normalizedURI, UrlItem item, boolean downloadReserved) {
     VerificationPolicy policy = getVerificationPolicy();
     VerificationStatus stHash = VerificationStatus.not_verified;
     VerificationStatus stLastMod = VerificationStatus.not_verified;
@@ -278,37 +653,42 @@ public class SyncWorker implements RsConstants {
       Optional<String> maybeHash = item.getMetadata().flatMap(RsMd::getHash);
       if (maybeHash.isPresent()) {
         String hash = maybeHash.get();
-        String algorithm = "md5";
-        String[] splitHash = hash.split(":");
-        if (splitHash.length > 1) {
-          algorithm = splitHash[0];
-          hash = splitHash[1];
-        }
+        String algorithm = getHashAlgorithm(hash);
+        hash = hash.substring(hash.indexOf(':') + 1);
+        PhaseTimes.Split split = PhaseTimes.start();
         stHash = resourceManager.verifyHash(normalizedURI, algorithm, hash);
+        SyncMetrics.recordVerification(SyncMetrics.CHECK_HASH, phaseTimes.stop(PhaseTimes.VERIFY, split));
       }
     }
 
     if (policy.continueVerification(stHash, stLastMod, stSize)) {
       Optional<ZonedDateTime> maybeLastModified = item.getLastmod();
       if (maybeLastModified.isPresent()) {
+        PhaseTimes.Split split = PhaseTimes.start();
         stLastMod = resourceManager.verifyLastModified(normalizedURI, maybeLastModified.get());
+        SyncMetrics.recordVerification(SyncMetrics.CHECK_LASTMOD, phaseTimes.stop(PhaseTimes.VERIFY, split));
       }
     }
 
     if (policy.continueVerification(stHash, stLastMod, stSize)) {
       Optional<Long> maybeSize = item.getMetadata().flatMap(RsMd::getLength);
       if (maybeSize.isPresent()) {
+        PhaseTimes.Split split = PhaseTimes.start();
         stSize = resourceManager.verifySize(normalizedURI, maybeSize.get());
+        SyncMetrics.recordVerification(SyncMetrics.CHECK_SIZE, phaseTimes.stop(PhaseTimes.VERIFY, split));
       }
     }
 
     if (policy.repeatDownload(stHash, stLastMod, stSize)) {
-      boolean success = actionAllowed(normalizedURI) && resourceManager.update(normalizedURI);
-      if (success) downloadCount++;
+      if (downloadReserved) {
+        if (actionAllowed(normalizedURI)) update(normalizedURI, item);
+      } else if (reserveDownload(normalizedURI)) {
+        completeDownload(update(normalizedURI, item));
+      }
     }
 
     boolean verified = policy.isVerified(stHash, stLastMod, stSize);
-    if (verified) verifiedItems++;
+    if (verified) verifiedItems.incrementAndGet();
     logger.debug("Verification status={}, Hash={}, LastMod={}, Size={}, uri={}",
       verified, stHash, stLastMod, stSize, normalizedURI);
     return verified;
@@ -324,24 +704,36 @@ public class SyncWorker implements RsConstants {
     syncProps.setInt(Sync.PROP_SW_MAX_DOWNLOADS, getMaxDownloads());
     syncProps.setInt(Sync.PROP_SW_MAX_DOWNLOAD_RETRY, getMaxDownloadRetry());
     syncProps.setBool(Sync.PROP_SW_TRIAL_RUN, isTrialRun());
+    syncProps.setInt(Sync.PROP_SW_WORKER_THREADS, getWorkerThreads());
+    syncProps.setInt(Sync.PROP_SW_MAX_CONCURRENT_PER_HOST, getMaxConcurrentPerHost());
+    syncProps.setBool(Sync.PROP_SW_USING_DUMPS, isUsingDumps());
     syncProps.setProperty(Sync.PROP_SW_SITEMAP_COLLECTOR, getSitemapCollector().getClass().getName());
     syncProps.setProperty(Sync.PROP_SW_RESOURCE_MANAGER, getResourceManager().getClass().getName());
     syncProps.setProperty(Sync.PROP_SW_VERIFICATION_POLICY, getVerificationPolicy().getClass().getName());
 
-    syncProps.setInt(Sync.PROP_SW_TOTAL_ITEMS, itemCount);
-    syncProps.setInt(Sync.PROP_SW_ITEMS_VERIFIED, verifiedItems);
-    syncProps.setInt(Sync.PROP_SW_ITEMS_DELETED, itemsDeleted);
-    syncProps.setInt(Sync.PROP_SW_ITEMS_CREATED, itemsCreated);
-    syncProps.setInt(Sync.PROP_SW_ITEMS_UPDATED, itemsUpdated);
-    syncProps.setInt(Sync.PROP_SW_ITEMS_REMAIN, itemsRemain);
-    syncProps.setInt(Sync.PROP_SW_ITEMS_NO_ACTION, itemsNoAction);
+    syncProps.setInt(Sync.PROP_SW_TOTAL_ITEMS, itemCount.get());
+    syncProps.setInt(Sync.PROP_SW_ITEMS_VERIFIED, verifiedItems.get());
+    syncProps.setInt(Sync.PROP_SW_ITEMS_DELETED, itemsDeleted.get());
+    syncProps.setInt(Sync.PROP_SW_ITEMS_CREATED, itemsCreated.get());
+    syncProps.setInt(Sync.PROP_SW_ITEMS_UPDATED, itemsUpdated.get());
+    syncProps.setInt(Sync.PROP_SW_ITEMS_REMAIN, itemsRemain.get());
+    syncProps.setInt(Sync.PROP_SW_ITEMS_NO_ACTION, itemsNoAction.get());
     syncProps.setInt(Sync.PROP_SW_TOTAL_FAILED_ITEMS, totalFailures);
-    syncProps.setInt(Sync.PROP_SW_FAILED_DELETIONS, failedDeletions);
-    syncProps.setInt(Sync.PROP_SW_FAILED_CREATIONS, failedCreations);
-    syncProps.setInt(Sync.PROP_SW_FAILED_UPDATES, failedUpdates);
-    syncProps.setInt(Sync.PROP_SW_FAILED_REMAINS, failedRemains);
-
-    syncProps.setInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT, downloadCount);
+    syncProps.setInt(Sync.PROP_SW_FAILED_DELETIONS, failedDeletions.get());
+    syncProps.setInt(Sync.PROP_SW_FAILED_CREATIONS, failedCreations.get());
+    syncProps.setInt(Sync.PROP_SW_FAILED_UPDATES, failedUpdates.get());
+    syncProps.setInt(Sync.PROP_SW_FAILED_REMAINS, failedRemains.get());
+
+    syncProps.setInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT, getDownloadCount());
+    syncProps.setInt(Sync.PROP_SW_ITEMS_RESUMED, itemsResumed.get());
+    syncProps.setInt(Sync.PROP_SW_DUMP_PACKAGES_INGESTED, dumpPackagesIngested);
+    syncProps.setInt(Sync.PROP_SW_DUMP_PACKAGES_FAILED, dumpPackagesFailed);
+    syncProps.setInt(Sync.PROP_SW_DUMP_ITEMS, dumpItems);
+    phaseTimes.report(syncProps, Sync.PROP_SW_TIME);
+    syncProps.setLong(Sync.PROP_SW_ITEM_LATENCY_P50, itemLatency.getValueAtPercentile(50));
+    syncProps.setLong(Sync.PROP_SW_ITEM_LATENCY_P90, itemLatency.getValueAtPercentile(90));
+    syncProps.setLong(Sync.PROP_SW_ITEM_LATENCY_P99, itemLatency.getValueAtPercentile(99));
+    syncProps.setLong(Sync.PROP_SW_ITEM_LATENCY_MAX, itemLatency.getMaxValue());
 
     try {
       File file = pathFinder.getSyncPropXmlFile();
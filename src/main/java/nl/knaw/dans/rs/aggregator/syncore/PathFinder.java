@@ -29,6 +29,12 @@ public class PathFinder {
   public static final String DIR_METADATA = "__MOR__";
   public static final String DIR_RESOURCES = "__SOR__";
   public static final String DIR_SYNC_PROPS = "__SYNC_PROPS__";
+  public static final String DIR_RESOURCE_STATE = "__RESOURCE_STATE__";
+  public static final String DIR_PACKAGES = "__PACKAGES__";
+  public static final String DIR_SPILL = "__SPILL__";
+  public static final String FILE_SITEMAP_VALIDATORS = "sitemap-validators.properties";
+  public static final String FILE_RESOURCE_STATE = "resource-state.tsv";
+  public static final String FILE_SYNC_JOURNAL = "sync-journal.tsv";
 
   private static Logger logger = LoggerFactory.getLogger(PathFinder.class);
 
@@ -45,9 +51,14 @@ public class PathFinder {
   private final File metadataDirectory;
   private final File resourceDirectory;
   private final File syncPropDirectory;
+  private final File packageDirectory;
+  private final File spillDirectory;
   private final File syncPropXmlFile;
   private final File prevSyncPropXmlFile;
   private final File capabilityListFile;
+  private final File sitemapValidatorsFile;
+  private final File resourceStateFile;
+  private final File syncJournalFile;
 
   public PathFinder(@Nonnull String baseDirectory, @Nonnull URI capabilityListUri) {
     this.capabilityListUri = capabilityListUri;
@@ -74,6 +85,11 @@ public class PathFinder {
     resourceDirectory = new File(setDirectory, DIR_RESOURCES);
     capabilityListFile = new File(metadataDirectory, fileName);
     syncPropDirectory = new File(setDirectory, DIR_SYNC_PROPS);
+    packageDirectory = new File(setDirectory, DIR_PACKAGES);
+    spillDirectory = new File(setDirectory, DIR_SPILL);
+    sitemapValidatorsFile = new File(syncPropDirectory, FILE_SITEMAP_VALIDATORS);
+    resourceStateFile = new File(new File(setDirectory, DIR_RESOURCE_STATE), FILE_RESOURCE_STATE);
+    syncJournalFile = new File(syncPropDirectory, FILE_SYNC_JOURNAL);
     String syncDate = ZonedDateTimeUtil.toFileSaveFormat(syncStart);
     syncPropXmlFile = new File(syncPropDirectory, syncDate + ".xml");
 
@@ -147,6 +163,14 @@ public class PathFinder {
     return syncPropDirectory;
   }
 
+  public File getPackageDirectory() {
+    return packageDirectory;
+  }
+
+  public File getSpillDirectory() {
+    return spillDirectory;
+  }
+
   public File getSyncPropXmlFile() {
     return syncPropXmlFile;
   }
@@ -159,6 +183,18 @@ public class PathFinder {
     return capabilityListFile;
   }
 
+  public File getSitemapValidatorsFile() {
+    return sitemapValidatorsFile;
+  }
+
+  public File getResourceStateFile() {
+    return resourceStateFile;
+  }
+
+  public File getSyncJournalFile() {
+    return syncJournalFile;
+  }
+
   public File findMetadataFilePath(@Nonnull URI uri) {
     String restPath = extractPath(uri).replace(path, "");
     return new File(metadataDirectory, restPath);
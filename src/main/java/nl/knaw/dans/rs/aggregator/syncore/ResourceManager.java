@@ -1,8 +1,14 @@
 package nl.knaw.dans.rs.aggregator.syncore;
 
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.apache.http.impl.client.CloseableHttpClient;
+
 import javax.annotation.Nonnull;
 import java.net.URI;
 import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -12,6 +18,10 @@ import java.util.Set;
  * For each set of resources the accompanying {@link PathFinder} will be set on the ResourceManager.
  * See {@link ResourceManager#setPathFinder(PathFinder)}
  *
+ * If the synchronisation of a set of resources is done with more than one worker thread, the methods
+ * concerning individual resources may be called concurrently. Implementations should be thread safe
+ * in that respect.
+ *
  * @see nl.knaw.dans.rs.aggregator.util.NormURI#normalize(URI)
  */
 public interface ResourceManager {
@@ -28,6 +38,39 @@ public interface ResourceManager {
    */
   void setPathFinder(PathFinder pathFinder);
 
+  /**
+   * Can this ResourceManager be copied with {@link #copy()}. The default is <code>false</code>, in which case
+   * sets of resources are synchronized one after the other.
+   *
+   * @return <code>true</code> if this ResourceManager can be copied, <code>false</code> otherwise
+   */
+  default boolean canCopy() {
+    return false;
+  }
+
+  /**
+   * Create a new ResourceManager with the same configuration as this one, but without state concerning a
+   * set of resources. If sets of resources are synchronized concurrently, each set is handled by its own copy.
+   * Only called if {@link #canCopy()} returns <code>true</code>.
+   *
+   * @return a new ResourceManager with the same configuration
+   */
+  default ResourceManager copy() {
+    throw new UnsupportedOperationException(getClass().getName() + " does not support concurrent " +
+      "synchronization of sets of resources.");
+  }
+
+  /**
+   * Set the http client that is shared by all components of the synchronisation. ResourceManagers that
+   * fetch resources over http should use this client. Others may ignore it.
+   *
+   * @param httpClient the shared http client
+   * @return this for enabling method chaining
+   */
+  default ResourceManager withHttpClient(CloseableHttpClient httpClient) {
+    return this;
+  }
+
   /**
    * Does the resource that is identified by the given <code>normalizedURI</code> exist in the resource store.
    *
@@ -97,6 +140,19 @@ public interface ResourceManager {
    */
   boolean create(@Nonnull URI normalizedURI);
 
+  /**
+   * Create the resource that is identified by the given <code>normalizedURI</code>, as described by the given
+   * <code>item</code>. ResourceManagers may use the metadata of the item, for instance to compute the hash of the
+   * resource while fetching it. The default implementation calls {@link ResourceManager#create(URI)}.
+   *
+   * @param normalizedURI identifies the resource
+   * @param item describes the resource
+   * @return <code>true</code> if the operation succeeded, <code>false</code> otherwise
+   */
+  default boolean create(@Nonnull URI normalizedURI, @Nonnull UrlItem item) {
+    return create(normalizedURI);
+  }
+
   /**
    * Update the resource that is identified by the given <code>normalizedURI</code>. The resource was present but
    * was not up-to-date.
@@ -106,6 +162,18 @@ public interface ResourceManager {
    */
   boolean update(@Nonnull URI normalizedURI);
 
+  /**
+   * Update the resource that is identified by the given <code>normalizedURI</code>, as described by the given
+   * <code>item</code>. The default implementation calls {@link ResourceManager#update(URI)}.
+   *
+   * @param normalizedURI identifies the resource
+   * @param item describes the resource
+   * @return <code>true</code> if the operation succeeded, <code>false</code> otherwise
+   */
+  default boolean update(@Nonnull URI normalizedURI, @Nonnull UrlItem item) {
+    return update(normalizedURI);
+  }
+
   /**
    * Delete or remove the resource that is identified by the given <code>normalizedURI</code>. The resource
    * was present but was purged from the set of resources.
@@ -115,4 +183,49 @@ public interface ResourceManager {
    */
   boolean delete(@Nonnull URI normalizedURI);
 
+  /**
+   * Can this ResourceManager ingest ResourceDump and ChangeDump packages with
+   * {@link ResourceManager#ingestPackage(URI)}. The default implementation returns <code>false</code>.
+   *
+   * @return <code>true</code> if packages can be ingested, <code>false</code> otherwise
+   */
+  default boolean canIngestPackages() {
+    return false;
+  }
+
+  /**
+   * Ingest the ResourceDump or ChangeDump package at the given <code>packageURI</code>. A package is a ZIP file
+   * with a manifest that describes its bitstreams. Each bitstream should be stored as the resource that is
+   * identified by the loc of its manifest item, and only if it verifies against the hash and length given
+   * in the manifest.
+   *
+   * This call enables the initial synchronisation of a large set of resources in bulk. The returned manifest
+   * items are synchronized like any other item, so resources that were ingested will be verified and need not
+   * be fetched one by one, while those that were not will be fetched individually.
+   * The default implementation ingests nothing and returns an empty Optional.
+   *
+   * @param packageURI the URI of the package
+   * @return Optional of all items in the manifest of the package, empty if the package could not be ingested
+   */
+  default Optional<List<UrlItem>> ingestPackage(@Nonnull URI packageURI) {
+    return Optional.empty();
+  }
+
+  /**
+   * Announces the hash verifications of existing resources that are about to follow, so that hashes can be
+   * computed in bulk, for instance concurrently. Resources in the given map may not exist.
+   * The default implementation does nothing.
+   *
+   * @param algorithms the hash algorithm that will be verified for each resource, keyed by normalized URI
+   */
+  default void prepareHashVerification(@Nonnull Map<URI, String> algorithms) {
+  }
+
+  /**
+   * Signals that all resources of the current set of resources have been handled. A ResourceManager that
+   * keeps state about the managed resources may persist it here.
+   */
+  default void endSynchronization() {
+  }
+
 }
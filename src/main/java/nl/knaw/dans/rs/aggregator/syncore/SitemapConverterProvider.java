@@ -3,6 +3,7 @@ package nl.knaw.dans.rs.aggregator.syncore;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
 import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 
 import java.net.URI;
@@ -28,6 +29,13 @@ public interface SitemapConverterProvider {
    */
   void setPathFinder(PathFinder pathFinder);
 
+  /**
+   * Signals that all sitemaps for the current {@link PathFinder} have been handled by the provided converter.
+   * Providers that keep information on the handled sitemaps can save it now. The default does nothing.
+   */
+  default void sitemapsCollected() {
+  }
+
   /**
    * Set the {@link ResourceSyncContext} for the provided converter.
    *
@@ -35,4 +43,51 @@ public interface SitemapConverterProvider {
    * @return this for enabling method chaining
    */
   SitemapConverterProvider withResourceSyncContext(ResourceSyncContext rsContext);
+
+  /**
+   * Can this SitemapConverterProvider be copied with {@link #copy()}. The default is <code>false</code>, in which
+   * case sets of resources are synchronized one after the other.
+   *
+   * @return <code>true</code> if this SitemapConverterProvider can be copied, <code>false</code> otherwise
+   */
+  default boolean canCopy() {
+    return false;
+  }
+
+  /**
+   * Create a new SitemapConverterProvider with the same configuration as this one, but without state concerning
+   * a set of resources. If sets of resources are synchronized concurrently, each set is handled by its own copy.
+   * Only called if {@link #canCopy()} returns <code>true</code>.
+   *
+   * @return a new SitemapConverterProvider with the same configuration
+   */
+  default SitemapConverterProvider copy() {
+    throw new UnsupportedOperationException(getClass().getName() + " does not support concurrent " +
+      "synchronization of sets of resources.");
+  }
+
+  /**
+   * Should the provided converter leave out the items of resourcelists and changelists. If so, the converter
+   * should keep the sitemap where {@link PathFinder#findMetadataFilePath(URI)} points to, so that the items
+   * can be streamed from there later on. Providers that cannot honor this request may ignore it.
+   *
+   * @param streamingItems <code>true</code> if items of resourcelists and changelists should be left out
+   * @return this for enabling method chaining
+   */
+  default SitemapConverterProvider withStreamingItems(boolean streamingItems) {
+    return this;
+  }
+
+  /**
+   * Provide the headers for a conditional request on the given URI, based on what the provided converter
+   * stored on a previous request. If headers are returned, the provided converter should be able to handle a
+   * response with status code 304 (Not Modified) on the given URI. Providers that do not keep a local copy
+   * of sitemaps return an empty array.
+   *
+   * @param uri URI of a sitemap
+   * @return conditional headers for the given URI, may be empty
+   */
+  default Header[] getConditionalHeaders(URI uri) {
+    return new Header[0];
+  }
 }
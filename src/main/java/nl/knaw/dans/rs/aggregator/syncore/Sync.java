@@ -7,22 +7,32 @@ public interface Sync {
   String CL = "cl."; // properties set by SitemapCollector
   String PROP_CL_AS_OF_DATE_TIME = CL + "a1.as.of.date.time";
   String PROP_CL_CONVERTER = CL + "a2.converter";
+  String PROP_CL_EXPLORER_THREADS = CL + "a3.explorer.threads";
+  String PROP_CL_CHANGELISTS_ONLY = CL + "a4.changelists.only";
   String PROP_CL_COUNT_INVALID_URIS = CL + "cr.invalid.uris";
   String PROP_CL_COUNT_ERROR_RESULTS = CL + "cr.error.results";
   String PROP_CL_COUNT_UNHNDLED_RESULTS = CL + "cr.unhandled.results";
+  String PROP_CL_COUNT_NOT_MODIFIED = CL + "cr.not.modified.results";
   String PROP_CL_COUNT_CAPABILITY_LISTS = CL + "cl.capability.lists";
   String PROP_CL_COUNT_RESOURCELIST_INDEXES = CL + "cl.resource.list.indexes";
   String PROP_CL_COUNT_CHANGELIST_INDEXES = CL + "cl.change.list.indexes";
   String PROP_CL_COUNT_RESOURCELISTS = CL + "cl.resource.lists";
   String PROP_CL_COUNT_CHANGELISTS = CL + "cl.change.lists";
+  String PROP_CL_COUNT_RESOURCEDUMP_INDEXES = CL + "cl.resource.dump.indexes";
+  String PROP_CL_COUNT_CHANGEDUMP_INDEXES = CL + "cl.change.dump.indexes";
+  String PROP_CL_COUNT_RESOURCEDUMPS = CL + "cl.resource.dumps";
+  String PROP_CL_COUNT_CHANGEDUMPS = CL + "cl.change.dumps";
   String PROP_CL_DATE_LATEST_RESOURCELIST = CL + "date.latest.resource.list";
   String PROP_CL_DATE_LATEST_CHANGELIST = CL + "date.latest.change.list";
+  String PROP_CL_DATE_LATEST_FULL_SYNC = CL + "date.latest.full.sync";
   String PROP_CL_FOUND_NEW_RESOURCELIST = CL + "found.new.resourcelist";
   String PROP_CL_ITEMS_RECENT = CL + "items.recent";
   String PROP_CL_ITEMS_REMAINING = CL + "items.remaining";
   String PROP_CL_ITEMS_CREATED = CL + "items.created";
   String PROP_CL_ITEMS_UPDATED = CL + "items.updated";
   String PROP_CL_ITEMS_DELETED = CL + "items.deleted";
+  String PROP_CL_DUMP_PACKAGES = CL + "items.dump.packages";
+  String PROP_CL_TIME = CL + "time."; // + phase + ".wall.ms", ".thread.ms" or ".cpu.ms", see PhaseTimes
 
   String SW = "sw."; // properties set by SyncWorker
   String PROP_SW_SYNC_START = SW + "z1.sync.start";
@@ -31,6 +41,9 @@ public interface Sync {
   String PROP_SW_MAX_DOWNLOADS = SW + "a1.max.downloads";
   String PROP_SW_MAX_DOWNLOAD_RETRY = SW + "a2.max.download.retry";
   String PROP_SW_TRIAL_RUN = SW + "a3.trial.run";
+  String PROP_SW_WORKER_THREADS = SW + "a4.worker.threads";
+  String PROP_SW_MAX_CONCURRENT_PER_HOST = SW + "a5.max.concurrent.per.host";
+  String PROP_SW_USING_DUMPS = SW + "a6.using.dumps";
   String PROP_SW_SITEMAP_COLLECTOR = SW + "class.sitemap.collector";
   String PROP_SW_RESOURCE_MANAGER = SW + "class.resource.manager";
   String PROP_SW_VERIFICATION_POLICY = SW + "class.verification.policy";
@@ -47,4 +60,13 @@ public interface Sync {
   String PROP_SW_FAILED_UPDATES = SW + "failed.updates";
   String PROP_SW_FAILED_REMAINS = SW + "failed.remains";
   String PROP_SW_TOTAL_DOWNLOAD_COUNT = SW + "total.download.count";
+  String PROP_SW_ITEMS_RESUMED = SW + "items.resumed";
+  String PROP_SW_DUMP_PACKAGES_INGESTED = SW + "dump.packages.ingested";
+  String PROP_SW_DUMP_PACKAGES_FAILED = SW + "dump.packages.failed";
+  String PROP_SW_DUMP_ITEMS = SW + "dump.items";
+  String PROP_SW_TIME = SW + "time."; // + phase + ".wall.ms", ".thread.ms" or ".cpu.ms", see PhaseTimes
+  String PROP_SW_ITEM_LATENCY_P50 = SW + "item.latency.p50.us";
+  String PROP_SW_ITEM_LATENCY_P90 = SW + "item.latency.p90.us";
+  String PROP_SW_ITEM_LATENCY_P99 = SW + "item.latency.p99.us";
+  String PROP_SW_ITEM_LATENCY_MAX = SW + "item.latency.max.us";
 }
@@ -6,6 +6,8 @@ import nl.knaw.dans.rs.aggregator.util.RsProperties;
 
 /**
  * Implementations of SyncPostProcessor are called to post process after a synchronisation run.
+ * If sets of resources are synchronized concurrently, one SyncPostProcessor is called concurrently for
+ * different sets.
  */
 public interface SyncPostProcessor {
 
@@ -0,0 +1,99 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Writes inputStreams to files with a {@link FileChannel}.
+ * <p>
+ *   Each thread fills a direct buffer of <code>bufferSize</code> bytes from the inputStream before it is written,
+ *   so that large files are written with few system calls and without the temporary direct buffers the channel
+ *   would otherwise use for a heap buffer. If a read fails, the bytes that were read before are written
+ *   before the exception is thrown, so that a partial file is as complete as possible. With <code>fsync</code>
+ *   the content of a file is forced to the storage device before the file is closed.
+ * </p>
+ * <p>
+ *   FileChannelWriter is thread safe.
+ * </p>
+ */
+public class FileChannelWriter {
+
+  public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+  private static final int MIN_BUFFER_SIZE = 8 * 1024;
+  // inputStreams only read into byte arrays: the chunk that is copied into the direct buffer
+  private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+  private final int bufferSize;
+  private final boolean fsync;
+  private final ThreadLocal<ByteBuffer> buffers;
+  private final ThreadLocal<byte[]> chunks;
+
+  public FileChannelWriter() {
+    this(DEFAULT_BUFFER_SIZE, false);
+  }
+
+  public FileChannelWriter(int bufferSize, boolean fsync) {
+    this.bufferSize = Math.max(MIN_BUFFER_SIZE, bufferSize);
+    this.fsync = fsync;
+    buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(this.bufferSize));
+    chunks = ThreadLocal.withInitial(() -> new byte[Math.min(READ_CHUNK_SIZE, this.bufferSize)]);
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public boolean isFsync() {
+    return fsync;
+  }
+
+  /**
+   * Write the given inputStream to the given file. The inputStream is not closed.
+   *
+   * @param inputStream the inputStream to write
+   * @param file the file to write to
+   * @param append <code>true</code> to append to the file, <code>false</code> to replace its content
+   * @param digest digest that is updated with the bytes that are written, may be <code>null</code>
+   * @return the number of bytes written
+   * @throws IOException if the inputStream could not be read or the file could not be written
+   */
+  public long write(@Nonnull InputStream inputStream, @Nonnull File file, boolean append,
+                    @Nullable MessageDigest digest) throws IOException {
+    ByteBuffer buffer = buffers.get();
+    byte[] chunk = chunks.get();
+    long written = 0;
+    IOException failure = null;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+      boolean endOfStream = false;
+      while (!endOfStream && failure == null) {
+        buffer.clear();
+        try {
+          int bytesRead;
+          while (buffer.hasRemaining()
+            && (bytesRead = inputStream.read(chunk, 0, Math.min(chunk.length, buffer.remaining()))) != -1) {
+            if (digest != null) digest.update(chunk, 0, bytesRead);
+            buffer.put(chunk, 0, bytesRead);
+          }
+          endOfStream = buffer.hasRemaining();
+        } catch (IOException e) {
+          failure = e;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          written += channel.write(buffer);
+        }
+      }
+      if (fsync) channel.force(true);
+    }
+    if (failure != null) throw failure;
+    return written;
+  }
+}
@@ -9,11 +9,16 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Set;
 
 /**
  * A {@link FileVisitor} that will remove all files and directories, except the files in the given <code>fileSet</code>.
- *
+ * <p>
+ *   The visitor counts the entries that remain in each directory while it walks, so that directories are deleted
+ *   without listing them again. A FileCleaner walks one tree at a time.
+ * </p>
  */
 public class FileCleaner implements FileVisitor<Path> {
 
@@ -21,6 +26,8 @@ public class FileCleaner implements FileVisitor<Path> {
 
   private final Set<File> fileSet;
 
+  private final Deque<int[]> remainingCounts = new ArrayDeque<>();
+
   private int deletedFileCount;
   private int deletedDirectoryCount;
 
@@ -38,6 +45,7 @@ public class FileCleaner implements FileVisitor<Path> {
 
   @Override
   public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+    remainingCounts.push(new int[1]);
     return FileVisitResult.CONTINUE;
   }
 
@@ -45,13 +53,15 @@ public class FileCleaner implements FileVisitor<Path> {
   public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
     //System.out.println("visitFile: " + file + " -> " + attrs);
     File bFile = file.toAbsolutePath().toFile();
+    boolean deleted = false;
     if (!fileSet.contains(bFile)) {
-      boolean deleted = bFile.delete();
+      deleted = bFile.delete();
       if (deleted) {
         deletedFileCount++;
         logger.debug("Deleted file {}", file);
       }
     }
+    if (!deleted) remain();
     return FileVisitResult.CONTINUE;
   }
 
@@ -63,15 +73,20 @@ public class FileCleaner implements FileVisitor<Path> {
 
   @Override
   public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-    File directory = dir.toAbsolutePath().toFile();
-    File[] children = directory.listFiles();
-    if (children == null || children.length == 0) {
-      boolean deleted = directory.delete();
+    boolean deleted = false;
+    if (remainingCounts.pop()[0] == 0) {
+      deleted = dir.toAbsolutePath().toFile().delete();
       if (deleted) {
         deletedDirectoryCount++;
         logger.debug("Deleted directory {}", dir);
       }
     }
+    if (!deleted) remain();
     return FileVisitResult.CONTINUE;
   }
+
+  private void remain() {
+    int[] count = remainingCounts.peek();
+    if (count != null) count[0]++;
+  }
 }
@@ -1,37 +1,144 @@
 package nl.knaw.dans.rs.aggregator.util;
 
+import nl.knaw.dans.rs.aggregator.metrics.SyncMetrics;
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Compute the hash over inputStreams.
+ * Compute the hash over inputStreams and files.
+ * <p>
+ *   Files smaller than {@link #MAP_THRESHOLD} are read through a per-thread buffer, larger files are memory-mapped
+ *   in windows of at most {@link #MAP_WINDOW} bytes.
+ * </p>
  */
 public class HashUtil {
 
+  private static Logger logger = LoggerFactory.getLogger(HashUtil.class);
+
+  public static final long MAP_THRESHOLD = 4 * 1024 * 1024;
+  public static final long MAP_WINDOW = 64 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
   public static String computeHash(String algorithm, @Nonnull InputStream inputStream)
     throws NoSuchAlgorithmException, IOException {
 
-    StringBuilder sb;
     try {
       MessageDigest digest = MessageDigest.getInstance(algorithm);
-      byte[] byteArray = new byte[1024];
+      byte[] byteArray = BUFFERS.get();
       int bytesCount = 0;
       while ((bytesCount = inputStream.read(byteArray)) != -1) {
         digest.update(byteArray, 0, bytesCount);
       }
-      byte[] bytes = digest.digest();
-      sb = new StringBuilder();
-      for (byte aByte : bytes) {
-        sb.append(Integer.toString((aByte & 0xff) + 0x100, 16).substring(1));
-      }
+      return toHex(digest.digest());
     } finally {
       IOUtils.closeQuietly(inputStream);
     }
-    return sb.toString();
+  }
+
+  public static String computeHash(String algorithm, @Nonnull File file)
+    throws NoSuchAlgorithmException, IOException {
+
+    MessageDigest digest = MessageDigest.getInstance(algorithm);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < MAP_THRESHOLD) {
+        ByteBuffer buffer = ByteBuffer.wrap(BUFFERS.get());
+        while (channel.read(buffer) != -1) {
+          buffer.flip();
+          digest.update(buffer);
+          buffer.clear();
+        }
+      } else {
+        for (long position = 0; position < size; position += MAP_WINDOW) {
+          MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(MAP_WINDOW, size - position));
+          digest.update(mapped);
+        }
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Compute the hashes of the given files concurrently, on at most <code>threads</code> threads. The time spent
+   * on each file is recorded as a bulk hash verification, see {@link SyncMetrics}. The CPU time of the hashing
+   * threads is added to the split that runs on the calling thread, see {@link PhaseTimes#addHelperCpuTime(long)}.
+   *
+   * @param algorithms the hash algorithm for each file
+   * @param threads maximum number of threads
+   * @return the hash for each file, files that could not be hashed are absent
+   */
+  public static Map<File, String> computeHashes(@Nonnull Map<File, String> algorithms, int threads) {
+    Map<File, String> hashes = new ConcurrentHashMap<>();
+    if (algorithms.isEmpty()) return hashes;
+    LongAdder cpuTime = new LongAdder();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, algorithms.size())));
+    List<Future<?>> futures = new ArrayList<>(algorithms.size());
+    try {
+      for (Map.Entry<File, String> entry : algorithms.entrySet()) {
+        futures.add(executor.submit(() -> {
+          long start = System.nanoTime();
+          long cpuStart = PhaseTimes.currentThreadCpuTime();
+          try {
+            hashes.put(entry.getKey(), computeHash(entry.getValue(), entry.getKey()));
+            SyncMetrics.recordVerification(SyncMetrics.CHECK_HASH, SyncMetrics.PHASE_BULK,
+              System.nanoTime() - start);
+          } catch (NoSuchAlgorithmException e) {
+            // left out, computed again when needed
+            logger.warn("Unknown hash algorithm: '{}': {}", entry.getValue(), entry.getKey(), e);
+          } catch (IOException e) {
+            logger.warn("Exception while computing hash: {}", entry.getKey(), e);
+          } finally {
+            if (cpuStart >= 0) cpuTime.add(PhaseTimes.currentThreadCpuTime() - cpuStart);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Collections.emptyMap();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+      PhaseTimes.addHelperCpuTime(cpuTime.sum());
+    }
+    return hashes;
+  }
+
+  public static String toHex(@Nonnull byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+      chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+    }
+    return new String(chars);
   }
 }
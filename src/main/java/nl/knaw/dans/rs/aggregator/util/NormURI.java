@@ -4,26 +4,70 @@ import javax.annotation.Nonnull;
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 /**
  * Normalize URI's to a standard format.
+ * <p>
+ *   Plain hierarchical URI's like <code>http://www.Example.com:8080//a/b/?q#f</code> are normalized in a single
+ *   pass over the string. URI's with percent-escapes in the path, registry-based or IP authorities, opaque and
+ *   relative URI's are normalized with {@link URI#normalize()}, as before. Both give the same results.
+ *   The most recent results are kept in a small cache that is keyed by the string form of the URI.
+ * </p>
  */
 public class NormURI {
 
+  private static final int CACHE_SIZE = 1024;
+  private static final CacheEntry[] CACHE = new CacheEntry[CACHE_SIZE];
+
+  private static final String ALPHANUM = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+  private static final boolean[] SCHEME_CHARS = chars(ALPHANUM + "+-.");
+  private static final boolean[] PATH_CHARS = chars(ALPHANUM + "-_.!~*'()" + ":@&=+$," + ";/");
+  private static final boolean[] URIC_CHARS = chars(ALPHANUM + "-_.!~*'()" + ";/?:@&=+$,[]");
+
+  private static final class CacheEntry {
+    private final String uriString;
+    private final Optional<URI> normalized;
+
+    private CacheEntry(String uriString, Optional<URI> normalized) {
+      this.uriString = uriString;
+      this.normalized = normalized;
+    }
+  }
+
   public static Optional<URI> normalize(String uriString) {
     if (uriString == null) {
       return  Optional.empty();
     }
-    try {
-      URI uri = new URI(uriString);
-      return normalize(uri);
-    } catch (URISyntaxException e) {
-      return Optional.empty();
+    int slot = uriString.hashCode() & (CACHE_SIZE - 1);
+    CacheEntry entry = CACHE[slot];
+    if (entry != null && entry.uriString.equals(uriString)) {
+      return entry.normalized;
+    }
+    Optional<URI> normalized;
+    String fast = normalizeFast(uriString);
+    if (fast != null) {
+      normalized = Optional.of(URI.create(fast));
+    } else {
+      try {
+        URI uri = new URI(uriString);
+        normalized = normalizeURI(uri);
+      } catch (URISyntaxException e) {
+        normalized = Optional.empty();
+      }
     }
+    CACHE[slot] = new CacheEntry(uriString, normalized);
+    return normalized;
   }
 
   public static Optional<URI> normalize(@Nonnull URI uri) {
+    // the string form of a URI parses to an equal URI
+    return normalize(uri.toString());
+  }
+
+  private static Optional<URI> normalizeURI(@Nonnull URI uri) {
     URI n = uri.normalize();
     String host = stripWWW(n);
     host = host == null ? null : host.toLowerCase();
@@ -57,4 +101,170 @@ public class NormURI {
       return new File(path.replaceAll("[//]", "/"));
     }
   }
+
+  /**
+   * Normalize <code>scheme://host[:port][/path][?query][#fragment]</code> in one pass: strip 'www' and the
+   * character that follows it from the host, lower case the host, remove dot segments, collapse repeated slashes
+   * in the path and remove a trailing slash, drop query and fragment.
+   *
+   * @return the normalized URI as string, or <code>null</code> if the URI is not on the fast path
+   */
+  private static String normalizeFast(String s) {
+    int len = s.length();
+    // scheme
+    if (len == 0 || !isAlpha(s.charAt(0))) return null;
+    int i = 1;
+    while (i < len && is(SCHEME_CHARS, s.charAt(i))) i++;
+    if (!s.startsWith("://", i)) return null;
+    int schemeEnd = i;
+    // authority: server-based, no user info
+    int hostStart = i + 3;
+    int authorityEnd = hostStart;
+    while (authorityEnd < len && "/?#".indexOf(s.charAt(authorityEnd)) < 0) authorityEnd++;
+    int hostEnd = s.indexOf(':', hostStart);
+    if (hostEnd < 0 || hostEnd > authorityEnd) hostEnd = authorityEnd;
+    String host = s.substring(hostStart, hostEnd);
+    if (!isHostname(host)) return null;
+    int port = -1;
+    if (hostEnd < authorityEnd) {
+      int portLength = authorityEnd - hostEnd - 1;
+      if (portLength < 1 || portLength > 5 || s.charAt(hostEnd + 1) == '0') return null;
+      port = 0;
+      for (int p = hostEnd + 1; p < authorityEnd; p++) {
+        char c = s.charAt(p);
+        if (c < '0' || c > '9') return null;
+        port = port * 10 + (c - '0');
+      }
+    }
+    // path, without dot segments and escapes
+    int pathEnd = authorityEnd;
+    while (pathEnd < len && s.charAt(pathEnd) != '?' && s.charAt(pathEnd) != '#') {
+      if (!is(PATH_CHARS, s.charAt(pathEnd))) return null;
+      pathEnd++;
+    }
+    // query and fragment are dropped, but must be valid
+    if (!isUric(s, pathEnd, len)) return null;
+
+    if (host.startsWith("www") && host.length() > 3) {
+      host = host.substring(4);
+      if (!isHostname(host)) return null;
+    }
+    StringBuilder sb = new StringBuilder(len);
+    sb.append(s, 0, schemeEnd).append("://").append(host.toLowerCase());
+    if (port >= 0) sb.append(':').append(port);
+    if (hasDotSegment(s, authorityEnd, pathEnd)) {
+      appendWithoutDotSegments(sb, s, authorityEnd, pathEnd);
+      return sb.toString();
+    }
+    int pathStart = sb.length();
+    for (int p = authorityEnd; p < pathEnd; p++) {
+      char c = s.charAt(p);
+      if (c != '/' || sb.charAt(sb.length() - 1) != '/' || sb.length() == pathStart) sb.append(c);
+    }
+    if (sb.length() > pathStart + 1 && sb.charAt(sb.length() - 1) == '/') sb.setLength(sb.length() - 1);
+    return sb.toString();
+  }
+
+  /**
+   * A hostname as accepted by {@link URI}: labels of letters, digits and inner hyphens, separated by single
+   * dots, the last label starting with a letter. Trailing dots and IPv4 addresses are left to the slow path.
+   */
+  private static boolean isHostname(String host) {
+    int len = host.length();
+    if (len == 0) return false;
+    int labelStart = 0;
+    for (int i = 0; i <= len; i++) {
+      char c = i < len ? host.charAt(i) : '.';
+      if (c == '.') {
+        if (i == labelStart || host.charAt(i - 1) == '-') return false;
+        if (i == len && !isAlpha(host.charAt(labelStart))) return false;
+        labelStart = i + 1;
+      } else if (c == '-') {
+        if (i == labelStart) return false;
+      } else if (!isAlpha(c) && (c < '0' || c > '9')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Append the absolute path between <code>start</code> and <code>end</code> as {@link URI#normalize()} and
+   * {@link File} would leave it: without '.' segments, '..' segments removed together with the preceding segment
+   * if there is one, no repeated or trailing slashes.
+   */
+  private static void appendWithoutDotSegments(StringBuilder sb, String s, int start, int end) {
+    List<String> segments = new ArrayList<>();
+    int segmentStart = start + 1;
+    for (int i = segmentStart; i <= end; i++) {
+      if (i == end || s.charAt(i) == '/') {
+        if (i > segmentStart) {
+          String segment = s.substring(segmentStart, i);
+          int last = segments.size() - 1;
+          if (".".equals(segment)) {
+            // skip
+          } else if ("..".equals(segment) && last >= 0 && !"..".equals(segments.get(last))) {
+            segments.remove(last);
+          } else {
+            segments.add(segment);
+          }
+        }
+        segmentStart = i + 1;
+      }
+    }
+    if (segments.isEmpty()) {
+      sb.append('/');
+    }
+    for (String segment : segments) {
+      sb.append('/').append(segment);
+    }
+  }
+
+  private static boolean hasDotSegment(String s, int start, int end) {
+    int segmentStart = start;
+    for (int i = start; i <= end; i++) {
+      if (i == end || s.charAt(i) == '/') {
+        int length = i - segmentStart;
+        if ((length == 1 || length == 2) && s.charAt(segmentStart) == '.'
+          && (length == 1 || s.charAt(segmentStart + 1) == '.')) return true;
+        segmentStart = i + 1;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isUric(String s, int start, int end) {
+    if (start == end) return true;
+    boolean inFragment = s.charAt(start) == '#';
+    for (int i = start + 1; i < end; i++) {
+      char c = s.charAt(i);
+      if (c == '#' && !inFragment) {
+        inFragment = true;
+      } else if (c == '%') {
+        if (i + 2 >= end || !isHex(s.charAt(i + 1)) || !isHex(s.charAt(i + 2))) return false;
+        i += 2;
+      } else if (!is(URIC_CHARS, c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAlpha(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isHex(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+  }
+
+  private static boolean is(boolean[] table, char c) {
+    return c < table.length && table[c];
+  }
+
+  private static boolean[] chars(String chars) {
+    boolean[] table = new boolean[128];
+    for (char c : chars.toCharArray()) table[c] = true;
+    return table;
+  }
 }
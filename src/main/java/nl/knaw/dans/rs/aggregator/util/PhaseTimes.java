@@ -0,0 +1,168 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates wall clock time, thread time and CPU time per phase of a synchronisation run.
+ * <p>
+ *   A phase is timed with a {@link Split} that is started and stopped on the same thread. The wall time of a
+ *   phase is the elapsed time from the start of its first split to the stop of its last split. The thread time
+ *   is the sum of the splits, also when they run concurrently: the thread time of a phase that runs on several
+ *   threads is the sum of the time spent on each thread. CPU time is the CPU time of the timing threads, if the
+ *   JVM supports it, plus the CPU time that helper threads spent on behalf of a timing thread while its split
+ *   ran, see {@link #addHelperCpuTime(long)}.
+ * </p>
+ * <p>
+ *   {@link #report(RsProperties, String)} writes <code>prefix + phase + ".wall.ms"</code>,
+ *   <code>prefix + phase + ".thread.ms"</code> and <code>prefix + phase + ".cpu.ms"</code> for each phase
+ *   that was timed.
+ * </p>
+ */
+public class PhaseTimes {
+
+  public static final String EXPLORE = "explore";
+  public static final String PARSE = "parse";
+  public static final String MERGE = "merge";
+  public static final String DUMPS = "dumps";
+  public static final String KEEP_ONLY = "keeponly";
+  public static final String HASH = "hash";
+  public static final String VERIFY = "verify";
+  public static final String DOWNLOAD = "download";
+  public static final String POST_PROCESS = "postprocess";
+
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+  private static final boolean CPU_TIME_SUPPORTED = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+    && THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+
+  // the innermost split that runs on a thread
+  private static final ThreadLocal<Split> CURRENT = new ThreadLocal<>();
+
+  private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+
+  /**
+   * Start a split on the current thread.
+   *
+   * @return a started split
+   */
+  public static Split start() {
+    Split split = new Split(CURRENT.get());
+    CURRENT.set(split);
+    return split;
+  }
+
+  /**
+   * Add CPU time that a helper thread spent on behalf of the current thread to the innermost split that runs on
+   * the current thread, if any.
+   *
+   * @param nanos CPU time of a helper thread
+   */
+  public static void addHelperCpuTime(long nanos) {
+    Split split = CURRENT.get();
+    if (split != null) split.helperCpu.add(nanos);
+  }
+
+  /**
+   * CPU time of the current thread.
+   *
+   * @return CPU time in nanoseconds, -1 if not supported
+   */
+  public static long currentThreadCpuTime() {
+    return CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1;
+  }
+
+  /**
+   * Add the time since the start of the given split, on the current thread, to the given phase.
+   *
+   * @param phase name of the phase
+   * @param split a split started on the current thread
+   * @return the wall clock time of the split in nanoseconds
+   */
+  public long stop(String phase, Split split) {
+    long wallStop = System.nanoTime();
+    long wall = wallStop - split.wallStart;
+    long cpu = (split.cpuStart < 0 ? 0 : currentThreadCpuTime() - split.cpuStart) + split.helperCpu.sum();
+    if (CURRENT.get() == split) CURRENT.set(split.outer);
+    Phase times = phases.computeIfAbsent(phase, p -> new Phase());
+    times.firstStart.accumulateAndGet(split.wallStart, Math::min);
+    times.lastStop.accumulateAndGet(wallStop, Math::max);
+    times.thread.add(wall);
+    times.cpu.add(cpu);
+    return wall;
+  }
+
+  /**
+   * Elapsed time of the given phase, from the start of its first split to the stop of its last split.
+   *
+   * @param phase name of the phase
+   * @return wall clock time in nanoseconds
+   */
+  public long getWallNanos(String phase) {
+    Phase times = phases.get(phase);
+    return times == null ? 0 : Math.max(0, times.lastStop.get() - times.firstStart.get());
+  }
+
+  /**
+   * Sum of the splits of the given phase, on all threads.
+   *
+   * @param phase name of the phase
+   * @return thread time in nanoseconds
+   */
+  public long getThreadNanos(String phase) {
+    Phase times = phases.get(phase);
+    return times == null ? 0 : times.thread.sum();
+  }
+
+  public long getCpuNanos(String phase) {
+    Phase times = phases.get(phase);
+    return times == null ? 0 : times.cpu.sum();
+  }
+
+  public void clear() {
+    phases.clear();
+  }
+
+  /**
+   * Write the times of all phases that were timed to the given properties, in milliseconds.
+   *
+   * @param syncProps properties to write to
+   * @param prefix prefix of the keys
+   */
+  public void report(RsProperties syncProps, String prefix) {
+    for (String phase : phases.keySet()) {
+      syncProps.setLong(prefix + phase + ".wall.ms", TimeUnit.NANOSECONDS.toMillis(getWallNanos(phase)));
+      syncProps.setLong(prefix + phase + ".thread.ms", TimeUnit.NANOSECONDS.toMillis(getThreadNanos(phase)));
+      if (CPU_TIME_SUPPORTED) {
+        syncProps.setLong(prefix + phase + ".cpu.ms", TimeUnit.NANOSECONDS.toMillis(getCpuNanos(phase)));
+      }
+    }
+  }
+
+  private static final class Phase {
+
+    private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastStop = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder thread = new LongAdder();
+    private final LongAdder cpu = new LongAdder();
+  }
+
+  /**
+   * Start of a timed section on one thread.
+   */
+  public static final class Split {
+
+    private final long wallStart = System.nanoTime();
+    private final long cpuStart = currentThreadCpuTime();
+    private final LongAdder helperCpu = new LongAdder();
+    private final Split outer;
+
+    private Split(Split outer) {
+      this.outer = outer;
+    }
+  }
+}
@@ -44,6 +44,18 @@ public class RsProperties extends Properties {
     return Integer.parseInt(value);
   }
 
+  public Object setLong(String key, long value) {
+    return setProperty(key, Long.toString(value));
+  }
+
+  public long getLong(String key) {
+    String value = getProperty(key);
+    if (value == null) {
+      value = "0";
+    }
+    return Long.parseLong(value);
+  }
+
   public Object setBool(String key, boolean value) {
     return setProperty(key, Boolean.toString(value));
   }
@@ -2,6 +2,8 @@ package nl.knaw.dans.rs.aggregator.util;
 
 import javax.annotation.Nonnull;
 import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
@@ -12,6 +14,11 @@ import java.util.Date;
 
 /**
  * Utility class for conversion of {@link ZonedDateTime}s to and from other representations.
+ * <p>
+ *   {@link #fromXmlString(String)} parses the common W3C datetime forms without regular expressions or
+ *   formatters and keeps the most recent results in a small cache, so that list-level timestamps that repeat
+ *   on every item are parsed once. Values outside the fast path are parsed with the formatters, as before.
+ * </p>
  */
 public class ZonedDateTimeUtil {
 
@@ -27,9 +34,24 @@ public class ZonedDateTimeUtil {
   public static ZoneId setZoneId(ZoneId zoneId) {
     ZoneId oldZoneId = ZONE_ID;
     ZONE_ID = zoneId;
+    // cached local datetimes were converted with the old zone
+    CACHE = new CacheEntry[CACHE_SIZE];
     return oldZoneId;
   }
 
+  private static final int CACHE_SIZE = 256;
+  private static volatile CacheEntry[] CACHE = new CacheEntry[CACHE_SIZE];
+
+  private static final class CacheEntry {
+    private final String value;
+    private final ZonedDateTime zdt;
+
+    private CacheEntry(String value, ZonedDateTime zdt) {
+      this.value = value;
+      this.zdt = zdt;
+    }
+  }
+
   private static DateTimeFormatter localFormat = new DateTimeFormatterBuilder()
     .appendPattern("yyyy[-MM[-dd['T'HH[:mm[:ss]]]]]")
     .parseDefaulting(ChronoField.MONTH_OF_YEAR, 1)
@@ -52,6 +74,21 @@ public class ZonedDateTimeUtil {
     if (value == null) {
       return null;
     }
+    CacheEntry[] cache = CACHE;
+    int slot = value.hashCode() & (CACHE_SIZE - 1);
+    CacheEntry entry = cache[slot];
+    if (entry != null && entry.value.equals(value)) {
+      return entry.zdt;
+    }
+    ZonedDateTime zdt = parseFast(value);
+    if (zdt == null) {
+      zdt = parse(value);
+    }
+    cache[slot] = new CacheEntry(value, zdt);
+    return zdt;
+  }
+
+  private static ZonedDateTime parse(String value) {
     if (value.matches(".*([Z]|[+-][0-9]{1,2}:[0-9]{1,2})$")) {
       return ZonedDateTime.parse(value).withZoneSameInstant(ZoneOffset.UTC);
     } else {
@@ -61,6 +98,90 @@ public class ZonedDateTimeUtil {
     }
   }
 
+  /**
+   * Parse yyyy[-MM[-dd[THH[:mm[:ss[.f]]]]]] and yyyy-MM-ddTHH:mm[:ss[.f]](Z|+HH:mm|-HH:mm), with valid field
+   * values. Anything else, including values that the formatters would resolve or reject, is left to
+   * {@link #parse(String)}.
+   *
+   * @return the parsed value, or <code>null</code> if not on the fast path
+   */
+  private static ZonedDateTime parseFast(String value) {
+    int len = value.length();
+    int end = len;
+    int offsetSeconds = 0;
+    boolean zoned = false;
+    if (len > 0 && value.charAt(len - 1) == 'Z') {
+      zoned = true;
+      end = len - 1;
+    } else if (len > 6 && value.charAt(len - 3) == ':' && (value.charAt(len - 6) == '+' || value.charAt(len - 6) == '-')) {
+      int offHour = digits(value, len - 5, 2);
+      int offMinute = digits(value, len - 2, 2);
+      if (offHour < 0 || offMinute < 0 || offMinute > 59 || offHour * 60 + offMinute > 18 * 60) return null;
+      offsetSeconds = (offHour * 3600 + offMinute * 60) * (value.charAt(len - 6) == '-' ? -1 : 1);
+      zoned = true;
+      end = len - 6;
+    }
+
+    int year = digits(value, 0, 4);
+    if (year < 1) return null;
+    int month = 1;
+    int day = 1;
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+    int nano = 0;
+    int pos = 4;
+    if (pos < end) {
+      if (value.charAt(pos) != '-' || (month = digits(value, pos + 1, 2)) < 1 || month > 12) return null;
+      pos += 3;
+    }
+    if (pos < end) {
+      if (value.charAt(pos) != '-' || (day = digits(value, pos + 1, 2)) < 1) return null;
+      pos += 3;
+    }
+    if (pos < end) {
+      if (value.charAt(pos) != 'T' || (hour = digits(value, pos + 1, 2)) < 0 || hour > 23) return null;
+      pos += 3;
+    }
+    if (pos < end) {
+      if (value.charAt(pos) != ':' || (minute = digits(value, pos + 1, 2)) < 0 || minute > 59) return null;
+      pos += 3;
+    }
+    if (pos < end) {
+      if (value.charAt(pos) != ':' || (second = digits(value, pos + 1, 2)) < 0 || second > 59) return null;
+      pos += 3;
+    }
+    if (pos < end) {
+      int fractionLength = end - pos - 1;
+      if (value.charAt(pos) != '.' || fractionLength < 1 || fractionLength > 9
+        || (nano = digits(value, pos + 1, fractionLength)) < 0) return null;
+      for (int i = fractionLength; i < 9; i++) nano *= 10;
+      pos = end;
+    }
+    // a zoned value needs at least hours and minutes
+    if (pos != end || (zoned && pos < 16) || day > Month.of(month).length(Year.isLeap(year))) return null;
+
+    LocalDateTime local = LocalDateTime.of(year, month, day, hour, minute, second, nano);
+    if (zoned) {
+      return ZonedDateTime.ofInstant(local, ZoneOffset.ofTotalSeconds(offsetSeconds), ZoneOffset.UTC);
+    }
+    return ZonedDateTime.of(local, getZoneId()).withZoneSameInstant(ZoneOffset.UTC);
+  }
+
+  /**
+   * @return the value of <code>count</code> decimal digits at <code>start</code>, or -1 if these are not digits
+   */
+  private static int digits(String value, int start, int count) {
+    if (start + count > value.length()) return -1;
+    int result = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') return -1;
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
   public static String toXmlString(ZonedDateTime value) {
     if (value == null) {
       return null;
@@ -9,10 +9,17 @@ import javax.xml.bind.Unmarshaller;
 /**
  * JAXBContext for marshalling and unmarshalling of ResourceSync documents.
  * This class uses the {@link ObjectFactory} class.
+ * <p>
+ *   Marshallers and Unmarshallers are not thread safe and not free to create. {@link #getUnmarshaller()} and
+ *   {@link #getMarshaller()} hand out an instance per thread that is reused by later calls on the same thread.
+ *   Callers that change properties of such an instance should set them before each use.
+ * </p>
  */
 public class ResourceSyncContext {
 
   private final JAXBContext jaxbContext;
+  private final ThreadLocal<Unmarshaller> unmarshallers = new ThreadLocal<>();
+  private final ThreadLocal<Marshaller> marshallers = new ThreadLocal<>();
 
   public ResourceSyncContext() throws JAXBException {
     jaxbContext = JAXBContext.newInstance(ObjectFactory.class);
@@ -26,5 +33,34 @@ public class ResourceSyncContext {
     return jaxbContext.createUnmarshaller();
   }
 
+  /**
+   * Get the Marshaller of the current thread.
+   *
+   * @return Marshaller that is reused on the current thread
+   * @throws JAXBException if the Marshaller could not be created
+   */
+  public Marshaller getMarshaller() throws JAXBException {
+    Marshaller marshaller = marshallers.get();
+    if (marshaller == null) {
+      marshaller = createMarshaller();
+      marshallers.set(marshaller);
+    }
+    return marshaller;
+  }
+
+  /**
+   * Get the Unmarshaller of the current thread.
+   *
+   * @return Unmarshaller that is reused on the current thread
+   * @throws JAXBException if the Unmarshaller could not be created
+   */
+  public Unmarshaller getUnmarshaller() throws JAXBException {
+    Unmarshaller unmarshaller = unmarshallers.get();
+    if (unmarshaller == null) {
+      unmarshaller = createUnmarshaller();
+      unmarshallers.set(unmarshaller);
+    }
+    return unmarshaller;
+  }
 
 }
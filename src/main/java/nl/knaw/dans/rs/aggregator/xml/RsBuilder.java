@@ -22,6 +22,12 @@ import java.util.Optional;
 /**
  * Utility class for building {@link RsRoot} class hierarchies. The concrete RsRoot is either a
  * {@link Urlset} or a {@link Sitemapindex}.
+ * <p>
+ *   The <code>build</code> methods that take their input as argument and {@link #toXml(RsRoot, boolean)} are thread
+ *   safe, so that one RsBuilder can be shared. They use the Unmarshaller and Marshaller of the current thread,
+ *   see {@link ResourceSyncContext#getUnmarshaller()}. The <code>set</code>-methods, {@link #build()} and the
+ *   getters of the latest unmarshalled document keep state in this RsBuilder and are not thread safe.
+ * </p>
  */
 public class RsBuilder {
 
@@ -79,7 +85,7 @@ public class RsBuilder {
 
     JAXBElement<RsRoot> je = null;
     RsRoot rsRoot = null;
-    Unmarshaller unmarshaller = rsContext.createUnmarshaller();
+    Unmarshaller unmarshaller = rsContext.getUnmarshaller();
     if (file != null) {
       je = (JAXBElement<RsRoot>) unmarshaller.unmarshal(file);
       file = null;
@@ -121,6 +127,55 @@ public class RsBuilder {
     return Optional.ofNullable(rsRoot);
   }
 
+  /**
+   * Build a class hierarchy from the given file.
+   *
+   * @param file the file to unmarshal
+   * @return Optional of RsRoot
+   * @throws JAXBException for invalid input
+   */
+  public Optional<RsRoot> build(File file) throws JAXBException {
+    return toRsRoot(rsContext.getUnmarshaller().unmarshal(file));
+  }
+
+  /**
+   * Build a class hierarchy from the given inputStream.
+   *
+   * @param inputStream the inputStream to unmarshal
+   * @return Optional of RsRoot
+   * @throws JAXBException for invalid input
+   */
+  public Optional<RsRoot> build(InputStream inputStream) throws JAXBException {
+    return toRsRoot(rsContext.getUnmarshaller().unmarshal(inputStream));
+  }
+
+  /**
+   * Build a class hierarchy from the given reader.
+   *
+   * @param reader the reader to unmarshal
+   * @return Optional of RsRoot
+   * @throws JAXBException for invalid input
+   */
+  public Optional<RsRoot> build(Reader reader) throws JAXBException {
+    return toRsRoot(rsContext.getUnmarshaller().unmarshal(reader));
+  }
+
+  /**
+   * Build a class hierarchy from the document at the given url.
+   *
+   * @param url the location of the document to unmarshal
+   * @return Optional of RsRoot
+   * @throws JAXBException for invalid input
+   */
+  public Optional<RsRoot> build(URL url) throws JAXBException {
+    return toRsRoot(rsContext.getUnmarshaller().unmarshal(url));
+  }
+
+  @SuppressWarnings ("unchecked")
+  private static Optional<RsRoot> toRsRoot(Object unmarshalled) {
+    return Optional.ofNullable(unmarshalled).map(je -> ((JAXBElement<RsRoot>) je).getValue());
+  }
+
   /**
    * Get an optional of the QName of the latest unmarshalled document. Either <code>null</code>,
    * {@link Sitemapindex#QNAME} or {@link Urlset#QNAME}.
@@ -204,7 +259,7 @@ public class RsBuilder {
    * @throws JAXBException for invalid input
    */
   public String toXml(RsRoot rsRoot, boolean formattedOutput) throws JAXBException {
-    Marshaller marshaller = rsContext.createMarshaller();
+    Marshaller marshaller = rsContext.getMarshaller();
     marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formattedOutput);
     StringWriter writer = new StringWriter();
     marshaller.marshal(rsRoot, writer);
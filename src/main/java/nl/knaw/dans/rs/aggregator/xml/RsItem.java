@@ -105,13 +105,13 @@ public abstract class RsItem<T extends RsItem> {
     otZDT = otZDT == null ? ot.getRsMdFrom() : otZDT;
 
     if (myZDT == null || otZDT == null) return 0;
-    if (myZDT.equals(otZDT)) return 0;
+    if (myZDT.isEqual(otZDT)) return 0;
     return myZDT.isAfter(otZDT) ? 1 : -1;
   }
 
   public int isLastModAfter(RsItem ot) {
     if (lastmod == null || ot.lastmod == null) return 0;
-    if (lastmod.equals(ot.lastmod)) return 0;
+    if (lastmod.isEqual(ot.lastmod)) return 0;
     return lastmod.isAfter(ot.lastmod) ? 1 : -1;
   }
 
@@ -0,0 +1,189 @@
+package nl.knaw.dans.rs.aggregator.xml;
+
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Streaming reader for ResourceSync sitemap documents.
+ * <p>
+ *   Where {@link RsBuilder} unmarshals a complete document at once, RsStreamReader walks the document with a
+ *   {@link XMLStreamReader} and only unmarshals one &lt;url&gt; or &lt;sitemap&gt; element at a time. The
+ *   metadata and links of the root element are collected in an {@link RsRoot} without items. Items can be handed
+ *   to a {@link Consumer} as soon as they are read, so that a document with a large number of items never has
+ *   to be held in memory as a whole:
+ * </p>
+ * <pre>
+ *   RsStreamReader streamReader = new RsStreamReader(new ResourceSyncContext());
+ *   Optional&lt;RsRoot&gt; maybeRoot = streamReader.stream(file, item -&gt; handle(item));
+ * </pre>
+ * <p>
+ *   The metadata (&lt;rs:md&gt;) and links (&lt;rs:ln&gt;) of a sitemap precede its items, so the root is
+ *   complete by the time the first item is read. RsStreamReader is thread safe.
+ * </p>
+ */
+public class RsStreamReader {
+
+  private static final String NS_RS = "http://www.openarchives.org/rs/terms/";
+
+  private static final QName QN_MD = new QName(NS_RS, "md");
+  private static final QName QN_LN = new QName(NS_RS, "ln");
+  private static final QName QN_URL = new QName(Urlset.QNAME.getNamespaceURI(), "url");
+  private static final QName QN_SITEMAP = new QName(Sitemapindex.QNAME.getNamespaceURI(), "sitemap");
+
+  private final ResourceSyncContext rsContext;
+  private final XMLInputFactory inputFactory;
+
+  /**
+   * Constructor.
+   *
+   * @param rsContext ResourceSyncContext can be reused over multiple instances of RsStreamReader.
+   */
+  public RsStreamReader(ResourceSyncContext rsContext) {
+    this.rsContext = rsContext;
+    inputFactory = XMLInputFactory.newInstance();
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  /**
+   * Read the document in the given file and hand each item to the given <code>itemConsumer</code>. Items are not
+   * added to the returned root.
+   *
+   * @param file file containing a sitemap document
+   * @param itemConsumer consumer of items
+   * @return Optional of RsRoot without items
+   * @throws IOException if the file could not be read
+   * @throws XMLStreamException for invalid xml
+   * @throws JAXBException for invalid input
+   */
+  public Optional<RsRoot> stream(@Nonnull File file, @Nonnull Consumer<RsItem<?>> itemConsumer)
+    throws IOException, XMLStreamException, JAXBException {
+    try (InputStream inputStream = new FileInputStream(file)) {
+      return stream(inputStream, itemConsumer);
+    }
+  }
+
+  /**
+   * Read the document from the given inputStream and hand each item to the given <code>itemConsumer</code>.
+   * Items are not added to the returned root. The inputStream is not closed.
+   *
+   * @param inputStream inputStream of a sitemap document
+   * @param itemConsumer consumer of items
+   * @return Optional of RsRoot without items
+   * @throws XMLStreamException for invalid xml
+   * @throws JAXBException for invalid input
+   */
+  public Optional<RsRoot> stream(@Nonnull InputStream inputStream, @Nonnull Consumer<RsItem<?>> itemConsumer)
+    throws XMLStreamException, JAXBException {
+    return parse(inputStream, rsRoot -> false, itemConsumer);
+  }
+
+  /**
+   * Read the document from the given inputStream. The <code>includeItems</code> predicate is tested once on the
+   * root, after its metadata and links have been read. If it tests <code>true</code> all items are added to the
+   * root, otherwise the items are skipped without being unmarshalled. The inputStream is not closed.
+   *
+   * @param inputStream inputStream of a sitemap document
+   * @param includeItems decides on the items of the document
+   * @return Optional of RsRoot, with or without items
+   * @throws XMLStreamException for invalid xml
+   * @throws JAXBException for invalid input
+   */
+  public Optional<RsRoot> read(@Nonnull InputStream inputStream, @Nonnull Predicate<RsRoot> includeItems)
+    throws XMLStreamException, JAXBException {
+    return parse(inputStream, includeItems, null);
+  }
+
+  @SuppressWarnings ("unchecked")
+  private Optional<RsRoot> parse(InputStream inputStream, Predicate<RsRoot> includeItems,
+                                 @Nullable Consumer<RsItem<?>> itemConsumer) throws XMLStreamException, JAXBException {
+    XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+    try {
+      while (reader.hasNext() && !reader.isStartElement()) {
+        reader.next();
+      }
+      if (!reader.isStartElement()) {
+        return Optional.empty();
+      }
+
+      RsRoot rsRoot;
+      QName itemName;
+      Class<? extends RsItem> itemClass;
+      QName rootName = reader.getName();
+      if (rootName.equals(Urlset.QNAME)) {
+        rsRoot = new Urlset();
+        itemName = QN_URL;
+        itemClass = UrlItem.class;
+      } else if (rootName.equals(Sitemapindex.QNAME)) {
+        rsRoot = new Sitemapindex();
+        itemName = QN_SITEMAP;
+        itemClass = SitemapItem.class;
+      } else {
+        throw new JAXBException("Unexpected root element: " + rootName);
+      }
+
+      Unmarshaller unmarshaller = rsContext.getUnmarshaller();
+      Boolean addItems = null;
+      reader.next();
+      while (reader.hasNext()) {
+        if (reader.isStartElement()) {
+          QName name = reader.getName();
+          if (name.equals(QN_MD)) {
+            rsRoot.withMetadata(unmarshaller.unmarshal(reader, RsMd.class).getValue());
+            continue; // unmarshaller leaves the reader at the event following the element
+          } else if (name.equals(QN_LN)) {
+            rsRoot.addLink(unmarshaller.unmarshal(reader, RsLn.class).getValue());
+            continue;
+          } else if (name.equals(itemName)) {
+            if (addItems == null) {
+              addItems = itemConsumer == null && includeItems.test(rsRoot);
+            }
+            if (itemConsumer != null || addItems) {
+              RsItem<?> item = unmarshaller.unmarshal(reader, itemClass).getValue();
+              if (itemConsumer != null) {
+                itemConsumer.accept(item);
+              } else {
+                rsRoot.addItem(item);
+              }
+              continue;
+            }
+          }
+          skipElement(reader);
+        } else if (reader.isEndElement()) {
+          break; // end of root element
+        }
+        reader.next();
+      }
+      return Optional.of(rsRoot);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0 && reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamReader.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamReader.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+}
@@ -21,6 +21,10 @@
  *   Urlset urlSet = rsBuilder.getUrlset().orElseThrow(RuntimeException::new);
  *   String xml = rsBuilder.toXml(urlSet, true);
  * </pre>
+ * <p>
+ *   For large documents {@link nl.knaw.dans.rs.aggregator.xml.RsStreamReader} reads the root metadata and links,
+ *   and hands the items to a consumer one at a time, without holding the complete document in memory.
+ * </p>
  */
 
 @XmlSchema(
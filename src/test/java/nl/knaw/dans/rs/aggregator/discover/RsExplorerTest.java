@@ -1,10 +1,12 @@
 package nl.knaw.dans.rs.aggregator.discover;
 
 import nl.knaw.dans.rs.aggregator.http.AbstractRemoteTest;
+import nl.knaw.dans.rs.aggregator.http.HttpClientFactory;
 import nl.knaw.dans.rs.aggregator.http.RemoteException;
 import nl.knaw.dans.rs.aggregator.http.Result;
 import nl.knaw.dans.rs.aggregator.xml.RsMd;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.mockserver.matchers.Times;
@@ -179,6 +181,148 @@ public class RsExplorerTest extends AbstractRemoteTest {
     //result.listErrors().forEach(Throwable::printStackTrace);
   }
 
+  @Test
+  public void exploreChildrenConcurrently() throws Exception {
+    String indexPath = "/concurrent/resourcelist-index.xml";
+    int childCount = 12;
+    StringBuilder sb = new StringBuilder()
+      .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+      .append("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n")
+      .append("        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n")
+      .append("  <rs:md capability=\"resourcelist\" at=\"2013-01-03T09:00:00Z\"/>\n");
+    for (int i = 0; i < childCount; i++) {
+      String childPath = "/concurrent/resourcelist" + i + ".xml";
+      sb.append("  <sitemap><loc>").append(composePath(childPath)).append("</loc></sitemap>\n");
+      getMockServer()
+        .when(HttpRequest.request()
+            .withMethod("GET")
+            .withPath(childPath),
+          Times.exactly(1))
+
+        .respond(HttpResponse.response()
+          .withStatusCode(200)
+          .withBody(createValidResourceList(indexPath))
+        );
+    }
+    // duplicate link should be explored only once
+    sb.append("  <sitemap><loc>").append(composePath("/concurrent/resourcelist0.xml")).append("</loc></sitemap>\n")
+      .append("</sitemapindex>");
+
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(indexPath),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withBody(sb.toString())
+      );
+
+    URI uri = composeUri(indexPath);
+    RsExplorer explorer = new RsExplorer(getHttpclient(), getRsContext()).withMaxConcurrentRequests(4);
+    ResultIndex index = new ResultIndex();
+    Result<RsRoot> result = explorer.explore(uri, index);
+
+    assertThat(result.getErrors().isEmpty(), is(true));
+    assertThat(index.getResultMap().size(), is(childCount + 1));
+    assertThat(result.getChildren().size(), is(childCount));
+    for (int i = 0; i < childCount; i++) {
+      URI childUri = composeUri("/concurrent/resourcelist" + i + ".xml");
+      Result<?> childResult = result.getChildren().get(childUri);
+      assertThat(childResult.getErrors().isEmpty(), is(true));
+      assertThat(childResult.getStatusCode(), equalTo(200));
+      assertThat(childResult.getParents().get(uri), equalTo(result));
+      assertThat(index.getResultMap().get(childUri), equalTo(childResult));
+    }
+  }
+
+  @Test
+  public void exploreSharedChildrenConcurrentlyAsSequentially() throws Exception {
+    String capaPath = "/shared/capabilitylist.xml";
+    String[][] indexChildren = {{"0", "1", "2"}, {"2", "3", "1"}, {"3", "4"}};
+    StringBuilder capabilityList = new StringBuilder()
+      .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+      .append("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n")
+      .append("        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n")
+      .append("  <rs:md capability=\"capabilitylist\"/>\n");
+    for (int i = 0; i < indexChildren.length; i++) {
+      String indexPath = "/shared/resourcelist-index" + i + ".xml";
+      capabilityList.append("  <url><loc>").append(composePath(indexPath)).append("</loc>")
+        .append("<rs:md capability=\"resourcelist\"/></url>\n");
+      StringBuilder sb = new StringBuilder()
+        .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n")
+        .append("        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n")
+        .append("  <rs:md capability=\"resourcelist\" at=\"2013-01-03T09:00:00Z\"/>\n");
+      for (String child : indexChildren[i]) {
+        sb.append("  <sitemap><loc>").append(composePath("/shared/resourcelist" + child + ".xml"))
+          .append("</loc></sitemap>\n");
+      }
+      sb.append("</sitemapindex>");
+      respond(indexPath, sb.toString());
+    }
+    capabilityList.append("</urlset>");
+    respond(capaPath, capabilityList.toString());
+    for (int i = 0; i < 5; i++) {
+      respond("/shared/resourcelist" + i + ".xml", createValidResourceList("/shared/resourcelist-index0.xml"));
+    }
+
+    URI uri = composeUri(capaPath);
+    ResultIndex sequential = new ResultIndex();
+    new RsExplorer(getHttpclient(), getRsContext()).explore(uri, sequential);
+    ResultIndex concurrent = new ResultIndex();
+    new RsExplorer(getHttpclient(), getRsContext()).withMaxConcurrentRequests(4).explore(uri, concurrent);
+    ResultIndex async = new ResultIndex();
+    try (CloseableHttpAsyncClient httpAsyncClient = new HttpClientFactory().createHttpAsyncClient()) {
+      new RsExplorer(getHttpclient(), getRsContext()).withHttpAsyncClient(httpAsyncClient).explore(uri, async);
+    }
+
+    assertThat(sequential.getResultMap().size(), is(9));
+    assertSameTree(concurrent, sequential);
+    assertSameTree(async, sequential);
+  }
+
+  private void assertSameTree(ResultIndex actualIndex, ResultIndex expectedIndex) {
+    assertThat(actualIndex.getResultMap().keySet(), equalTo(expectedIndex.getResultMap().keySet()));
+    for (URI key : expectedIndex.getResultMap().keySet()) {
+      Result<?> expected = expectedIndex.getResultMap().get(key);
+      Result<?> actual = actualIndex.getResultMap().get(key);
+      assertThat(key.toString(), actual.getParents().keySet(), equalTo(expected.getParents().keySet()));
+      assertThat(key.toString(), actual.getChildren().keySet(), equalTo(expected.getChildren().keySet()));
+      assertThat(key.toString(), actual.getErrors().size(), equalTo(expected.getErrors().size()));
+      assertThat(key.toString(), actual.getContent().isPresent(), is(expected.getContent().isPresent()));
+    }
+  }
+
+  private void respond(String path, String body) {
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(path),
+        Times.exactly(3))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withBody(body)
+      );
+  }
+
+  private String createValidResourceList(String relIndexPath) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:md capability=\"resourcelist\"\n" +
+      "         at=\"2013-01-03T09:00:00Z\"/>\n" +
+      "  <rs:ln rel=\"index\"" +
+      "         href=\"" + composePath(relIndexPath) + "\"/>" +
+      "  <url>\n" +
+      "      <loc>http://example.com/res1</loc>\n" +
+      "      <lastmod>2013-01-03T09:00:00Z</lastmod>\n" +
+      "  </url>\n" +
+      "</urlset>";
+  }
+
   private String createValidDescription() {
     return
       "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
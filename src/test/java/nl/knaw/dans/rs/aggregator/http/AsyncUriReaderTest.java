@@ -0,0 +1,87 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.ContentTooLongException;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class AsyncUriReaderTest extends AbstractRemoteTest {
+
+  @Test
+  public void executeManyInFlight() throws Exception {
+    int count = 200;
+    for (int i = 0; i < count; i++) {
+      serve("/async/res" + i + ".txt", 200, "resource " + i);
+    }
+    HttpClientFactory factory = new HttpClientFactory();
+    factory.setIoThreads(1);
+    try (CloseableHttpAsyncClient httpAsyncClient = factory.createHttpAsyncClient()) {
+      AsyncUriReader reader = new AsyncUriReader(httpAsyncClient);
+      List<CompletableFuture<Result<String>>> futures = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        futures.add(reader.executeAsync(composeUri("/async/res" + i + ".txt"), (uri, response) ->
+          IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8)));
+      }
+      for (int i = 0; i < count; i++) {
+        Result<String> result = futures.get(i).join();
+        assertThat(result.hasErrors(), is(false));
+        assertThat(result.getContent().orElse(null), equalTo("resource " + i));
+      }
+    }
+  }
+
+  @Test
+  public void executeWithErrors() throws Exception {
+    serve("/async/missing.txt", 404, "not here");
+    serve("/async/large.txt", 200, "more than ten bytes");
+    serve("/async/unchanged.txt", 304, "");
+    try (CloseableHttpAsyncClient httpAsyncClient = new HttpClientFactory().createHttpAsyncClient()) {
+      AsyncUriReader reader = new AsyncUriReader(httpAsyncClient);
+      reader.setMaxBodySize(10);
+
+      Result<String> result = reader.execute(composeUri("/async/missing.txt"), (uri, response) -> "content");
+      assertThat(result.getStatusCode(), is(HttpStatus.SC_NOT_FOUND));
+      assertThat(result.getErrors().get(0), instanceOf(RemoteException.class));
+
+      result = reader.execute(composeUri("/async/large.txt"), (uri, response) -> "content");
+      assertThat(result.getErrors().get(0), instanceOf(ContentTooLongException.class));
+
+      // a 304 on a conditional request is handed to the function
+      reader.setConditionalHeaders(uri -> new Header[] {new BasicHeader("If-None-Match", "\"abc\"")});
+      result = reader.execute(composeUri("/async/unchanged.txt"), (uri, response) -> "local copy");
+      assertThat(result.hasErrors(), is(false));
+      assertThat(result.getContent().orElse(null), equalTo("local copy"));
+    }
+    AsyncUriReader closedReader = new AsyncUriReader(new HttpClientFactory().createHttpAsyncClient());
+    closedReader.getHttpAsyncClient().close();
+    Result<String> result = closedReader.execute(composeUri("/async/missing.txt"), (uri, response) -> "");
+    assertThat(result.hasErrors(), is(true));
+  }
+
+  private void serve(String path, int statusCode, String body) {
+    getMockServer()
+      .when(HttpRequest.request()
+        .withMethod("GET")
+        .withPath(path))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(statusCode)
+        .withBody(body)
+      );
+  }
+}
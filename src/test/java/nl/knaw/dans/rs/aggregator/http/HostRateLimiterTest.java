@@ -0,0 +1,118 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.client.utils.DateUtils;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class HostRateLimiterTest {
+
+  @Test
+  public void parseRetryAfter() {
+    long now = System.currentTimeMillis();
+    assertThat(HostRateLimiter.parseRetryAfter("2", now), is(2000L));
+    assertThat(HostRateLimiter.parseRetryAfter(" 0 ", now), is(0L));
+    assertThat(HostRateLimiter.parseRetryAfter(null, now), is(-1L));
+    assertThat(HostRateLimiter.parseRetryAfter("soon", now), is(-1L));
+    String date = DateUtils.formatDate(new Date(now + 60000));
+    assertThat(HostRateLimiter.parseRetryAfter(date, now), allOf(greaterThan(58000L), lessThanOrEqualTo(60000L)));
+    assertThat(HostRateLimiter.parseRetryAfter(DateUtils.formatDate(new Date(now - 60000)), now), is(0L));
+  }
+
+  @Test
+  public void adaptConcurrency() throws Exception {
+    HostRateLimiter limiter = new HostRateLimiter();
+    limiter.setLatencyTolerance(Double.MAX_VALUE);
+    HostLimits limits = new HostLimits();
+    limits.setInitialConcurrency(2);
+    limits.setMaxConcurrency(4);
+    limiter.setDefaultLimits(limits);
+    assertThat(limiter.getConcurrencyLimit("example.com"), is(2));
+
+    // additive increase, up to maxConcurrency
+    for (int i = 0; i < 20; i++) {
+      HostRateLimiter.Permit permit = limiter.acquire("example.com");
+      permit.onResponse(200, null);
+      permit.release();
+    }
+    assertThat(limiter.getConcurrencyLimit("example.com"), is(4));
+    assertThat(limiter.getConcurrencyLimit("other.example.com"), is(2));
+
+    // multiplicative decrease, down to 1
+    HostRateLimiter.Permit permit = limiter.acquire("example.com");
+    permit.onFailure();
+    permit.release();
+    assertThat(limiter.getConcurrencyLimit("example.com"), is(2));
+    for (int i = 0; i < 3; i++) {
+      permit = limiter.acquire("example.com");
+      permit.onResponse(503, "0");
+      permit.release();
+      Thread.sleep(1);
+    }
+    assertThat(limiter.getConcurrencyLimit("example.com"), is(1));
+  }
+
+  @Test
+  public void waitForConcurrencySlot() throws Exception {
+    HostRateLimiter limiter = new HostRateLimiter();
+    HostRateLimiter.Permit first = limiter.acquire("example.com");
+    HostRateLimiter.Permit second = limiter.acquire("example.com");
+
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread(() -> {
+      try {
+        limiter.acquire("example.com").release();
+        acquired.countDown();
+      } catch (InterruptedException e) {
+        // test fails
+      }
+    });
+    thread.start();
+    assertThat(acquired.await(200, TimeUnit.MILLISECONDS), is(false));
+    first.release();
+    first.release(); // only the first release counts
+    assertThat(acquired.await(5, TimeUnit.SECONDS), is(true));
+    second.release();
+    thread.join();
+  }
+
+  @Test
+  public void limitRequestRate() throws Exception {
+    HostRateLimiter limiter = new HostRateLimiter();
+    HostLimits limits = new HostLimits();
+    limits.setRequestsPerSecond(20);
+    limiter.getHostLimits().put("example.com", limits);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 6; i++) {
+      limiter.acquire("example.com").release();
+    }
+    // the first request takes the token of the bucket, the next five wait 50 ms each
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(240L));
+  }
+
+  @Test
+  public void pauseAfterRetryAfter() throws Exception {
+    HostRateLimiter limiter = new HostRateLimiter();
+    HostRateLimiter.Permit permit = limiter.acquire("example.com");
+    permit.onResponse(429, "1");
+    permit.release();
+    assertThat(limiter.shouldRetry(429, "1", 0), is(true));
+    assertThat(limiter.shouldRetry(429, "1", 3), is(false));
+    assertThat(limiter.shouldRetry(429, "3600", 0), is(false));
+    assertThat(limiter.shouldRetry(404, null, 0), is(false));
+
+    long start = System.nanoTime();
+    limiter.acquire("example.com").release();
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(950L));
+  }
+}
@@ -0,0 +1,99 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+public class HttpClientFactoryTest extends AbstractRemoteTest {
+
+  @Test
+  public void sharedClientServesConcurrentReaders() throws Exception {
+    int requests = 12;
+    for (int i = 0; i < requests; i++) {
+      getMockServer()
+        .when(HttpRequest.request()
+            .withMethod("GET")
+            .withPath("/pooled/res" + i + ".txt"),
+          Times.exactly(1))
+
+        .respond(HttpResponse.response()
+          .withStatusCode(200)
+          .withBody("resource " + i)
+        );
+    }
+
+    HttpClientFactory factory = new HttpClientFactory();
+    factory.setMaxTotal(4);
+    factory.setMaxPerRoute(2);
+    factory.setConnectionRequestTimeout(10000);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (CloseableHttpClient httpClient = factory.createHttpClient()) {
+      List<Future<Result<File>>> futures = new ArrayList<>();
+      for (int i = 0; i < requests; i++) {
+        URI uri = composeUri("/pooled/res" + i + ".txt");
+        File file = new File("target/test-output/pooled/res" + i + ".txt");
+        futures.add(executor.submit(() -> new ResourceReader(httpClient).read(uri, file)));
+      }
+      for (Future<Result<File>> future : futures) {
+        Result<File> result = future.get();
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(result.getStatusCode(), is(200));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void rateLimitedClientRetriesAfterPause() throws Exception {
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath("/throttled/res.txt"),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(429)
+        .withHeader("Retry-After", "1")
+      );
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath("/throttled/res.txt"))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withBody("resource")
+      );
+
+    HostRateLimiter limiter = new HostRateLimiter();
+    HttpClientFactory factory = new HttpClientFactory();
+    factory.setHostRateLimiter(limiter);
+    try (CloseableHttpClient httpClient = factory.createHttpClient()) {
+      long start = System.nanoTime();
+      Result<File> result = new ResourceReader(httpClient)
+        .read(composeUri("/throttled/res.txt"), new File("target/test-output/throttled/res.txt"));
+      assertThat(result.getErrors().isEmpty(), is(true));
+      assertThat(result.getStatusCode(), is(200));
+      assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(950L));
+
+      // the permit of the response was released on close
+      limiter.acquire("localhost").release();
+    }
+  }
+}
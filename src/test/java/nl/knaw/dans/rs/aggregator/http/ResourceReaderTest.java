@@ -4,13 +4,18 @@ import nl.knaw.dans.rs.aggregator.http.RemoteException;
 import nl.knaw.dans.rs.aggregator.http.AbstractRemoteTest;
 import nl.knaw.dans.rs.aggregator.http.ResourceReader;
 import nl.knaw.dans.rs.aggregator.http.Result;
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.mockserver.matchers.Times;
+import org.mockserver.model.ConnectionOptions;
 import org.mockserver.model.HttpRequest;
 import org.mockserver.model.HttpResponse;
 
 import java.io.File;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
@@ -53,6 +58,126 @@ public class ResourceReaderTest extends AbstractRemoteTest {
     assertThat(file, equalTo(file2));
   }
 
+  @Test
+  public void testResumeBrokenDownload() throws Exception {
+    String path = "/rsserv/large.txt";
+    URI uri = composeUri(path);
+
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(path)
+          .withHeader("Range", "bytes=5-")
+          .withHeader("If-Range", "\"v1\""),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(206)
+        .withHeader("ETag", "\"v1\"")
+        .withHeader("Content-Range", "bytes 5-9/10")
+        .withBody("56789")
+      );
+
+    // first response is cut off after 5 of 10 bytes
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(path),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withHeader("ETag", "\"v1\"")
+        .withBody("01234")
+        .withConnectionOptions(ConnectionOptions.connectionOptions()
+          .withContentLengthHeaderOverride(10)
+          .withCloseSocket(true))
+      );
+
+    ResourceReader rsReader = new ResourceReader(getHttpclient());
+    File file = new File("target/test-output/rsreader/large.txt");
+    file.delete();
+    Result<File> result = rsReader.read(uri, file);
+
+    assertThat(result.getContent().isPresent(), is(false));
+    assertThat(file.exists(), is(false));
+    assertThat(rsReader.canResume(file), is(true));
+
+    // a reader of a later run resumes with the validator that was kept next to the partial file
+    rsReader = new ResourceReader(getHttpclient());
+    assertThat(rsReader.canResume(file), is(true));
+    MessageDigest digest = MessageDigest.getInstance("md5");
+    result = rsReader.read(uri, file, digest);
+    assertThat(result.getStatusCode(), is(206));
+    assertThat(result.getContent().isPresent(), is(true));
+    assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("0123456789"));
+    // the digest covers the bytes of the first and the second response
+    assertThat(HashUtil.toHex(digest.digest()), equalTo("781e5e245d69b566979b86e28d23f2c7"));
+    assertThat(rsReader.canResume(file), is(false));
+    assertThat(new File(file.getParentFile(), file.getName() + ResourceReader.PART_EXTENSION
+      + ResourceReader.VALIDATOR_EXTENSION).exists(), is(false));
+  }
+
+  @Test
+  public void testRangeNotSatisfiable() throws Exception {
+    String path = "/rsserv/complete.txt";
+    URI uri = composeUri(path);
+
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(path)
+          .withHeader("Range", "bytes=5-"),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(416)
+        .withHeader("Content-Range", "bytes */5")
+      );
+
+    // first response is cut off after 5 of 10 bytes
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(path),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withHeader("ETag", "\"v1\"")
+        .withBody("01234")
+        .withConnectionOptions(ConnectionOptions.connectionOptions()
+          .withContentLengthHeaderOverride(10)
+          .withCloseSocket(true))
+      );
+
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(path),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withHeader("ETag", "\"v2\"")
+        .withBody("01234")
+      );
+
+    ResourceReader rsReader = new ResourceReader(getHttpclient());
+    File file = new File("target/test-output/rsreader/complete.txt");
+    file.delete();
+    rsReader.read(uri, file);
+    assertThat(rsReader.canResume(file), is(true));
+
+    // 416 on the range request: the resource is read again from the start
+    Result<File> result = rsReader.read(uri, file);
+    assertThat(result.getStatusCode(), is(200));
+    assertThat(result.getContent().isPresent(), is(true));
+    assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("01234"));
+    assertThat(rsReader.canResume(file), is(false));
+    assertThat(new File(file.getParentFile(), file.getName() + ResourceReader.PART_EXTENSION).exists(), is(false));
+  }
+
   @Test
   public void testReadAnd404() throws Exception {
     String path = "/rsserv/nice.txt";
@@ -0,0 +1,72 @@
+package nl.knaw.dans.rs.aggregator.metrics;
+
+import nl.knaw.dans.rs.aggregator.http.AbstractRemoteTest;
+import nl.knaw.dans.rs.aggregator.http.ResourceReader;
+import nl.knaw.dans.rs.aggregator.http.Result;
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+public class MetricsExporterTest extends AbstractRemoteTest {
+
+  @Test
+  public void exportDownloadMetrics() throws Exception {
+    getMockServer()
+      .when(HttpRequest.request()
+        .withMethod("GET")
+        .withPath("/metrics/res1.txt"))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withBody("0123456789")
+      );
+
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    MetricsExporter exporter = new MetricsExporter();
+    exporter.setJmxDomain("rs-aggregator-test");
+    exporter.setPrometheusPort(port);
+    exporter.start();
+    try {
+      Result<File> result = new ResourceReader(getHttpclient())
+        .read(composeUri("/metrics/res1.txt"), new File("target/test-output/metrics/res1.txt"));
+      assertThat(result.hasErrors(), is(false));
+      SyncMetrics.recordVerification(SyncMetrics.CHECK_HASH, 1000000);
+      HashUtil.computeHashes(Collections.singletonMap(result.getContent().get(), "md5"), 1);
+
+      String page = IOUtils.toString(new URL("http://localhost:" + port + "/metrics"), StandardCharsets.UTF_8);
+      assertThat(page, containsString("rs_download_bytes_total{host=\"localhost\",} 10.0"));
+      assertThat(page, containsString("rs_downloads_total{host=\"localhost\",outcome=\"success\",} 1.0"));
+      assertThat(page, containsString("rs_http_requests_seconds_bucket{host=\"localhost\",status=\"200\""));
+      assertThat(page, containsString("rs_verification_seconds_count{check=\"hash\",phase=\"item\",} 1.0"));
+      assertThat(page, containsString("rs_verification_seconds_count{check=\"hash\",phase=\"bulk\",} 1.0"));
+      assertThat(page, containsString("rs_items_pending "));
+      assertThat(page, containsString("rs_explorer_queue "));
+
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      assertThat(mBeanServer.queryNames(new ObjectName("rs-aggregator-test:name=rsDownloads*,*"), null).isEmpty(),
+        is(false));
+    } finally {
+      exporter.stop();
+    }
+    MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    assertThat(mBeanServer.queryNames(new ObjectName("rs-aggregator-test:*"), null).isEmpty(), is(true));
+  }
+}
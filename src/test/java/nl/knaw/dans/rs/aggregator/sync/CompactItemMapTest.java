@@ -0,0 +1,154 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.util.NormURI;
+import nl.knaw.dans.rs.aggregator.xml.RsLn;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.junit.Test;
+
+import java.net.URI;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class CompactItemMapTest {
+
+  @Test
+  public void putAndGet() throws Exception {
+    CompactItemMap map = new CompactItemMap();
+    UrlItem item = new UrlItem("http://www.example.com/path/to/r%C3%A9s%201.txt")
+      .withLastmod(ZonedDateTime.parse("2017-04-30T10:00:00.123+02:00"))
+      .addLink(new RsLn("duplicate", "http://also.com/res1.txt"))
+      .withMetadata(new RsMd()
+        .withDateTime(ZonedDateTime.parse("2017-05-01T10:00Z"))
+        .withChange("updated")
+        .withHash("md5:1584abdf8ebdc9802ac0c6a7402c03b6")
+        .withLength(8876L)
+        .withType("text/plain"));
+    URI uri = NormURI.normalize(item.getLoc()).get();
+
+    assertThat(map.put(uri, item), nullValue());
+    assertThat(map.size(), is(1));
+    assertThat(map.containsKey(uri), is(true));
+    assertThat(map.containsKey(URI.create("http://example.com/path/to/other.txt")), is(false));
+
+    UrlItem compact = map.get(uri);
+    assertThat(compact.getNormalizedUri().get(), equalTo(uri));
+    assertThat(compact.getLastmod().get().isEqual(item.getLastmod().get()), is(true));
+    RsMd md = compact.getMetadata().get();
+    assertThat(md.getDateTime().get().isEqual(ZonedDateTime.parse("2017-05-01T10:00Z")), is(true));
+    assertThat(md.getAt().isPresent(), is(false));
+    assertThat(md.getChange().get(), equalTo("updated"));
+    assertThat(md.getHash().get(), equalTo("md5:1584abdf8ebdc9802ac0c6a7402c03b6"));
+    assertThat(md.getLength().get(), is(8876L));
+    assertThat(md.getType().get(), equalTo("text/plain"));
+    assertThat(compact.getLinkList().isEmpty(), is(true));
+    assertThat(SyncJournal.fingerprint(compact), equalTo(SyncJournal.fingerprint(item)));
+  }
+
+  @Test
+  public void keepValuesThatDoNotFitInColumns() throws Exception {
+    CompactItemMap map = new CompactItemMap();
+    String[] hashes = {"1584abdf8ebdc9802ac0c6a7402c03b6", "MD5:1584ABDF8EBDC9802AC0C6A7402C03B6",
+      "md5:1584abdf8ebdc9802ac0c6a7402c03b6 sha-256:854f61290e2e197a11bc91063afce22e43f8ccc655237050ace766adc68dc784",
+      "sha:xyz", "md5:"};
+    for (int i = 0; i < hashes.length; i++) {
+      map.put(URI.create("http://example.com/res" + i), new UrlItem("http://example.com/res" + i)
+        .withMetadata(new RsMd().withHash(hashes[i]).withChange("moved")));
+    }
+    for (int i = 0; i < hashes.length; i++) {
+      RsMd md = map.get(URI.create("http://example.com/res" + i)).getMetadata().get();
+      assertThat(md.getHash().get(), equalTo(hashes[i]));
+      assertThat(md.getChange().get(), equalTo("moved"));
+    }
+  }
+
+  @Test
+  public void mergeKeepsLatest() throws Exception {
+    Map<URI, UrlItem> hashMap = new HashMap<>();
+    CompactItemMap map = new CompactItemMap();
+    URI uri = URI.create("http://example.com/res1.txt");
+    UrlItem[] items = {
+      new UrlItem(uri.toString()).withMetadata(new RsMd().withAt(ZonedDateTime.parse("2017-05-01T10:00Z"))),
+      new UrlItem(uri.toString()).withMetadata(new RsMd().withChange("updated")
+        .withDateTime(ZonedDateTime.parse("2017-05-02T10:00Z"))),
+      new UrlItem(uri.toString()).withMetadata(new RsMd().withChange("created")
+        .withDateTime(ZonedDateTime.parse("2017-05-01T12:00+01:00")))
+    };
+    for (UrlItem item : items) {
+      hashMap.merge(uri, item, UrlItem::latest);
+      map.merge(uri, item, UrlItem::latest);
+    }
+    assertThat(map.size(), is(1));
+    assertThat(map.get(uri).getMetadata().flatMap(RsMd::getChange).get(), equalTo("updated"));
+    assertThat(SyncJournal.fingerprint(map.get(uri)), equalTo(SyncJournal.fingerprint(hashMap.get(uri))));
+    assertThat(map.get(uri).getRsMdDateTime().isEqual(hashMap.get(uri).getRsMdDateTime()), is(true));
+  }
+
+  @Test
+  public void manyItems() throws Exception {
+    CompactItemMap map = new CompactItemMap();
+    int count = 50000;
+    for (int i = 0; i < count; i++) {
+      URI uri = URI.create("http://example.com/dir" + (i % 100) + "/res" + i + ".txt");
+      map.put(uri, new UrlItem(uri.toString()).withMetadata(new RsMd().withLength((long) i)));
+    }
+    assertThat(map.size(), is(count));
+    for (int i = 0; i < count; i += 7) {
+      URI uri = URI.create("http://example.com/dir" + (i % 100) + "/res" + i + ".txt");
+      assertThat(map.get(uri).getMetadata().flatMap(RsMd::getLength).get(), is((long) i));
+      assertThat(map.keySet().contains(uri), is(true));
+    }
+    assertThat(map.get(URI.create("http://example.com/dir1/res2.txt")), nullValue());
+    int[] iterated = {0};
+    map.forEach((uri, item) -> {
+      assertThat(item.getNormalizedUri().get(), equalTo(uri));
+      iterated[0]++;
+    });
+    assertThat(iterated[0], is(count));
+    assertThat(map.keySet().size(), is(count));
+  }
+
+  @Test
+  public void removeAndClear() throws Exception {
+    CompactItemMap map = new CompactItemMap();
+    Map<URI, UrlItem> hashMap = new HashMap<>();
+    int count = 5000;
+    for (int i = 0; i < count; i++) {
+      URI uri = URI.create("http://example.com/dir" + (i % 10) + "/res" + i + ".txt");
+      UrlItem item = new UrlItem(uri.toString()).withMetadata(new RsMd().withLength((long) i)
+        .withChange(i % 3 == 0 ? "moved" : "created").withHash(i % 5 == 0 ? "sha:xyz" + i : null));
+      map.put(uri, item);
+      hashMap.put(uri, item);
+    }
+    for (int i = 0; i < count; i += 3) {
+      URI uri = URI.create("http://example.com/dir" + (i % 10) + "/res" + i + ".txt");
+      if (i % 2 == 0) {
+        assertThat(map.remove(uri).getMetadata().flatMap(RsMd::getLength).get(), is((long) i));
+      } else {
+        // a remapping function that returns null removes the entry
+        assertThat(map.merge(uri, hashMap.get(uri), (a, b) -> null), nullValue());
+      }
+      hashMap.remove(uri);
+    }
+    assertThat(map.size(), is(hashMap.size()));
+    assertThat(map.keySet(), equalTo(hashMap.keySet()));
+    for (Map.Entry<URI, UrlItem> entry : hashMap.entrySet()) {
+      assertThat(SyncJournal.fingerprint(map.get(entry.getKey())), equalTo(SyncJournal.fingerprint(entry.getValue())));
+    }
+
+    map.clear();
+    assertThat(map.size(), is(0));
+    assertThat(map.isEmpty(), is(true));
+    assertThat(map.get(URI.create("http://example.com/dir1/res1.txt")), nullValue());
+    URI uri = URI.create("http://example.com/res1.txt");
+    map.put(uri, new UrlItem(uri.toString()).withMetadata(new RsMd().withChange("moved")));
+    assertThat(map.size(), is(1));
+    assertThat(map.get(uri).getMetadata().flatMap(RsMd::getChange).get(), equalTo("moved"));
+  }
+}
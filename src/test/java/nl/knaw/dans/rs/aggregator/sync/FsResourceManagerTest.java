@@ -0,0 +1,135 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.http.AbstractRemoteTest;
+import nl.knaw.dans.rs.aggregator.http.ResourceReader;
+import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.syncore.VerificationStatus;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class FsResourceManagerTest extends AbstractRemoteTest {
+
+  private static String baseDir = "target/test-output/resourcemanager";
+
+  @Test
+  public void verifyHashFromStateIndex() throws Exception {
+    FileUtils.deleteDirectory(new File(baseDir));
+    URI capaUri = URI.create("http://example.com/set1/capabilitylist.xml");
+    URI resUri = URI.create("http://example.com/set1/res1.txt");
+    String md5 = "5d41402abc4b2a76b9719d911017c592"; // md5 of 'hello'
+
+    PathFinder pathFinder = new PathFinder(baseDir, capaUri);
+    File file = pathFinder.findResourceFilePath(resUri);
+    FileUtils.writeStringToFile(file, "hello", StandardCharsets.UTF_8);
+    long lastModified = file.lastModified();
+
+    FsResourceManager resourceManager = new FsResourceManager();
+    resourceManager.setPathFinder(pathFinder);
+    assertThat(resourceManager.verifyHash(resUri, "md5", md5), is(VerificationStatus.verification_success));
+    resourceManager.endSynchronization();
+    assertThat(pathFinder.getResourceStateFile().exists(), is(true));
+
+    // same size and last modified: the hash is answered from the index of a new run
+    FileUtils.writeStringToFile(file, "jello", StandardCharsets.UTF_8);
+    assertThat(file.setLastModified(lastModified), is(true));
+    resourceManager.setPathFinder(new PathFinder(baseDir, capaUri));
+    assertThat(resourceManager.verifyHash(resUri, "md5", md5), is(VerificationStatus.verification_success));
+
+    // changed last modified: the file is read
+    assertThat(file.setLastModified(lastModified - 2000), is(true));
+    assertThat(resourceManager.verifyHash(resUri, "md5", md5), is(VerificationStatus.verification_failure));
+
+    resourceManager.delete(resUri);
+    resourceManager.endSynchronization();
+    assertThat(new ResourceStateIndex(pathFinder.getResourceStateFile()).size(), is(0));
+  }
+
+  @Test
+  public void computeHashWhileDownloading() throws Exception {
+    FileUtils.deleteDirectory(new File(baseDir));
+    URI capaUri = composeUri("/set2/capabilitylist.xml");
+    URI resUri = composeUri("/set2/res1.txt");
+    String md5 = "5d41402abc4b2a76b9719d911017c592"; // md5 of 'hello'
+    getMockServer()
+      .when(HttpRequest.request().withMethod("GET").withPath("/set2/res1.txt"))
+      .respond(HttpResponse.response().withStatusCode(200).withBody("hello"));
+
+    PathFinder pathFinder = new PathFinder(baseDir, capaUri);
+    FsResourceManager resourceManager = new FsResourceManager().withHttpClient(getHttpclient());
+    resourceManager.setPathFinder(pathFinder);
+    UrlItem item = new UrlItem(resUri.toString()).withMetadata(new RsMd().withHash("md5:" + md5));
+    assertThat(resourceManager.create(resUri, item), is(true));
+
+    // the file is not read: its hash was recorded while downloading
+    File file = pathFinder.findResourceFilePath(resUri);
+    long lastModified = file.lastModified();
+    FileUtils.writeStringToFile(file, "jello", StandardCharsets.UTF_8);
+    assertThat(file.setLastModified(lastModified), is(true));
+    assertThat(resourceManager.verifyHash(resUri, "md5", md5), is(VerificationStatus.verification_success));
+  }
+
+  @Test
+  public void keepOnlyFromCompleteStateIndex() throws Exception {
+    FileUtils.deleteDirectory(new File(baseDir));
+    URI capaUri = URI.create("http://example.com/set3/capabilitylist.xml");
+    URI res1 = URI.create("http://example.com/set3/res1.txt");
+    URI res2 = URI.create("http://example.com/set3/folder/res2.txt");
+    URI stray1 = URI.create("http://example.com/set3/stray1.txt");
+    URI stray2 = URI.create("http://example.com/set3/stray2.txt");
+
+    PathFinder pathFinder = new PathFinder(baseDir, capaUri);
+    for (URI uri : Arrays.asList(res1, res2, stray1)) {
+      FileUtils.writeStringToFile(pathFinder.findResourceFilePath(uri), "hello", StandardCharsets.UTF_8);
+    }
+    FsResourceManager resourceManager = new FsResourceManager();
+    resourceManager.setPathFinder(pathFinder);
+
+    // no state index yet: the resource directory is walked
+    resourceManager.keepOnly(new HashSet<>(Arrays.asList(res1, res2)));
+    assertThat(pathFinder.findResourceFilePath(stray1).exists(), is(false));
+    assertThat(pathFinder.findResourceFilePath(res2).exists(), is(true));
+    resourceManager.endSynchronization();
+
+    ResourceStateIndex stateIndex = new ResourceStateIndex(pathFinder.getResourceStateFile());
+    assertThat(stateIndex.isComplete(), is(true));
+    assertThat(stateIndex.getURIs(), is(new HashSet<>(Arrays.asList(res1, res2))));
+
+    // complete state index: only files known to the index, and their partial downloads, are deleted
+    FileUtils.writeStringToFile(pathFinder.findResourceFilePath(stray2), "hello", StandardCharsets.UTF_8);
+    File part2 = new File(pathFinder.findResourceFilePath(res2).getPath() + ResourceReader.PART_EXTENSION);
+    FileUtils.writeStringToFile(part2, "hel", StandardCharsets.UTF_8);
+    resourceManager.setPathFinder(new PathFinder(baseDir, capaUri));
+    resourceManager.keepOnly(Collections.singleton(res1));
+    assertThat(pathFinder.findResourceFilePath(res1).exists(), is(true));
+    assertThat(pathFinder.findResourceFilePath(res2).exists(), is(false));
+    assertThat(part2.exists(), is(false));
+    assertThat(pathFinder.findResourceFilePath(res2).getParentFile().exists(), is(false));
+    assertThat(pathFinder.findResourceFilePath(stray2).exists(), is(true));
+
+    // a resource that is added and not saved makes the index on disk incomplete
+    assertThat(resourceManager.verifyHash(stray2, "md5", "5d41402abc4b2a76b9719d911017c592"),
+      is(VerificationStatus.verification_success));
+    assertThat(new ResourceStateIndex(pathFinder.getResourceStateFile()).isComplete(), is(false));
+    resourceManager.endSynchronization();
+    assertThat(new ResourceStateIndex(pathFinder.getResourceStateFile()).isComplete(), is(true));
+
+    // files written without the index are not known to it
+    resourceManager.setUsingStateIndex(false);
+    resourceManager.setPathFinder(new PathFinder(baseDir, capaUri));
+    assertThat(new ResourceStateIndex(pathFinder.getResourceStateFile()).isComplete(), is(false));
+  }
+}
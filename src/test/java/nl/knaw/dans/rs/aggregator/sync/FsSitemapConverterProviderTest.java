@@ -0,0 +1,131 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.discover.ResultIndex;
+import nl.knaw.dans.rs.aggregator.discover.RsExplorer;
+import nl.knaw.dans.rs.aggregator.http.AbstractRemoteTest;
+import nl.knaw.dans.rs.aggregator.http.Result;
+import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.Header;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.File;
+import java.net.URI;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class FsSitemapConverterProviderTest extends AbstractRemoteTest {
+
+  private static String baseDir = "target/test-output/converterprovider";
+
+  @Test
+  public void reuseSavedSitemapIfNotModified() throws Exception {
+    FileUtils.deleteDirectory(new File(baseDir));
+    String path = "/conditional/resourcelist.xml";
+    String lastModified = "Tue, 03 Jan 2017 09:00:00 GMT";
+
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(path)
+          .withHeader("If-None-Match", "\"v1\""),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(304)
+      );
+
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(path),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withHeaders(new Header("ETag", "\"v1\""), new Header("Last-Modified", lastModified))
+        .withBody(createResourceList())
+      );
+
+    URI uri = composeUri(path);
+    URI capaUri = composeUri("/conditional/capabilitylist.xml");
+    FsSitemapConverterProvider provider = new FsSitemapConverterProvider();
+    provider.withResourceSyncContext(getRsContext());
+
+    provider.setPathFinder(new PathFinder(baseDir, capaUri));
+    Result<RsRoot> result = createExplorer(provider).explore(uri, new ResultIndex());
+    assertThat(result.getStatusCode(), is(200));
+    assertThat(result.getContent().get().getItemList().size(), is(2));
+    assertThat(provider.getConditionalHeaders(uri).length, is(2));
+    provider.sitemapsCollected();
+
+    // a new run on the same set
+    provider.setPathFinder(new PathFinder(baseDir, capaUri));
+    result = createExplorer(provider).explore(uri, new ResultIndex());
+    assertThat(result.hasErrors(), is(false));
+    assertThat(result.getStatusCode(), is(304));
+    assertThat(result.getContent().get().getMetadata().getCapability().get(), equalTo("resourcelist"));
+    assertThat(result.getContent().get().getItemList().size(), is(2));
+
+    getMockServer().verify(HttpRequest.request()
+      .withPath(path)
+      .withHeader("If-Modified-Since", lastModified), VerificationTimes.exactly(1));
+  }
+
+  @Test
+  public void keepNoValidatorsOfUnreadableSitemap() throws Exception {
+    FileUtils.deleteDirectory(new File(baseDir));
+    String path = "/conditional/invalid/resourcelist.xml";
+
+    getMockServer()
+      .when(HttpRequest.request()
+          .withMethod("GET")
+          .withPath(path),
+        Times.exactly(1))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withHeaders(new Header("ETag", "\"v1\""))
+        .withBody("<urlset>not a sitemap")
+      );
+
+    URI uri = composeUri(path);
+    URI capaUri = composeUri("/conditional/invalid/capabilitylist.xml");
+    FsSitemapConverterProvider provider = new FsSitemapConverterProvider();
+    provider.withResourceSyncContext(getRsContext());
+
+    PathFinder pathFinder = new PathFinder(baseDir, capaUri);
+    provider.setPathFinder(pathFinder);
+    Result<RsRoot> result = createExplorer(provider).explore(uri, new ResultIndex());
+    assertThat(result.hasErrors(), is(true));
+    assertThat(provider.getConditionalHeaders(uri).length, is(0));
+    provider.sitemapsCollected();
+
+    provider.setPathFinder(new PathFinder(baseDir, capaUri));
+    assertThat(provider.getConditionalHeaders(uri).length, is(0));
+  }
+
+  private RsExplorer createExplorer(FsSitemapConverterProvider provider) {
+    return new RsExplorer(getHttpclient(), getRsContext())
+      .withConverter(provider.getConverter())
+      .withConditionalHeaders(provider::getConditionalHeaders)
+      .withFollowParentLinks(false);
+  }
+
+  private String createResourceList() {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:md capability=\"resourcelist\" at=\"2017-01-03T09:00:00Z\"/>\n" +
+      "  <url><loc>" + composePath("/conditional/res1.txt") + "</loc></url>\n" +
+      "  <url><loc>" + composePath("/conditional/res2.txt") + "</loc></url>\n" +
+      "</urlset>";
+  }
+}
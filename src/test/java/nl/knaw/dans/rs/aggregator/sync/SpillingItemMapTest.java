@@ -0,0 +1,118 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.xml.RsLn;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class SpillingItemMapTest {
+
+  private static File dir = new File("target/test-output/spillingitemmap");
+
+  @Test
+  public void encodeAndDecode() throws Exception {
+    UrlItem item = new UrlItem("http://example.com/res1.txt")
+      .withLastmod(ZonedDateTime.parse("2017-04-30T10:00:00.123456+02:00"))
+      .withChangefreq("daily")
+      .addLink(new RsLn("duplicate", "http://also.com/res1.txt").withPri(1).withLength(12L))
+      .withMetadata(new RsMd()
+        .withDateTime(ZonedDateTime.parse("2017-05-01T10:00Z[Europe/Amsterdam]"))
+        .withChange("updated")
+        .withHash("md5:1584abdf8ebdc9802ac0c6a7402c03b6")
+        .withLength(8876L)
+        .withPath("/resources/res1.txt"));
+    UrlItem decoded = SpillingItemMap.decode(SpillingItemMap.encode(item));
+    assertThat(describe(decoded), equalTo(describe(item)));
+    assertThat(decoded.getLinkList().get(0).getPri().get(), is(1));
+    assertThat(decoded.getChangefreq().get(), equalTo("daily"));
+
+    UrlItem bare = SpillingItemMap.decode(SpillingItemMap.encode(new UrlItem("http://example.com/res2.txt")));
+    assertThat(bare.getMetadata().isPresent(), is(false));
+    assertThat(bare.getLastmod().isPresent(), is(false));
+  }
+
+  @Test
+  public void mergeLikeHashMap() throws Exception {
+    Random random = new Random(42);
+    Map<URI, UrlItem> expected = new HashMap<>();
+    SpillingItemMap map = new SpillingItemMap(dir, 7);
+    for (int i = 0; i < 500; i++) {
+      UrlItem item = randomItem(random, random.nextInt(120));
+      URI uri = item.getNormalizedUri().get();
+      expected.merge(uri, item, UrlItem::latest);
+      map.merge(uri, item, UrlItem::latest);
+      if (i == 300) {
+        // read in between: later merges go on top of the sorted file
+        assertThat(map.size(), is(expected.size()));
+      }
+    }
+    assertThat(map.size(), is(expected.size()));
+    for (Map.Entry<URI, UrlItem> entry : expected.entrySet()) {
+      assertThat(map.containsKey(entry.getKey()), is(true));
+      assertThat(describe(map.get(entry.getKey())), equalTo(describe(entry.getValue())));
+    }
+    assertThat(map.get(URI.create("http://example.com/none.txt")), nullValue());
+    assertThat(map.get(URI.create("http://a.com/first.txt")), nullValue());
+
+    // iterated in key order
+    List<String> keys = new ArrayList<>();
+    for (Map.Entry<URI, UrlItem> entry : map.entrySet()) {
+      keys.add(entry.getKey().toString());
+      assertThat(describe(entry.getValue()), equalTo(describe(expected.get(entry.getKey()))));
+    }
+    assertThat(keys, equalTo(new ArrayList<>(new TreeMap<>(toStringKeys(expected)).keySet())));
+
+    UrlItem replacement = new UrlItem("http://example.com/res/1.txt");
+    // put does not look up the previous value
+    assertThat(map.put(URI.create("http://example.com/res/1.txt"), replacement), nullValue());
+    assertThat(map.get(URI.create("http://example.com/res/1.txt")).getMetadata().isPresent(), is(false));
+
+    map.close();
+    assertThat(dir.exists(), is(false));
+    assertThat(map.isEmpty(), is(true));
+  }
+
+  private static UrlItem randomItem(Random random, int resource) {
+    UrlItem item = new UrlItem("http://example.com/res/" + resource + ".txt");
+    // some items without dates, to keep the order of merges significant
+    if (random.nextInt(4) > 0) item.withLastmod(ZonedDateTime.parse("2017-01-01T00:00Z").plusHours(random.nextInt(50)));
+    RsMd md = new RsMd().withHash("md5:" + Integer.toHexString(random.nextInt()));
+    if (random.nextInt(4) > 0) md.withDateTime(ZonedDateTime.parse("2017-02-01T00:00Z").plusHours(random.nextInt(50)));
+    if (random.nextInt(4) == 0) md.withAt(ZonedDateTime.parse("2017-01-15T00:00Z"));
+    return item.withMetadata(md);
+  }
+
+  private static Map<String, UrlItem> toStringKeys(Map<URI, UrlItem> items) {
+    Map<String, UrlItem> map = new HashMap<>();
+    items.forEach((uri, item) -> map.put(uri.toString(), item));
+    return map;
+  }
+
+  private static String describe(UrlItem item) {
+    StringBuilder sb = new StringBuilder(item.getLoc()).append("|").append(item.getLastmod().orElse(null));
+    item.getMetadata().ifPresent(md -> sb.append("|").append(md.getAt().orElse(null))
+      .append("|").append(md.getDateTime().orElse(null))
+      .append("|").append(md.getChange().orElse(null))
+      .append("|").append(md.getHash().orElse(null))
+      .append("|").append(md.getLength().orElse(null))
+      .append("|").append(md.getPath().orElse(null)));
+    item.getLinkList().forEach(ln -> sb.append("|").append(ln.getRel()).append(ln.getHref())
+      .append(ln.getLength().orElse(null)));
+    return sb.toString();
+  }
+}
@@ -0,0 +1,342 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.http.AbstractRemoteTest;
+import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.syncore.Sync;
+import nl.knaw.dans.rs.aggregator.util.PhaseTimes;
+import nl.knaw.dans.rs.aggregator.util.RsProperties;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+public class SyncJobTest extends AbstractRemoteTest {
+
+  private static String baseDir = "target/test-output/syncjob";
+
+  @Test
+  public void synchronizeSetsConcurrently() throws Exception {
+    FileUtils.deleteDirectory(new File(baseDir));
+    int sets = 4;
+    List<URI> uriList = new ArrayList<>();
+    for (int i = 0; i < sets; i++) {
+      String set = "/set" + i;
+      serve(set + "/capabilitylist.xml", createCapabilityList(set));
+      serve(set + "/resourcelist.xml", createResourceList(set));
+      serve(set + "/res1.txt", "resource 1 of " + set);
+      serve(set + "/res2.txt", "resource 2 of " + set);
+      uriList.add(composeUri(set + "/capabilitylist.xml"));
+    }
+
+    SyncJob syncJob = new SyncJob();
+    syncJob.setBaseDirectory(baseDir);
+    syncJob.setMaxConcurrentSets(3);
+    syncJob.synchronize(uriList);
+
+    for (int i = 0; i < sets; i++) {
+      String set = "/set" + i;
+      PathFinder pathFinder = new PathFinder(baseDir, composeUri(set + "/capabilitylist.xml"));
+      assertThat(pathFinder.getPrevSyncPropXmlFile() == null, is(false));
+      File res2 = pathFinder.findResourceFilePath(composeUri(set + "/res2.txt"));
+      assertThat(FileUtils.readFileToString(res2, StandardCharsets.UTF_8), equalTo("resource 2 of " + set));
+
+      // phases and item latency are reported
+      RsProperties syncProps = new RsProperties();
+      syncProps.loadFromXML(pathFinder.getPrevSyncPropXmlFile());
+      for (String key : new String[] {Sync.PROP_CL_TIME + PhaseTimes.EXPLORE, Sync.PROP_CL_TIME + PhaseTimes.PARSE,
+        Sync.PROP_CL_TIME + PhaseTimes.MERGE, Sync.PROP_SW_TIME + PhaseTimes.KEEP_ONLY,
+        Sync.PROP_SW_TIME + PhaseTimes.HASH, Sync.PROP_SW_TIME + PhaseTimes.DOWNLOAD,
+        Sync.PROP_SW_TIME + PhaseTimes.VERIFY,
+        DefaultSyncPostProcessor.PROP_SZ_TIME + PhaseTimes.POST_PROCESS}) {
+        assertThat(key, syncProps.getProperty(key + ".wall.ms"), notNullValue());
+        assertThat(key, syncProps.getProperty(key + ".thread.ms"), notNullValue());
+      }
+      assertThat(syncProps.getLong(Sync.PROP_SW_ITEM_LATENCY_MAX), greaterThan(0L));
+      assertThat(syncProps.getLong(Sync.PROP_SW_ITEM_LATENCY_MAX),
+        greaterThanOrEqualTo(syncProps.getLong(Sync.PROP_SW_ITEM_LATENCY_P50)));
+    }
+  }
+
+  @Test
+  public void synchronizeSetsSeriallyIfNotCopyable() throws Exception {
+    FileUtils.deleteDirectory(new File(baseDir));
+    List<URI> uriList = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      String set = "/serial" + i;
+      serve(set + "/capabilitylist.xml", createCapabilityList(set));
+      serve(set + "/resourcelist.xml", createResourceList(set));
+      serve(set + "/res1.txt", "resource 1 of " + set);
+      serve(set + "/res2.txt", "resource 2 of " + set);
+      uriList.add(composeUri(set + "/capabilitylist.xml"));
+    }
+
+    SyncJob syncJob = new SyncJob();
+    syncJob.setBaseDirectory(baseDir);
+    syncJob.setMaxConcurrentSets(2);
+    // a subclass that does not override copy() and canCopy()
+    syncJob.setSitemapCollector(new SitemapCollector() {});
+    assertThat(syncJob.getSitemapCollector().canCopy(), is(false));
+    syncJob.synchronize(uriList);
+
+    for (int i = 0; i < 2; i++) {
+      String set = "/serial" + i;
+      PathFinder pathFinder = new PathFinder(baseDir, composeUri(set + "/capabilitylist.xml"));
+      File res2 = pathFinder.findResourceFilePath(composeUri(set + "/res2.txt"));
+      assertThat(FileUtils.readFileToString(res2, StandardCharsets.UTF_8), equalTo("resource 2 of " + set));
+    }
+  }
+
+  @Test
+  public void synchronizeFromResourceDump() throws Exception {
+    synchronizeFromResourceDump("/dump", 0, false);
+  }
+
+  @Test
+  public void synchronizeFromResourceDumpSpilling() throws Exception {
+    // items of the dump are merged with items that were spilled to disk
+    synchronizeFromResourceDump("/spilldump", 1, false);
+  }
+
+  @Test
+  public void synchronizeFromResourceDumpIndex() throws Exception {
+    // the resourcedump is published through a sitemapindex
+    synchronizeFromResourceDump("/dumpindex", 0, true);
+  }
+
+  private void synchronizeFromResourceDump(String set, int spillThreshold, boolean viaIndex) throws Exception {
+    FileUtils.deleteDirectory(new File(baseDir));
+    if (viaIndex) {
+      serve(set + "/capabilitylist.xml", createDumpCapabilityList(set, "/resourcedump-index.xml"));
+      serve(set + "/resourcedump-index.xml", createResourceDumpIndex(set));
+    } else {
+      serve(set + "/capabilitylist.xml", createDumpCapabilityList(set, "/resourcedump.xml"));
+    }
+    serve(set + "/resourcedump.xml", createResourceDump(set));
+    serve(set + "/package.zip", createPackage(set));
+    // res2 is corrupt in the package and is fetched one by one
+    serve(set + "/res2.txt", "resource 2 of " + set);
+
+    SyncJob syncJob = new SyncJob();
+    syncJob.setBaseDirectory(baseDir);
+    syncJob.setSpillThreshold(spillThreshold);
+    syncJob.synchronize(Collections.singletonList(composeUri(set + "/capabilitylist.xml")));
+
+    PathFinder pathFinder = new PathFinder(baseDir, composeUri(set + "/capabilitylist.xml"));
+    RsProperties syncProps = new RsProperties();
+    syncProps.loadFromXML(pathFinder.getPrevSyncPropXmlFile());
+    assertThat(syncProps.getInt(Sync.PROP_CL_COUNT_ERROR_RESULTS), is(0));
+    assertThat(syncProps.getInt(Sync.PROP_CL_COUNT_RESOURCEDUMP_INDEXES), is(viaIndex ? 1 : 0));
+    assertThat(syncProps.getInt(Sync.PROP_SW_DUMP_PACKAGES_INGESTED), is(1));
+    assertThat(syncProps.getInt(Sync.PROP_SW_DUMP_ITEMS), is(2));
+    assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(2));
+    for (int i = 1; i <= 2; i++) {
+      File res = pathFinder.findResourceFilePath(composeUri(set + "/res" + i + ".txt"));
+      assertThat(FileUtils.readFileToString(res, StandardCharsets.UTF_8), equalTo("resource " + i + " of " + set));
+    }
+    getMockServer().verify(HttpRequest.request().withPath(set + "/res1.txt"), VerificationTimes.exactly(0));
+    assertThat(pathFinder.getPackageDirectory().list().length, is(0));
+    assertThat(pathFinder.getSpillDirectory().exists(), is(false));
+  }
+
+  @Test
+  public void synchronizeIncrementally() throws Exception {
+    FileUtils.deleteDirectory(new File(baseDir));
+    String set = "/incremental";
+    serve(set + "/capabilitylist.xml", createIncrementalCapabilityList(set));
+    serve(set + "/resourcelist.xml", createResourceList(set));
+    serve(set + "/changelist.xml", createChangeList(set));
+    for (int i = 1; i <= 3; i++) {
+      serve(set + "/res" + i + ".txt", "resource " + i + " of " + set);
+    }
+    URI capabilityListUri = composeUri(set + "/capabilitylist.xml");
+
+    SyncJob syncJob = new SyncJob();
+    syncJob.setBaseDirectory(baseDir);
+    syncJob.setIncrementalSync(true);
+
+    // first run is the full baseline
+    syncJob.synchronize(Collections.singletonList(capabilityListUri));
+    RsProperties syncProps = loadPrevSyncProps(capabilityListUri);
+    assertThat(syncProps.getBool(Sync.PROP_CL_CHANGELISTS_ONLY), is(false));
+    assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_ITEMS), is(3));
+    ZonedDateTime fullSync = syncProps.getDateTime(Sync.PROP_CL_DATE_LATEST_FULL_SYNC);
+
+    // second run only looks at the changelist
+    Thread.sleep(10);
+    syncJob.synchronize(Collections.singletonList(capabilityListUri));
+    syncProps = loadPrevSyncProps(capabilityListUri);
+    assertThat(syncProps.getBool(Sync.PROP_CL_CHANGELISTS_ONLY), is(true));
+    assertThat(syncProps.getBool(Sync.PROP_CL_FOUND_NEW_RESOURCELIST), is(false));
+    assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_ITEMS), is(1));
+    assertThat(syncProps.getDateTime(Sync.PROP_CL_DATE_LATEST_FULL_SYNC), equalTo(fullSync));
+    getMockServer().verify(HttpRequest.request().withPath(set + "/resourcelist.xml"), VerificationTimes.exactly(1));
+
+    // a full run requested with the trigger file takes the resourcelist into account again
+    Thread.sleep(10);
+    File trigger = new File(baseDir, "full-sync");
+    assertThat(trigger.createNewFile(), is(true));
+    syncJob.synchronize(Collections.singletonList(capabilityListUri));
+    syncProps = loadPrevSyncProps(capabilityListUri);
+    assertThat(syncProps.getBool(Sync.PROP_CL_CHANGELISTS_ONLY), is(false));
+    assertThat(syncJob.isFullSyncRequested(), is(false));
+    assertThat(trigger.exists(), is(false));
+    getMockServer().verify(HttpRequest.request().withPath(set + "/resourcelist.xml"), VerificationTimes.exactly(2));
+    PathFinder pathFinder = new PathFinder(baseDir, capabilityListUri);
+    for (int i = 1; i <= 3; i++) {
+      File res = pathFinder.findResourceFilePath(composeUri(set + "/res" + i + ".txt"));
+      assertThat(FileUtils.readFileToString(res, StandardCharsets.UTF_8), equalTo("resource " + i + " of " + set));
+    }
+  }
+
+  private RsProperties loadPrevSyncProps(URI capabilityListUri) throws IOException {
+    RsProperties syncProps = new RsProperties();
+    syncProps.loadFromXML(new PathFinder(baseDir, capabilityListUri).getPrevSyncPropXmlFile());
+    return syncProps;
+  }
+
+  private void serve(String path, byte[] body) {
+    getMockServer()
+      .when(HttpRequest.request()
+        .withMethod("GET")
+        .withPath(path))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withBody(body)
+      );
+  }
+
+  private void serve(String path, String body) {
+    getMockServer()
+      .when(HttpRequest.request()
+        .withMethod("GET")
+        .withPath(path))
+
+      .respond(HttpResponse.response()
+        .withStatusCode(200)
+        .withBody(body)
+      );
+  }
+
+  private String createCapabilityList(String set) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:md capability=\"capabilitylist\"/>\n" +
+      "  <url><loc>" + composePath(set + "/resourcelist.xml") + "</loc>\n" +
+      "      <rs:md capability=\"resourcelist\"/></url>\n" +
+      "</urlset>";
+  }
+
+  private String createUrl(String set, int i) {
+    String body = "resource " + i + " of " + set;
+    return "  <url><loc>" + composePath(set + "/res" + i + ".txt") + "</loc>\n" +
+      "      <rs:md hash=\"md5:" + DigestUtils.md5Hex(body) + "\" length=\"" + body.length() + "\"/></url>\n";
+  }
+
+  private String createResourceList(String set) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:ln rel=\"up\" href=\"" + composePath(set + "/capabilitylist.xml") + "\"/>\n" +
+      "  <rs:md capability=\"resourcelist\" at=\"2017-01-03T09:00:00Z\"/>\n" +
+      createUrl(set, 1) +
+      createUrl(set, 2) +
+      "</urlset>";
+  }
+
+  private String createIncrementalCapabilityList(String set) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:md capability=\"capabilitylist\"/>\n" +
+      "  <url><loc>" + composePath(set + "/resourcelist.xml") + "</loc>\n" +
+      "      <rs:md capability=\"resourcelist\"/></url>\n" +
+      "  <url><loc>" + composePath(set + "/changelist.xml") + "</loc>\n" +
+      "      <rs:md capability=\"changelist\"/></url>\n" +
+      "</urlset>";
+  }
+
+  private String createChangeList(String set) {
+    // a change that stays after the as-of date of each run
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:ln rel=\"up\" href=\"" + composePath(set + "/capabilitylist.xml") + "\"/>\n" +
+      "  <rs:md capability=\"changelist\" from=\"2017-01-03T09:00:00Z\"/>\n" +
+      createUrl(set, 3).replace("\"/></url>", "\" change=\"created\" datetime=\"2999-01-01T00:00:00Z\"/></url>") +
+      "</urlset>";
+  }
+
+  private String createDumpCapabilityList(String set, String dumpPath) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:md capability=\"capabilitylist\"/>\n" +
+      "  <url><loc>" + composePath(set + dumpPath) + "</loc>\n" +
+      "      <rs:md capability=\"resourcedump\"/></url>\n" +
+      "</urlset>";
+  }
+
+  private String createResourceDumpIndex(String set) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:ln rel=\"up\" href=\"" + composePath(set + "/capabilitylist.xml") + "\"/>\n" +
+      "  <rs:md capability=\"resourcedump\" at=\"2017-01-03T09:00:00Z\"/>\n" +
+      "  <sitemap><loc>" + composePath(set + "/resourcedump.xml") + "</loc></sitemap>\n" +
+      "</sitemapindex>";
+  }
+
+  private String createResourceDump(String set) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:ln rel=\"up\" href=\"" + composePath(set + "/capabilitylist.xml") + "\"/>\n" +
+      "  <rs:md capability=\"resourcedump\" at=\"2017-01-03T09:00:00Z\"/>\n" +
+      "  <url><loc>" + composePath(set + "/package.zip") + "</loc>\n" +
+      "      <rs:md type=\"application/zip\"/></url>\n" +
+      "</urlset>";
+  }
+
+  private byte[] createPackage(String set) throws IOException {
+    String manifest = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+      "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+      "  <rs:md capability=\"resourcedump-manifest\" at=\"2017-01-03T09:00:00Z\"/>\n" +
+      createUrl(set, 1).replace("\"/></url>", "\" path=\"/resources/res1.txt\"/></url>") +
+      createUrl(set, 2).replace("\"/></url>", "\" path=\"/resources/res2.txt\"/></url>") +
+      "</urlset>";
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+      zip.putNextEntry(new ZipEntry("manifest.xml"));
+      zip.write(manifest.getBytes(StandardCharsets.UTF_8));
+      zip.putNextEntry(new ZipEntry("resources/res1.txt"));
+      zip.write(("resource 1 of " + set).getBytes(StandardCharsets.UTF_8));
+      zip.putNextEntry(new ZipEntry("resources/res2.txt"));
+      zip.write(("resource 2 of " + set.toUpperCase()).getBytes(StandardCharsets.UTF_8));
+    }
+    return bytes.toByteArray();
+  }
+}
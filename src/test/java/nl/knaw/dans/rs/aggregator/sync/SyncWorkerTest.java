@@ -1,13 +1,23 @@
 package nl.knaw.dans.rs.aggregator.sync;
 
+import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.syncore.ResourceManager;
+import nl.knaw.dans.rs.aggregator.syncore.Sync;
+import nl.knaw.dans.rs.aggregator.syncore.VerificationStatus;
+import nl.knaw.dans.rs.aggregator.util.RsProperties;
 import nl.knaw.dans.rs.aggregator.xml.RsMd;
 import nl.knaw.dans.rs.aggregator.xml.UrlItem;
 import org.junit.Test;
 
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.net.URI;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -44,4 +54,197 @@ public class SyncWorkerTest {
     assertThat(map.get("abc"), equalTo(item2));
 
   }
+
+  @Test
+  public void testConcurrentSynchronizeKeepsCountsExact() {
+    int itemCount = 200;
+    int maxDownloads = 50;
+    Map<URI, UrlItem> items = new HashMap<>();
+    for (int i = 0; i < itemCount; i++) {
+      String loc = "http://example.com/rs/resources/res" + i + ".txt";
+      items.put(URI.create(loc), new UrlItem(loc).withMetadata(new RsMd().withHash("md5:abc").withChange("created")));
+    }
+    CountingResourceManager resourceManager = new CountingResourceManager();
+    SyncWorker syncWorker = new SyncWorker()
+      .withSitemapCollector(new FixedSitemapCollector(items))
+      .withResourceManager(resourceManager)
+      .withMaxDownloads(maxDownloads)
+      .withWorkerThreads(8)
+      .withMaxConcurrentPerHost(4);
+
+    PathFinder pathFinder = new PathFinder("target/test-output/syncworker",
+      URI.create("http://example.com/rs/capabilitylist.xml"));
+    RsProperties syncProps = new RsProperties();
+    syncWorker.synchronize(pathFinder, syncProps);
+
+    assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_ITEMS), is(itemCount));
+    assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(maxDownloads));
+    assertThat(syncProps.getInt(Sync.PROP_SW_ITEMS_CREATED), is(maxDownloads));
+    assertThat(syncProps.getInt(Sync.PROP_SW_FAILED_CREATIONS), is(itemCount - maxDownloads));
+    assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(false));
+    assertThat(resourceManager.creations.get(), is(maxDownloads));
+    assertThat(resourceManager.maxConcurrent.get() <= 4, is(true));
+  }
+
+  @Test
+  public void testSynchronizeResumesFromJournal() {
+    Map<URI, UrlItem> items = new HashMap<>();
+    for (int i = 0; i < 5; i++) {
+      String loc = "http://example.com/rs/resources/res" + i + ".txt";
+      items.put(URI.create(loc), new UrlItem(loc).withMetadata(new RsMd().withHash("md5:abc").withChange("created")));
+    }
+    PathFinder pathFinder = new PathFinder("target/test-output/syncworker-journal",
+      URI.create("http://example.com/rs/capabilitylist.xml"));
+    File journalFile = pathFinder.getSyncJournalFile();
+    if (journalFile.exists()) assertThat(journalFile.delete(), is(true));
+
+    // an earlier run was broken off after 3 items
+    SyncJournal journal = new SyncJournal(journalFile);
+    for (int i = 0; i < 3; i++) {
+      URI uri = URI.create("http://example.com/rs/resources/res" + i + ".txt");
+      journal.append(uri, items.get(uri), "created", 1);
+    }
+    // this item changed after it was journaled
+    URI changed = URI.create("http://example.com/rs/resources/res2.txt");
+    items.get(changed).getMetadata().get().withHash("md5:def");
+    journal.close();
+
+    CountingResourceManager resourceManager = new CountingResourceManager();
+    SyncWorker syncWorker = new SyncWorker()
+      .withSitemapCollector(new FixedSitemapCollector(items))
+      .withResourceManager(resourceManager);
+    RsProperties syncProps = new RsProperties();
+    syncWorker.synchronize(pathFinder, syncProps);
+
+    assertThat(resourceManager.creations.get(), is(3));
+    assertThat(syncProps.getInt(Sync.PROP_SW_ITEMS_RESUMED), is(2));
+    assertThat(syncProps.getInt(Sync.PROP_SW_ITEMS_CREATED), is(5));
+    assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(5));
+    assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(true));
+    assertThat(journalFile.exists(), is(false));
+  }
+
+  @Test
+  public void testRepeatDownloadWithinReservation() {
+    Map<URI, UrlItem> items = new HashMap<>();
+    String loc = "http://example.com/rs/resources/res1.txt";
+    items.put(URI.create(loc), new UrlItem(loc).withMetadata(new RsMd().withHash("md5:abc").withChange("created")));
+    CountingResourceManager resourceManager = new CountingResourceManager();
+    // the first download does not verify
+    resourceManager.hashFailures.set(1);
+    SyncWorker syncWorker = new SyncWorker()
+      .withSitemapCollector(new FixedSitemapCollector(items))
+      .withResourceManager(resourceManager)
+      .withMaxDownloads(1);
+
+    PathFinder pathFinder = new PathFinder("target/test-output/syncworker-repeat",
+      URI.create("http://example.com/rs/capabilitylist.xml"));
+    RsProperties syncProps = new RsProperties();
+    syncWorker.synchronize(pathFinder, syncProps);
+
+    assertThat(resourceManager.creations.get(), is(1));
+    assertThat(resourceManager.updates.get() > 0, is(true));
+    assertThat(syncProps.getInt(Sync.PROP_SW_ITEMS_CREATED), is(1));
+    assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(1));
+    assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(true));
+  }
+
+  private static class FixedSitemapCollector extends SitemapCollector {
+
+    private final Map<URI, UrlItem> items;
+
+    FixedSitemapCollector(Map<URI, UrlItem> items) {
+      this.items = items;
+    }
+
+    @Override
+    public void collectSitemaps(PathFinder pathFinder, RsProperties syncProps) {
+      // items are fixed
+    }
+
+    @Override
+    public boolean hasErrors() {
+      return false;
+    }
+
+    @Override
+    public boolean hasNewResourceList() {
+      return false;
+    }
+
+    @Override
+    public Map<URI, UrlItem> getMostRecentItems() {
+      return items;
+    }
+  }
+
+  private static class CountingResourceManager implements ResourceManager {
+
+    private final AtomicInteger creations = new AtomicInteger();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    private final AtomicInteger updates = new AtomicInteger();
+    private final AtomicInteger hashFailures = new AtomicInteger();
+
+    @Override
+    public void setPathFinder(PathFinder pathFinder) {
+    }
+
+    @Override
+    public boolean exists(@Nonnull URI normalizedURI) {
+      return false;
+    }
+
+    @Override
+    public VerificationStatus verifyHash(@Nonnull URI normalizedURI, @Nonnull String algorithm, @Nonnull String hash) {
+      if (hashFailures.getAndUpdate(failures -> Math.max(0, failures - 1)) > 0) {
+        return VerificationStatus.verification_failure;
+      }
+      return VerificationStatus.verification_success;
+    }
+
+    @Override
+    public VerificationStatus verifyLastModified(@Nonnull URI normalizedURI, @Nonnull ZonedDateTime lastModified) {
+      return VerificationStatus.not_verified;
+    }
+
+    @Override
+    public VerificationStatus verifySize(@Nonnull URI normalizedURI, long size) {
+      return VerificationStatus.not_verified;
+    }
+
+    @Override
+    public boolean keepOnly(@Nonnull Set<URI> normalizedURIs) {
+      return true;
+    }
+
+    @Override
+    public boolean keep(@Nonnull URI normalizedURI) {
+      return true;
+    }
+
+    @Override
+    public boolean create(@Nonnull URI normalizedURI) {
+      maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(2);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      concurrent.decrementAndGet();
+      creations.incrementAndGet();
+      return true;
+    }
+
+    @Override
+    public boolean update(@Nonnull URI normalizedURI) {
+      updates.incrementAndGet();
+      return true;
+    }
+
+    @Override
+    public boolean delete(@Nonnull URI normalizedURI) {
+      return true;
+    }
+  }
 }
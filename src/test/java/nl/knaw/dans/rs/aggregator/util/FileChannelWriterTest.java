@@ -0,0 +1,67 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class FileChannelWriterTest {
+
+  private static File dir = new File("target/test-output/filechannelwriter");
+
+  @Test
+  public void writeAndAppend() throws Exception {
+    dir.mkdirs();
+    File file = new File(dir, "write.bin");
+    byte[] bytes = new byte[100000];
+    new Random(42).nextBytes(bytes);
+
+    // a buffer smaller than the content
+    FileChannelWriter writer = new FileChannelWriter(8 * 1024, true);
+    MessageDigest digest = MessageDigest.getInstance("md5");
+    long written = writer.write(new ByteArrayInputStream(bytes), file, false, digest);
+    assertThat(written, is(100000L));
+    assertThat(FileUtils.readFileToByteArray(file), equalTo(bytes));
+    assertThat(HashUtil.toHex(digest.digest()), equalTo(HashUtil.toHex(MessageDigest.getInstance("md5").digest(bytes))));
+
+    writer.write(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8)), file, true, null);
+    assertThat(file.length(), is(100003L));
+
+    writer.write(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8)), file, false, null);
+    assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("abc"));
+  }
+
+  @Test
+  public void writeBytesReadBeforeFailure() throws Exception {
+    dir.mkdirs();
+    File file = new File(dir, "failure.bin");
+    InputStream failing = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("connection reset");
+      }
+    };
+    InputStream inputStream =
+      new SequenceInputStream(new ByteArrayInputStream("01234".getBytes(StandardCharsets.UTF_8)), failing);
+
+    IOException failure = null;
+    try {
+      new FileChannelWriter().write(inputStream, file, false, null);
+    } catch (IOException e) {
+      failure = e;
+    }
+    assertThat(failure == null, is(false));
+    assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("01234"));
+  }
+}
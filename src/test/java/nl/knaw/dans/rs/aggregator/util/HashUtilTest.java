@@ -0,0 +1,68 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class HashUtilTest {
+
+  private static File dir = new File("target/test-output/hashutil");
+
+  @Test
+  public void toHex() throws Exception {
+    byte[] bytes = new byte[256];
+    for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+    StringBuilder sb = new StringBuilder();
+    for (byte aByte : bytes) {
+      sb.append(Integer.toString((aByte & 0xff) + 0x100, 16).substring(1));
+    }
+    assertThat(HashUtil.toHex(bytes), equalTo(sb.toString()));
+    assertThat(HashUtil.toHex(new byte[0]), equalTo(""));
+  }
+
+  @Test
+  public void computeHashOfFiles() throws Exception {
+    dir.mkdirs();
+    File small = createFile("small.bin", 100000);
+    // larger than MAP_THRESHOLD: memory-mapped
+    File large = createFile("large.bin", (int) HashUtil.MAP_THRESHOLD + 12345);
+    File empty = createFile("empty.bin", 0);
+
+    for (File file : new File[] {small, large, empty}) {
+      byte[] content = FileUtils.readFileToByteArray(file);
+      String expected = HashUtil.toHex(MessageDigest.getInstance("sha-256").digest(content));
+      assertThat(HashUtil.computeHash("sha-256", file), equalTo(expected));
+      assertThat(HashUtil.computeHash("sha-256", new ByteArrayInputStream(content)), equalTo(expected));
+    }
+
+    Map<File, String> algorithms = new HashMap<>();
+    algorithms.put(small, "md5");
+    algorithms.put(large, "sha-256");
+    algorithms.put(empty, "md5");
+    algorithms.put(new File(dir, "does-not-exist.bin"), "md5");
+    algorithms.put(small.getAbsoluteFile(), "no-such-algorithm");
+    Map<File, String> hashes = HashUtil.computeHashes(algorithms, 3);
+    assertThat(hashes.size(), is(3));
+    assertThat(hashes.get(small), equalTo(HashUtil.computeHash("md5", small)));
+    assertThat(hashes.get(large), equalTo(HashUtil.computeHash("sha-256", large)));
+    assertThat(hashes.get(empty), equalTo("d41d8cd98f00b204e9800998ecf8427e"));
+  }
+
+  private File createFile(String name, int size) throws Exception {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    File file = new File(dir, name);
+    FileUtils.writeByteArrayToFile(file, bytes);
+    return file;
+  }
+}
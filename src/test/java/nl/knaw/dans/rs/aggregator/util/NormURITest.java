@@ -8,7 +8,9 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.junit.Test;
 
+import java.io.File;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Optional;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -46,6 +48,66 @@ public class NormURITest {
     }
   }
 
+  @Test
+  public void testSameAsURINormalize() throws Exception {
+    String[] inputs = {
+      "http://example.com", "http://example.com/", "http://example.com//", "https://www.Example.COM:8080//a//b/",
+      "http://WWW.example.com/a", "http://wwwexample.com/a", "http://www-example.com/a", "http://www/a",
+      "http://www.example.com/a/b.xml?q=1&r=[2]#frag", "http://example.com/a?q=%zz", "http://example.com/a#f#g",
+      "HTTP://Example.com/A/B;p=1/c:d@e&f=g+h$,!~*'()_-", "http://example.com:080/a", "http://example.com:/a",
+      "http://example.com:123456/a", "http://example.com:99999/a", "http://user@example.com/a",
+      "http://127.0.0.1:8080/a", "http://[::1]/a", "http://under_score.com/a", "http://example.com./a",
+      "http://-example.com/a", "http://example-.com/a", "http://ex..ample.com/a", "http://1example.2com/a",
+      "http://www.-b.com/a", "http://wwwa-b.com/a", "http://example.com/a/./b", "http://example.com/a/../b",
+      "http://example.com/../b", "http://example.com/.../b", "http://example.com/a/../../b", "http://example.com/a/./",
+      "http://example.com/a/..", "http://example.com/./a", "http://example.com/a/b/../../..", "http://example.com/..",
+      "http://example.com//a//..//b/.", "http://example.com/a/../..?q", "http://www.x.com/a/../b:c/../../d", "http://example.com/a%20b", "http://example.com/a%2Fb",
+      "http://example.com/a b", "http://example.com/a|b", "http://example.com/d\u00fcsseldorf", "http:///a",
+      "http://", "http:/a", "file:///tmp/x", "urn:nbn:nl:ui:13-k6k2-ih", "mailto:a@b.com#x", "foo", "foo/../bar",
+      "a:b", "", "/a//b/", "?q", "#f", "1http://example.com", "ht~tp://example.com/a"
+    };
+    for (int round = 0; round < 2; round++) { // second round from cache
+      for (String input : inputs) {
+        Object expected;
+        try {
+          expected = normalizeWithURI(input);
+        } catch (RuntimeException e) {
+          expected = e.getClass();
+        }
+        Object actual;
+        try {
+          actual = NormURI.normalize(input);
+        } catch (RuntimeException e) {
+          actual = e.getClass();
+        }
+        assertThat(input, actual, equalTo(expected));
+        assertThat(input, String.valueOf(actual), equalTo(String.valueOf(expected)));
+      }
+    }
+    URI uri = new URI("http://www.example.com//a/");
+    assertThat(NormURI.normalize(uri), equalTo(normalizeWithURI(uri.toString())));
+  }
+
+  private static Optional<URI> normalizeWithURI(String uriString) {
+    URI n;
+    try {
+      n = new URI(uriString).normalize();
+    } catch (URISyntaxException e) {
+      return Optional.empty();
+    }
+    String host = n.getHost() == null ? null : n.getHost().replaceAll("^www.", "").toLowerCase();
+    String path = new File(n.getPath() == null ? "" : n.getPath()).getPath();
+    try {
+      if (n.isOpaque()) {
+        return Optional.of(new URI(n.getScheme(), n.getSchemeSpecificPart(), n.getFragment()));
+      } else {
+        return Optional.of(new URI(n.getScheme(), null, host, n.getPort(), path, null, null));
+      }
+    } catch (URISyntaxException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   @Test
   public void testLive() throws Exception {
     assumeTrue(Testing.LIVE_TESTS);
@@ -0,0 +1,98 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class PhaseTimesTest {
+
+  @Test
+  public void accumulateAndReport() throws Exception {
+    PhaseTimes phaseTimes = new PhaseTimes();
+    for (int i = 0; i < 2; i++) {
+      PhaseTimes.Split split = PhaseTimes.start();
+      Thread.sleep(20);
+      assertThat(phaseTimes.stop(PhaseTimes.DOWNLOAD, split), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20)));
+    }
+    PhaseTimes.Split split = PhaseTimes.start();
+    long sum = 0;
+    for (int i = 0; i < 1000000; i++) {
+      sum += Integer.toString(i).hashCode();
+    }
+    phaseTimes.stop(PhaseTimes.VERIFY, split);
+
+    assertThat(phaseTimes.getWallNanos(PhaseTimes.DOWNLOAD), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(40)));
+    // sleeping takes next to no CPU
+    assertThat(phaseTimes.getCpuNanos(PhaseTimes.DOWNLOAD) < phaseTimes.getWallNanos(PhaseTimes.DOWNLOAD), is(true));
+    assertThat(phaseTimes.getWallNanos(PhaseTimes.VERIFY), greaterThan(0L));
+    assertThat(phaseTimes.getWallNanos(PhaseTimes.EXPLORE), is(0L));
+
+    RsProperties syncProps = new RsProperties();
+    phaseTimes.report(syncProps, "sw.time.");
+    assertThat(syncProps.getLong("sw.time.download.wall.ms"), greaterThanOrEqualTo(40L));
+    assertThat(syncProps.getLong("sw.time.download.thread.ms"), greaterThanOrEqualTo(40L));
+    assertThat(syncProps.getProperty("sw.time.explore.wall.ms"), nullValue());
+
+    phaseTimes.clear();
+    assertThat(phaseTimes.getWallNanos(PhaseTimes.DOWNLOAD), is(0L));
+    assertThat(sum == 0, is(false));
+  }
+
+  @Test
+  public void concurrentSplits() throws Exception {
+    PhaseTimes phaseTimes = new PhaseTimes();
+    CountDownLatch started = new CountDownLatch(4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      futures.add(executor.submit(() -> {
+        PhaseTimes.Split split = PhaseTimes.start();
+        started.countDown();
+        started.await();
+        Thread.sleep(100);
+        return phaseTimes.stop(PhaseTimes.DOWNLOAD, split);
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    // four splits of 100 ms that ran at the same time
+    assertThat(phaseTimes.getThreadNanos(PhaseTimes.DOWNLOAD), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(400)));
+    assertThat(phaseTimes.getWallNanos(PhaseTimes.DOWNLOAD), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100)));
+    assertThat(phaseTimes.getWallNanos(PhaseTimes.DOWNLOAD) < TimeUnit.MILLISECONDS.toNanos(400), is(true));
+  }
+
+  @Test
+  public void addHelperCpuTime() throws Exception {
+    PhaseTimes phaseTimes = new PhaseTimes();
+    PhaseTimes.Split outer = PhaseTimes.start();
+    PhaseTimes.Split inner = PhaseTimes.start();
+    PhaseTimes.addHelperCpuTime(TimeUnit.SECONDS.toNanos(5));
+    phaseTimes.stop(PhaseTimes.HASH, inner);
+    // after the inner split stopped, helper time goes to the outer split
+    PhaseTimes.addHelperCpuTime(TimeUnit.SECONDS.toNanos(3));
+    phaseTimes.stop(PhaseTimes.VERIFY, outer);
+    // without a split the time is dropped
+    PhaseTimes.addHelperCpuTime(TimeUnit.SECONDS.toNanos(1));
+
+    assertThat(phaseTimes.getCpuNanos(PhaseTimes.HASH), greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(5)));
+    assertThat(phaseTimes.getCpuNanos(PhaseTimes.HASH) < TimeUnit.SECONDS.toNanos(6), is(true));
+    assertThat(phaseTimes.getCpuNanos(PhaseTimes.VERIFY), greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(3)));
+    assertThat(phaseTimes.getCpuNanos(PhaseTimes.VERIFY) < TimeUnit.SECONDS.toNanos(4), is(true));
+    assertThat(phaseTimes.getWallNanos(PhaseTimes.HASH) < TimeUnit.SECONDS.toNanos(1), is(true));
+  }
+}
@@ -3,10 +3,17 @@ package nl.knaw.dans.rs.aggregator.util;
 
 import org.junit.Test;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
 import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
 import java.util.Date;
+import java.util.Random;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
@@ -80,6 +87,74 @@ public class ZonedDateTimeUtilTest {
     assertThat(replacedZoneId, equalTo(newZoneId));
   }
 
+  @Test
+  public void testSameAsFormatters() throws Exception {
+    String[] inputs = {
+      "2016", "2015-08", "2014-08-09", "2013-03-09T14", "2012-03-09T14:30", "2011-03-09T14:30:29",
+      "2010-01-09T14:30:29.1", "2010-06-09T14:30:29.123456", "2010-06-09T14:30:29.123456789",
+      "2009-03-09T14:30:29.123+01:00", "2008-03-09T14:30:29.123-01:00", "2007-03-09T14:30:29.123Z",
+      "2005-03-09T14:30Z", "2005-03-09T14:30+14:00", "2005-03-09T14:30:00-00:00", "2004-02-29T23:59:59.999Z",
+      // resolved or rejected by the formatters
+      "2003-02-29T10:00Z", "2003-02-29", "2003-04-31T10:00", "2003-01-01T24:00", "2003-01-01T24:00Z",
+      "2003-01-01T10:00+1:00", "2003-01-01T10:00+19:00", "2003-01-01T10:00:00+01:00:00", "2003-01-01T10Z",
+      "2003-01-01T10:00:60Z", "2003-01-01T10:00:00.Z", "2003-01-01T10:00:00.1234567890Z", "0000-01-01T10:00Z",
+      "2003Z", "2003-13", "2003-1-1", "20030101", "2003-01-01t10:00Z", "2003-01-01T10:00z", "", "Z", "invalid"
+    };
+    ZoneId oldZoneId = ZonedDateTimeUtil.setZoneId(ZoneId.of("Europe/Amsterdam"));
+    try {
+      for (int round = 0; round < 2; round++) { // second round from cache
+        for (String input : inputs) {
+          assertSameResult(input);
+        }
+      }
+      Random random = new Random(42);
+      for (int i = 0; i < 1000; i++) {
+        ZonedDateTime zdt = ZonedDateTime.ofInstant(Instant.ofEpochSecond(random.nextInt(Integer.MAX_VALUE),
+          random.nextInt(1000) * 1000000L), ZoneOffset.ofHoursMinutes(random.nextInt(25) - 12, 0));
+        assertSameResult(zdt.toString());
+        assertSameResult(zdt.toLocalDateTime().toString());
+      }
+      // a DST gap in the local zone
+      assertSameResult("2017-03-26T02:30");
+      ZonedDateTimeUtil.setZoneId(ZoneId.of("UTC+10:00"));
+      assertSameResult("2017-03-26T02:30");
+    } finally {
+      ZonedDateTimeUtil.setZoneId(oldZoneId);
+    }
+  }
+
+  private static void assertSameResult(String input) {
+    Object expected;
+    try {
+      expected = parseWithFormatters(input);
+    } catch (RuntimeException e) {
+      expected = e.getClass();
+    }
+    Object actual;
+    try {
+      actual = ZonedDateTimeUtil.fromXmlString(input);
+    } catch (RuntimeException e) {
+      actual = e.getClass();
+    }
+    assertThat(input, actual, equalTo(expected));
+  }
+
+  private static ZonedDateTime parseWithFormatters(String value) {
+    if (value.matches(".*([Z]|[+-][0-9]{1,2}:[0-9]{1,2})$")) {
+      return ZonedDateTime.parse(value).withZoneSameInstant(ZoneOffset.UTC);
+    }
+    DateTimeFormatter localFormat = new DateTimeFormatterBuilder()
+      .appendPattern("yyyy[-MM[-dd['T'HH[:mm[:ss]]]]]")
+      .parseDefaulting(ChronoField.MONTH_OF_YEAR, 1)
+      .parseDefaulting(ChronoField.DAY_OF_MONTH, 1)
+      .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+      .optionalStart()
+      .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+      .toFormatter();
+    LocalDateTime local = LocalDateTime.parse(value, localFormat);
+    return ZonedDateTime.of(local, ZonedDateTimeUtil.getZoneId()).withZoneSameInstant(ZoneOffset.UTC);
+  }
+
   @Test(expected = DateTimeParseException.class)
   public void testUnmarshalWithInvalidString() throws Exception {
     ZonedDateTimeUtil.fromXmlString("ivalid string");
@@ -10,7 +10,12 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
@@ -47,6 +52,34 @@ public class RsBuilderTest {
 
   }
 
+  @Test
+  public void buildConcurrently() throws Exception {
+    ResourceSyncContext rsContext = new ResourceSyncContext();
+    RsBuilder rsBuilder = new RsBuilder(rsContext);
+    String sitemapindexXml = rsBuilder.toXml(createSitemapIndex(), false);
+    String urlsetXml = rsBuilder.toXml(createUrlset(), false);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<RsRoot>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < 200; i++) {
+        String xml = i % 2 == 0 ? sitemapindexXml : urlsetXml;
+        futures.add(executor.submit(() ->
+          rsBuilder.build(IOUtils.toInputStream(xml, StandardCharsets.UTF_8)).get()));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        RsRoot root = futures.get(i).get();
+        assertThat(root.getClass().equals(Sitemapindex.class), is(i % 2 == 0));
+        assertThat(root.getItemList().size(), is(2));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // the same thread gets the same Unmarshaller
+    assertThat(rsContext.getUnmarshaller() == rsContext.getUnmarshaller(), is(true));
+  }
+
   @Test(expected = JAXBException.class)
   public void buildAndFailure() throws Exception {
     String invalidXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"><foo>bar</foo>";
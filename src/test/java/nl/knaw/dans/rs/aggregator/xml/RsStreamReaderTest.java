@@ -0,0 +1,94 @@
+package nl.knaw.dans.rs.aggregator.xml;
+
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class RsStreamReaderTest {
+
+  @Test
+  public void streamUrlset() throws Exception {
+    ResourceSyncContext rsContext = new ResourceSyncContext();
+    String xml = new RsBuilder(rsContext).toXml(createResourceList(), true);
+    InputStream inStream = IOUtils.toInputStream(xml, StandardCharsets.UTF_8);
+
+    List<RsItem<?>> items = new ArrayList<>();
+    RsRoot root = new RsStreamReader(rsContext).stream(inStream, items::add).get();
+    IOUtils.closeQuietly(inStream);
+
+    assertThat(root, instanceOf(Urlset.class));
+    assertThat(root.getMetadata().getCapability().get(), equalTo("resourcelist"));
+    assertThat(root.getMetadata().getAt().get(), equalTo(ZonedDateTime.parse("2017-05-01T10:00Z")));
+    assertThat(root.getLink("up"), equalTo("http://example.com/dataset1/capabilitylist.xml"));
+    assertThat(root.getItemList().isEmpty(), is(true));
+
+    assertThat(items.size(), is(3));
+    assertThat(items.get(0), instanceOf(UrlItem.class));
+    assertThat(items.get(0).getLoc(), equalTo("http://example.com/res1.txt"));
+    assertThat(items.get(0).getMetadata().flatMap(RsMd::getHash).get(), equalTo("md5:1584abdf8ebdc9802ac0c6a7402c03b6"));
+    assertThat(items.get(1).getLastmod().get(), equalTo(ZonedDateTime.parse("2017-04-30T10:00Z")));
+    assertThat(items.get(2).getLinkList().get(0).getHref(), equalTo("http://also.com/res3.txt"));
+  }
+
+  @Test
+  public void readSitemapindexWithAndWithoutItems() throws Exception {
+    ResourceSyncContext rsContext = new ResourceSyncContext();
+    RsStreamReader streamReader = new RsStreamReader(rsContext);
+    String xml = new RsBuilder(rsContext).toXml(createSitemapIndex(), false);
+
+    InputStream inStream = IOUtils.toInputStream(xml, StandardCharsets.UTF_8);
+    RsRoot root = streamReader.read(inStream, rsRoot -> true).get();
+    IOUtils.closeQuietly(inStream);
+
+    assertThat(root, instanceOf(Sitemapindex.class));
+    assertThat(root.getItemList().size(), is(2));
+    assertThat(((SitemapItem) root.getItemList().get(1)).getLoc(), equalTo("http://example.com/resourcelist2.xml"));
+
+    inStream = IOUtils.toInputStream(xml, StandardCharsets.UTF_8);
+    root = streamReader.read(inStream, rsRoot -> false).get();
+    IOUtils.closeQuietly(inStream);
+
+    assertThat(root.getMetadata().getCapability().get(), equalTo("resourcelist"));
+    assertThat(root.getItemList().isEmpty(), is(true));
+  }
+
+  @Test(expected = JAXBException.class)
+  public void streamAndFailure() throws Exception {
+    String invalidXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><foo>bar</foo>";
+    InputStream invalidIs = IOUtils.toInputStream(invalidXml, StandardCharsets.UTF_8);
+    new RsStreamReader(new ResourceSyncContext()).stream(invalidIs, item -> {});
+  }
+
+  private Sitemapindex createSitemapIndex() {
+    return new Sitemapindex(new RsMd("resourcelist"))
+      .addLink(new RsLn("up", "http://example.com/dataset1/capabilitylist.xml"))
+      .addItem(new SitemapItem("http://example.com/resourcelist1.xml")
+        .withMetadata(new RsMd().withAt(ZonedDateTime.now(ZoneOffset.UTC))))
+      .addItem(new SitemapItem("http://example.com/resourcelist2.xml")
+        .withMetadata(new RsMd().withAt(ZonedDateTime.now(ZoneOffset.UTC))));
+  }
+
+  private Urlset createResourceList() {
+    return new Urlset(new RsMd("resourcelist").withAt(ZonedDateTime.parse("2017-05-01T10:00Z")))
+      .addLink(new RsLn("up", "http://example.com/dataset1/capabilitylist.xml"))
+      .addItem(new UrlItem("http://example.com/res1.txt")
+        .withMetadata(new RsMd().withHash("md5:1584abdf8ebdc9802ac0c6a7402c03b6").withLength(8876L)))
+      .addItem(new UrlItem("http://example.com/res2.txt")
+        .withLastmod(ZonedDateTime.parse("2017-04-30T10:00Z")))
+      .addItem(new UrlItem("http://example.com/res3.txt")
+        .addLink(new RsLn("duplicate", "http://also.com/res3.txt")));
+  }
+}